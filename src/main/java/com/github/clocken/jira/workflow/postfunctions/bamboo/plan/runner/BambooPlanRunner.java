@@ -16,31 +16,24 @@
 
 package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner;
 
-import com.atlassian.applinks.api.ApplicationId;
-import com.atlassian.applinks.api.CredentialsRequiredException;
-import com.atlassian.applinks.api.ReadOnlyApplicationLink;
-import com.atlassian.applinks.api.ReadOnlyApplicationLinkService;
 import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.util.I18nHelper;
 import com.atlassian.jira.workflow.function.issue.AbstractJiraFunctionProvider;
 import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
-import com.atlassian.sal.api.net.ResponseException;
 import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.FieldValueLookup;
 import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FieldAccessor;
-import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FunctionDescriptorUtils;
-import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BambooRestApi;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTriggerDispatcher;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PreparedTrigger;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PreparedTriggerCache;
 import com.opensymphony.module.propertyset.PropertySet;
 import com.opensymphony.workflow.WorkflowException;
-import org.apache.commons.lang.text.StrSubstitutor;
-import org.apache.commons.lang3.RegExUtils;
-import org.apache.commons.lang3.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
-import java.text.MessageFormat;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
+
+import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTrigger.Builder.aBuildTrigger;
 
 /**
  * This is the post-function class that gets executed at the end of the transition.
@@ -48,70 +41,54 @@ import java.util.Map;
  */
 public class BambooPlanRunner extends AbstractJiraFunctionProvider {
 
+    public static final String FIELD_CONFIGURATION_ID = "configuration_id";
     public static final String FIELD_SELECTED_APPLINK = "selected_applink";
     public static final String FIELD_SELECTED_PLAN_FOR = "selected_plan_for_";
     public static final String FIELD_SELECTED_VALUES_BY_VARIABLE = "selected_values_by_variable";
+    public static final String FIELD_DEBOUNCE_SECONDS = "debounce_seconds";
 
-    private static final Logger LOG = LoggerFactory.getLogger(BambooPlanRunner.class);
-
-    private final ReadOnlyApplicationLinkService applicationLinkService;
     private final I18nHelper i18nHelper;
-    private final BambooRestApi bambooRestApi;
-    private final FunctionDescriptorUtils functionDescriptorUtils;
+    private final BuildTriggerDispatcher buildTriggerDispatcher;
     private final FieldAccessor fieldAccessor;
+    private final PreparedTriggerCache preparedTriggerCache;
 
     @Inject
-    public BambooPlanRunner(@ComponentImport ReadOnlyApplicationLinkService applicationLinkService,
-                            @ComponentImport I18nHelper i18nHelper,
-                            BambooRestApi bambooRestApi,
-                            FunctionDescriptorUtils functionDescriptorUtils, FieldAccessor fieldAccessor) {
-        this.applicationLinkService = applicationLinkService;
-        this.bambooRestApi = bambooRestApi;
-        this.functionDescriptorUtils = functionDescriptorUtils;
+    public BambooPlanRunner(@ComponentImport I18nHelper i18nHelper,
+                            BuildTriggerDispatcher buildTriggerDispatcher,
+                            FieldAccessor fieldAccessor,
+                            PreparedTriggerCache preparedTriggerCache) {
         this.i18nHelper = i18nHelper;
+        this.buildTriggerDispatcher = buildTriggerDispatcher;
         this.fieldAccessor = fieldAccessor;
+        this.preparedTriggerCache = preparedTriggerCache;
     }
 
     @Override
     public void execute(Map transientVars, Map args, PropertySet ps) throws WorkflowException {
-        String selectedApplinkId = (String) args.get(FIELD_SELECTED_APPLINK);
-        if (StringUtils.isEmpty(selectedApplinkId)) {
-            LOG.error("No Application link selected. Not running any plan!");
-            return;
-        }
-
-        String selectedPlan = StringUtils.remove(
-                (String) args.get(FIELD_SELECTED_PLAN_FOR + selectedApplinkId),
-                selectedApplinkId + "_");
-        if (StringUtils.isEmpty(selectedPlan)) {
-            LOG.error("No plan selected for the Application Link {}. Not running any plan!", selectedApplinkId);
+        // Parsed on the first transition only, errors are logged by the cache
+        Optional<PreparedTrigger> preparedTrigger = preparedTriggerCache.getPreparedTrigger(args);
+        if (!preparedTrigger.isPresent()) {
             return;
         }
 
-        StrSubstitutor substitutor = new StrSubstitutor(new FieldValueLookup(i18nHelper, fieldAccessor, (Issue) transientVars.get("issue")),
-                "$(",
-                ")",
-                '\\');
+        Issue issue = (Issue) transientVars.get("issue");
+        FieldValueLookup fieldValueLookup = new FieldValueLookup(i18nHelper, fieldAccessor, issue);
+        // Shared by all variables of this execution
+        StringBuilder renderedValue = new StringBuilder();
         final Map<String, String> selectedValuesByVariable = new HashMap<>();
-        functionDescriptorUtils.createDecodedMapFromBase64String((String) args.get(FIELD_SELECTED_VALUES_BY_VARIABLE))
-                .forEach((variable, value) ->
-                        selectedValuesByVariable.put(
-                                RegExUtils.removeFirst(variable,
-                                        MessageFormat.format(".*for_{0}_{1}_", selectedApplinkId, selectedPlan)),
-                                substitutor.replace(value))
-                );
+        preparedTrigger.get().getTemplatesByVariable()
+                .forEach((variable, template) -> {
+                    renderedValue.setLength(0);
+                    template.renderTo(fieldValueLookup, renderedValue);
+                    selectedValuesByVariable.put(variable, renderedValue.toString());
+                });
 
-        ReadOnlyApplicationLink selectedApplink = applicationLinkService.getApplicationLink(new ApplicationId(selectedApplinkId));
-        if (selectedApplink == null) {
-            LOG.error("No Application link found for ID {}. Not running any plan!", selectedApplinkId);
-            return;
-        }
-
-        try {
-            bambooRestApi.queueBuild(selectedApplink, selectedPlan, selectedValuesByVariable);
-        } catch (CredentialsRequiredException | ResponseException e) {
-            LOG.error("Error running plan {}: {}", selectedPlan, e.getMessage());
-            LOG.error("Exception: ", e);
-        }
+        // Variables are resolved above while the issue is at hand, the request to Bamboo is sent in the background
+        buildTriggerDispatcher.dispatch(aBuildTrigger()
+                .forApplink(preparedTrigger.get().getApplink())
+                .forPlan(preparedTrigger.get().getPlanKey())
+                .forIssue(issue.getKey())
+                .debouncedFor(preparedTrigger.get().getDebounceSeconds())
+                .withValuesByVariable(selectedValuesByVariable).build());
     }
 }
\ No newline at end of file
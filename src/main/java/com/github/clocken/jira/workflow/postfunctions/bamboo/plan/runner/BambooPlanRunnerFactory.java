@@ -17,23 +17,25 @@
 package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner;
 
 import com.atlassian.applinks.api.ApplicationId;
-import com.atlassian.applinks.api.CredentialsRequiredException;
 import com.atlassian.applinks.api.ReadOnlyApplicationLink;
 import com.atlassian.applinks.api.ReadOnlyApplicationLinkService;
 import com.atlassian.applinks.api.application.bamboo.BambooApplicationType;
-import com.atlassian.jira.issue.fields.FieldException;
 import com.atlassian.jira.plugin.workflow.AbstractWorkflowPluginFactory;
 import com.atlassian.jira.plugin.workflow.WorkflowPluginFunctionFactory;
+import com.atlassian.jira.util.I18nHelper;
+import com.atlassian.jira.util.json.JSONException;
+import com.atlassian.jira.util.json.JSONObject;
 import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
-import com.atlassian.sal.api.net.ResponseException;
-import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.Base64EncodedHashMap;
-import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FieldAccessor;
 import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FunctionDescriptorUtils;
-import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BambooRestApi;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.TemplateCompiler;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.ConfigurationRegistry;
 import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalog;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalogSnapshot;
 import com.opensymphony.workflow.loader.AbstractDescriptor;
 import com.opensymphony.workflow.loader.FunctionDescriptor;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,12 +52,14 @@ public class BambooPlanRunnerFactory extends AbstractWorkflowPluginFactory imple
 
     public static final String FIELD_APPLINKS = "applinks";
     public static final String FIELD_SELECTED_APPLINK = "selected_applink";
-    public static final String FIELD_PLANS_BY_APPLINK = "plans_by_applink";
     public static final String FIELD_SELECTED_PLAN_FOR = "selected_plan_for_";
-    public static final String FIELD_FIELDS = "fields";
     public static final String FIELD_SELECTED_VALUE_TYPES_BY_VARIABLE = "selected_value_types_by_variable";
     public static final String FIELD_SELECTED_VALUES_BY_VARIABLE = "selected_values_by_variable";
     public static final String FIELD_VARIABLES_TO_USE = "variables_to_use";
+    public static final String FIELD_CATALOG_VERSION = "catalog_version";
+    public static final String FIELD_SELECTION = "selection";
+    public static final String FIELD_CONFIGURATION_ID = "configuration_id";
+    public static final String FIELD_DEBOUNCE_SECONDS = "debounce_seconds";
 
     private static final Logger LOG = LoggerFactory.getLogger(BambooPlanRunnerFactory.class);
     private static final Pattern KEY_PREFIX_PATTERN = Pattern.compile("(.*)_for.*");
@@ -69,20 +73,25 @@ public class BambooPlanRunnerFactory extends AbstractWorkflowPluginFactory imple
     }
 
     private final ReadOnlyApplicationLinkService applicationLinkService;
-    private final BambooRestApi bambooRestApi;
+    private final PlanCatalog planCatalog;
     private final FunctionDescriptorUtils functionDescriptorUtils;
-    private final FieldAccessor fieldAccessor;
-    private final Map<ApplicationId, List<Plan>> plansByApplink = new HashMap<>();
+    private final TemplateCompiler templateCompiler;
+    private final ConfigurationRegistry configurationRegistry;
+    private final I18nHelper i18nHelper;
 
     @Inject
     public BambooPlanRunnerFactory(@ComponentImport ReadOnlyApplicationLinkService applicationLinkService,
-                                   BambooRestApi bambooRestApi,
+                                   PlanCatalog planCatalog,
                                    FunctionDescriptorUtils functionDescriptorUtils,
-                                   FieldAccessor fieldAccessor) {
+                                   TemplateCompiler templateCompiler,
+                                   ConfigurationRegistry configurationRegistry,
+                                   @ComponentImport I18nHelper i18nHelper) {
         this.applicationLinkService = applicationLinkService;
-        this.bambooRestApi = bambooRestApi;
+        this.planCatalog = planCatalog;
         this.functionDescriptorUtils = functionDescriptorUtils;
-        this.fieldAccessor = fieldAccessor;
+        this.templateCompiler = templateCompiler;
+        this.configurationRegistry = configurationRegistry;
+        this.i18nHelper = i18nHelper;
     }
 
     @Override
@@ -96,28 +105,15 @@ public class BambooPlanRunnerFactory extends AbstractWorkflowPluginFactory imple
 
         velocityParams.put(FIELD_APPLINKS, bambooApplinks);
 
-        bambooApplinks.forEach(bambooApplink -> {
-            try {
-                plansByApplink.put(bambooApplink.getId(), bambooRestApi.plans(bambooApplink));
-                velocityParams.put(FIELD_PLANS_BY_APPLINK, plansByApplink);
-            } catch (CredentialsRequiredException | ResponseException e) {
-                LOG.error("Error while fetching Bamboo plans: {}", e.getMessage());
-                LOG.error("Exception: ", e);
-            }
-        });
-
-        try {
-            velocityParams.put(FIELD_FIELDS, fieldAccessor.getAllExportableJiraFields());
-        } catch (FieldException e) {
-            LOG.error("Error while fetching JIRA fields: {}", e.getMessage());
-            LOG.error("Exception: ", e);
-        }
+        // The plans, variables and fields are requested by the editor, as the user selects or searches them
+        velocityParams.put(FIELD_CATALOG_VERSION, planCatalog.getSnapshot().getVersion());
     }
 
     @Override
     protected void getVelocityParamsForEdit(Map<String, Object> velocityParams, AbstractDescriptor descriptor) {
         getVelocityParamsForInput(velocityParams);
         getVelocityParamsForView(velocityParams, descriptor);
+        velocityParams.put(FIELD_SELECTION, createSelection(velocityParams));
     }
 
     @Override
@@ -146,6 +142,10 @@ public class BambooPlanRunnerFactory extends AbstractWorkflowPluginFactory imple
         Map<String, String> selectedValuesByVariable = functionDescriptorUtils.parseMapFromFunctionDescriptor(functionDescriptor, FIELD_SELECTED_VALUES_BY_VARIABLE);
         velocityParams.put(FIELD_SELECTED_VALUES_BY_VARIABLE, selectedValuesByVariable);
         LOG.debug("Selected values for variables {}", selectedValuesByVariable);
+
+        int debounceSeconds = NumberUtils.toInt((String) functionDescriptor.getArgs().get(FIELD_DEBOUNCE_SECONDS));
+        velocityParams.put(FIELD_DEBOUNCE_SECONDS, debounceSeconds);
+        LOG.debug("Debounce seconds {}", debounceSeconds);
     }
 
     public Map<String, ?> getDescriptorParams(Map<String, Object> formParams) {
@@ -157,10 +157,12 @@ public class BambooPlanRunnerFactory extends AbstractWorkflowPluginFactory imple
         String selectedPlanForApplink = extractSingleParam(formParams, FIELD_SELECTED_PLAN_FOR + selectedApplink);
         params.put(FIELD_SELECTED_PLAN_FOR + selectedApplink, selectedPlanForApplink);
 
+        ApplicationId applicationId = new ApplicationId(selectedApplink);
+        Optional<List<Plan>> plans = plansOf(applicationId);
         List<String> variablesToUse = new ArrayList<>();
-        Map<String, String> selectedValueTypesByVariable = new Base64EncodedHashMap();
-        Map<String, String> selectedValuesByVariable = new Base64EncodedHashMap();
-        plansByApplink.get(new ApplicationId(selectedApplink)).forEach(plan -> {
+        Map<String, String> selectedValueTypesByVariable = new LinkedHashMap<>();
+        Map<String, String> selectedValuesByVariable = new LinkedHashMap<>();
+        plans.orElse(Collections.emptyList()).forEach(plan -> {
             if (StringUtils.endsWith(selectedPlanForApplink, plan.getKey())) {
 
                 plan.getVariables().forEach(variable -> {
@@ -178,8 +180,10 @@ public class BambooPlanRunnerFactory extends AbstractWorkflowPluginFactory imple
                         String selectedValueForVariableKey =
                                 getSelectedValueForVariableKey(extractSingleParam(formParams, variableValueTypeKey), selectedApplink, plan.getKey(), variable);
                         if (StringUtils.isNotEmpty(selectedValueForVariableKey)) {
-                            selectedValuesByVariable.put(selectedValueForVariableKey,
-                                    extractSingleParam(formParams, selectedValueForVariableKey));
+                            String selectedValue = extractSingleParam(formParams, selectedValueForVariableKey);
+                            selectedValuesByVariable.put(selectedValueForVariableKey, selectedValue);
+                            // Spares the first transition parsing the value
+                            templateCompiler.compile(selectedValue);
                         }
 
                         LOG.debug("Using variable {} with type {} and value {}", useVariableForPlanKey,
@@ -189,13 +193,99 @@ public class BambooPlanRunnerFactory extends AbstractWorkflowPluginFactory imple
                 });
             }
         });
-        params.put(FIELD_VARIABLES_TO_USE, variablesToUse);
-        params.put(FIELD_SELECTED_VALUE_TYPES_BY_VARIABLE, selectedValueTypesByVariable);
-        params.put(FIELD_SELECTED_VALUES_BY_VARIABLE, selectedValuesByVariable);
+        rejectIfSelectionDiscarded(formParams, applicationId, selectedPlanForApplink, variablesToUse, plans.isPresent());
+        params.put(FIELD_VARIABLES_TO_USE, functionDescriptorUtils.createStringFromList(variablesToUse));
+        params.put(FIELD_SELECTED_VALUE_TYPES_BY_VARIABLE, functionDescriptorUtils.createEncodedStringFromMap(selectedValueTypesByVariable));
+        params.put(FIELD_SELECTED_VALUES_BY_VARIABLE, functionDescriptorUtils.createEncodedStringFromMap(selectedValuesByVariable));
+        int debounceSeconds = formParams.containsKey(FIELD_DEBOUNCE_SECONDS)
+                ? NumberUtils.toInt(StringUtils.trim(extractSingleParam(formParams, FIELD_DEBOUNCE_SECONDS)))
+                : 0;
+        params.put(FIELD_DEBOUNCE_SECONDS, Integer.toString(Math.max(0, debounceSeconds)));
+        // Post functions with identical configurations share the parsed and compiled trigger
+        params.put(FIELD_CONFIGURATION_ID, configurationRegistry.register(params));
 
         return params;
     }
 
+    /**
+     * Creates the JSON the editor uses to restore the selection, once it has loaded the variables of the selected plan.
+     */
+    @SuppressWarnings("unchecked")
+    private String createSelection(Map<String, Object> velocityParams) {
+        String selectedApplink = (String) velocityParams.get(FIELD_SELECTED_APPLINK);
+        try {
+            return new JSONObject()
+                    .put("plan", velocityParams.get(FIELD_SELECTED_PLAN_FOR + selectedApplink))
+                    .put("variablesToUse", (Collection<String>) velocityParams.get(FIELD_VARIABLES_TO_USE))
+                    .put("valueTypes", (Map<String, String>) velocityParams.get(FIELD_SELECTED_VALUE_TYPES_BY_VARIABLE))
+                    .put("values", (Map<String, String>) velocityParams.get(FIELD_SELECTED_VALUES_BY_VARIABLE))
+                    .toString();
+        } catch (JSONException e) {
+            LOG.error("Error while creating the selection for the editor: {}", e.getMessage());
+            LOG.error("Exception: ", e);
+            return "{}";
+        }
+    }
+
+    /**
+     * Rejects the form, if variables were selected that the current plans do not have, as saving would silently drop
+     * them from the post function. The form is stale, if the plans of the Bamboo instance changed in a later version
+     * of the catalog than the one it was rendered from.
+     */
+    private void rejectIfSelectionDiscarded(Map<String, Object> formParams, ApplicationId applicationId,
+                                            String selectedPlanForApplink, List<String> variablesToUse,
+                                            boolean plansAvailable) {
+        String useVariableKeyPrefix = "use_" + selectedPlanForApplink + "_";
+        List<String> discardedVariables = new ArrayList<>();
+        formParams.keySet().stream()
+                .filter(key -> key.startsWith(useVariableKeyPrefix) && !variablesToUse.contains(key))
+                .sorted()
+                .forEach(key -> discardedVariables.add(key.substring(useVariableKeyPrefix.length())));
+        if (discardedVariables.isEmpty()) {
+            return;
+        }
+
+        if (!plansAvailable) {
+            LOG.warn("Not saving the post function, the plans of Bamboo instance {} could not be loaded to check the " +
+                    "variables {} of plan {}.", applicationId, discardedVariables, selectedPlanForApplink);
+            throw new IllegalArgumentException(i18nHelper.getText("bamboo-plan-runner.postfunction.catalog.unavailable",
+                    String.join(", ", discardedVariables)));
+        }
+
+        long renderedVersion = formParams.containsKey(FIELD_CATALOG_VERSION)
+                ? NumberUtils.toLong(extractSingleParam(formParams, FIELD_CATALOG_VERSION), -1L)
+                : -1L;
+        Optional<Long> entryVersion = planCatalog.getSnapshot().getEntry(applicationId)
+                .map(PlanCatalogSnapshot.Entry::getVersion);
+        // Without an entry, the plans were invalidated since they were loaded for this request
+        boolean stale = renderedVersion < 0 || entryVersion.map(version -> version > renderedVersion).orElse(true);
+        LOG.warn("Not saving the post function, the variables {} of plan {} are unknown (catalog version {} when " +
+                        "the form was rendered, plans changed in {}).", discardedVariables, selectedPlanForApplink,
+                renderedVersion, entryVersion.map(String::valueOf).orElse("none"));
+        throw new IllegalArgumentException(i18nHelper.getText(stale
+                        ? "bamboo-plan-runner.postfunction.variables.discarded"
+                        : "bamboo-plan-runner.postfunction.variables.unknown",
+                String.join(", ", discardedVariables)));
+    }
+
+    /**
+     * @return the plans of the Bamboo instance, or an empty {@link Optional}, if they could not be loaded
+     */
+    private Optional<List<Plan>> plansOf(ApplicationId applicationId) {
+        Optional<List<Plan>> cachedPlans = planCatalog.getCachedPlans(applicationId);
+        if (cachedPlans.isPresent()) {
+            return cachedPlans;
+        }
+        // The plans may have been invalidated since the form was rendered
+        ReadOnlyApplicationLink bambooApplink = applicationLinkService.getApplicationLink(applicationId);
+        if (bambooApplink == null) {
+            LOG.error("No Application link found for ID {}. Not saving any variables.", applicationId);
+            return Optional.empty();
+        }
+        return Optional.ofNullable(planCatalog.getPlansByApplink(Collections.singletonList(bambooApplink))
+                .get(applicationId));
+    }
+
     private String getSelectedValueForVariableKey(String selectedValueType, String selectedApplink, String planKey, String variable) {
         Matcher keyPrefixMatcher = KEY_PREFIX_PATTERN.matcher(selectedValueType);
         if (keyPrefixMatcher.matches()) {
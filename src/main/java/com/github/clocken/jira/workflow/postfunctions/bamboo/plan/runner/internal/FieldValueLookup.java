@@ -17,15 +17,23 @@
 package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal;
 
 import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.export.FieldExportParts;
+import com.atlassian.jira.issue.fields.Field;
 import com.atlassian.jira.util.I18nHelper;
 import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FieldAccessor;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FieldValueResolver;
 import org.apache.commons.lang.text.StrLookup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * This class finds JIRA field values from an issue by <i>System field ID</i>, <i>Custom field ID</i> or
- * <i>Custom field name</i>. Ambiguous custom field names get rejected.
+ * <i>Custom field name</i>. Ambiguous custom field names get rejected.<br>
+ * Each field is read from the issue only once per instance, even if it is referenced by ID and by name, so create a new
+ * instance for every execution of the post function. Instances are not thread safe.
  */
 public class FieldValueLookup extends StrLookup {
 
@@ -34,6 +42,8 @@ public class FieldValueLookup extends StrLookup {
     private final I18nHelper i18nHelper;
     private final FieldAccessor fieldAccessor;
     private final Issue issue;
+    private final Map<FieldValueResolver, String> valuesByResolver = new HashMap<>();
+    private final Map<Field, FieldExportParts> representationsByField = new HashMap<>();
 
     /**
      * Constructs a new {@link FieldValueLookup} instance.
@@ -56,19 +66,16 @@ public class FieldValueLookup extends StrLookup {
      *
      * @param key The System field ID, Custom field ID or Custom field name to lookup
      * @return The value of the field in the issue, if found, an empty string if the value is <code>null</code> or a
-     * localized error text, if the field is not found
-     * @throws IllegalArgumentException if <code>key</code> is an ambiguous custom field name
+     * localized error text, if the field is not found or <code>key</code> is an ambiguous custom field name
      */
     @Override
     public String lookup(String key) {
-        return fieldAccessor.getCustomFieldValueFromIssue(issue, key)
+        return fieldAccessor.getFieldValueResolver(key)
+                .map(fieldValueResolver -> valuesByResolver.computeIfAbsent(fieldValueResolver,
+                        resolver -> resolver.resolve(issue, representationsByField)))
                 .orElseGet(() -> {
-                    LOG.warn("Custom field '{}' not resolved. Trying as system field.", key);
-                    return fieldAccessor.getSystemFieldValueFromIssue(issue, key)
-                            .orElseGet(() -> {
-                                LOG.error("Field '{}' is not resolvable.", key);
-                                return i18nHelper.getText("bamboo-plan-runner.postfunction.field.value.unresolved");
-                            });
+                    LOG.error("Field '{}' is not resolvable.", key);
+                    return i18nHelper.getText("bamboo-plan-runner.postfunction.field.value.unresolved");
                 });
     }
 }
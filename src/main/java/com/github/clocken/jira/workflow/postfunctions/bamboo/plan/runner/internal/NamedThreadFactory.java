@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads named <code>bamboo-plan-runner-{name}-{number}</code>, so the plugin's threads are easy to
+ * spot in thread dumps and never keep Jira from shutting down.
+ */
+public final class NamedThreadFactory implements ThreadFactory {
+
+    private final String namePrefix;
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    /**
+     * Constructs a new {@link NamedThreadFactory} instance.
+     *
+     * @param name The name identifying the pool the threads belong to
+     */
+    public NamedThreadFactory(String name) {
+        this.namePrefix = "bamboo-plan-runner-" + name + "-";
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
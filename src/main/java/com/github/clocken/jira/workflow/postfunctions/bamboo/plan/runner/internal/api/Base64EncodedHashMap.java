@@ -22,7 +22,11 @@ import java.util.HashMap;
 /**
  * An extension of {@link HashMap}, that encodes keys and values with {@link Base64.Encoder#withoutPadding()} when they are put.<br>
  * Note, that decoding is not implemented as {@link HashMap#get(Object)} is not overridden.
+ *
+ * @deprecated Its {@link #toString()} is the legacy format of post function arguments, which is still read but no
+ * longer written. Use {@link FunctionDescriptorUtils#createEncodedStringFromMap(java.util.Map)} instead.
  */
+@Deprecated
 public class Base64EncodedHashMap extends HashMap<String, String> {
 
     @Override
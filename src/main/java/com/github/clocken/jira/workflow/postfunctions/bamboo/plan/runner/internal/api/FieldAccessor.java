@@ -37,6 +37,30 @@ public interface FieldAccessor {
      */
     List<Field> getAllExportableJiraFields() throws FieldException;
 
+    /**
+     * Finds exportable JIRA fields while the user is typing. Fields whose ID or name equals the query come first,
+     * followed by the fields whose ID, name or a word of the name starts with the query, in the order of
+     * {@link #getAllExportableJiraFields()}.
+     *
+     * @param query The text to search for, case insensitive. An empty query matches all fields.
+     * @param limit The maximum number of fields to return
+     * @return The matching exportable JIRA fields
+     * @throws FieldException in case of a field access error
+     */
+    List<Field> searchExportableJiraFields(String query, int limit) throws FieldException;
+
+    /**
+     * Gets the resolver for the values of an exportable field by <i>Custom field ID</i>, <i>Custom field name</i> or
+     * <i>System field ID</i>, in this order of precedence. The resolvers are indexed once, so getting one does not
+     * search any fields.
+     *
+     * @param identifier <i>Custom field ID</i>, <i>Custom field name</i> or <i>System field ID</i>
+     * @return The {@link FieldValueResolver} wrapped in an {@link Optional}.<br>
+     * An empty {@link Optional}, if no exportable field has the given identifier or an ambiguous <i>Custom field name</i>
+     * was given.
+     */
+    Optional<FieldValueResolver> getFieldValueResolver(String identifier);
+
     /**
      * Tries to get a field value from the given issue by interpreting the given identifier as a <i>Custom field ID</i> or
      * <i>Custom field name</i> (ID precedes name).
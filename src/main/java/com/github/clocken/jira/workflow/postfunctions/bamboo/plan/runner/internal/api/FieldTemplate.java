@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api;
+
+import org.apache.commons.lang.text.StrLookup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A variable value parsed into literal text and references to JIRA fields, e. g. <code>Fix for $(issuekey)</code>.
+ * Instances are immutable and may be rendered concurrently. Use {@link TemplateCompiler} to get an instance.
+ */
+public final class FieldTemplate {
+
+    private static final String REFERENCE_PREFIX = "$(";
+    private static final String REFERENCE_SUFFIX = ")";
+
+    private final List<Segment> segments;
+
+    public FieldTemplate(List<Segment> segments) {
+        this.segments = Collections.unmodifiableList(new ArrayList<>(segments));
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return whether the template does not reference any field and thus always renders the same text
+     */
+    public boolean isConstant() {
+        return segments.stream().noneMatch(Segment::isFieldReference);
+    }
+
+    /**
+     * Appends the rendered template to the given {@link StringBuilder}. Field values are inserted as they are and are
+     * not searched for field references again.
+     *
+     * @param fieldValues the lookup of field values by field ID or name. Fields it returns <code>null</code> for are
+     *                    left in the output as they were written.
+     * @param target      the {@link StringBuilder} to append to
+     */
+    public void renderTo(StrLookup fieldValues, StringBuilder target) {
+        for (Segment segment : segments) {
+            if (!segment.isFieldReference()) {
+                target.append(segment.getText());
+                continue;
+            }
+            String value = fieldValues.lookup(segment.getText());
+            if (value == null) {
+                target.append(REFERENCE_PREFIX).append(segment.getText()).append(REFERENCE_SUFFIX);
+            } else {
+                target.append(value);
+            }
+        }
+    }
+
+    /**
+     * Either literal text or the ID or name of a field.
+     */
+    public static final class Segment {
+
+        private final String text;
+        private final boolean fieldReference;
+
+        private Segment(String text, boolean fieldReference) {
+            this.text = text;
+            this.fieldReference = fieldReference;
+        }
+
+        public static Segment literal(String text) {
+            return new Segment(text, false);
+        }
+
+        public static Segment fieldReference(String field) {
+            return new Segment(field, true);
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public boolean isFieldReference() {
+            return fieldReference;
+        }
+
+        @Override
+        public String toString() {
+            return fieldReference ? REFERENCE_PREFIX + text + REFERENCE_SUFFIX : text;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api;
+
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.export.FieldExportParts;
+import com.atlassian.jira.issue.fields.Field;
+
+import java.util.Map;
+
+/**
+ * Reads the value of one particular JIRA field from issues. Get instances from {@link FieldAccessor}.
+ */
+@FunctionalInterface
+public interface FieldValueResolver {
+
+    /**
+     * @param issue The issue to get the field value from
+     * @return The field value, multiple values separated by a comma. An empty string if the field has no value.
+     */
+    String resolve(Issue issue);
+
+    /**
+     * Like {@link #resolve(Issue)}, but shares the export representations of the issue's fields with other resolvers,
+     * so a field referenced by ID and by name is exported once only.
+     *
+     * @param issue                  The issue to get the field value from
+     * @param representationsByField The representations exported from the issue so far. The one this resolver exports
+     *                               is added.
+     * @return The field value, multiple values separated by a comma. An empty string if the field has no value.
+     */
+    default String resolve(Issue issue, Map<Field, FieldExportParts> representationsByField) {
+        return resolve(issue);
+    }
+}
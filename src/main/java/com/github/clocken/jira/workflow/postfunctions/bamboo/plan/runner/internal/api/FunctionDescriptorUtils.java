@@ -38,13 +38,22 @@ public interface FunctionDescriptorUtils {
     List<String> parseListFromFunctionDescriptor(FunctionDescriptor functionDescriptor, String key);
 
     /**
-     * Creates a {@link List} from the given string. The string should look like the result from {@link List#toString()}
+     * Creates a {@link List} from the given string. The string should be the result of
+     * {@link #createStringFromList(List)} or look like the result from {@link List#toString()}
      *
      * @param list the string to create the list from
      * @return the (unmodifiable) {@link List}
      */
     List<String> createListFromString(String list);
 
+    /**
+     * Creates the string representation of a {@link List} to be saved in a {@link FunctionDescriptor}
+     *
+     * @param list the list to represent
+     * @return the versioned string representation, to be read by {@link #createListFromString(String)}
+     */
+    String createStringFromList(List<String> list);
+
     /**
      * Reads a {@link Map} from the given {@link FunctionDescriptor}'s key
      *
@@ -56,11 +65,20 @@ public interface FunctionDescriptorUtils {
 
     /**
      * Creates a {@link Map} from the given string.<br>
-     * The string should look like the result from {@link Map#toString()} and the keys and values should be
-     * Base64 encoded without padding according to the standard encoding by {@link Base64.Encoder#withoutPadding()}.
+     * The string should be the result of {@link #createEncodedStringFromMap(Map)} or look like the result from
+     * {@link Map#toString()} with the keys and values Base64 encoded without padding according to the standard encoding
+     * by {@link Base64.Encoder#withoutPadding()}.
      *
      * @param map the string to create the map from. Keys and values should be Base64 encoded.
      * @return the (unmodifiable) {@link Map}. Keys and values are Base64 decoded.
      */
     Map<String, String> createDecodedMapFromBase64String(String map);
+
+    /**
+     * Creates the string representation of a {@link Map} to be saved in a {@link FunctionDescriptor}
+     *
+     * @param map the map to represent
+     * @return the versioned string representation, to be read by {@link #createDecodedMapFromBase64String(String)}
+     */
+    String createEncodedStringFromMap(Map<String, String> map);
 }
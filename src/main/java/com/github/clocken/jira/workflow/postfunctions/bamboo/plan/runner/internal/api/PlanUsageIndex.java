@@ -0,0 +1,38 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api;
+
+import java.util.List;
+
+/**
+ * Knows which workflow transitions run which Bamboo plans, so the transitions affected by a changed plan are found
+ * without reading every workflow.
+ */
+public interface PlanUsageIndex {
+
+    /**
+     * Gets the transitions running a plan. Waits until all workflows are indexed, if they are still being read after
+     * the plugin was enabled.
+     *
+     * @param applinkId the ID of the application link to the Bamboo instance
+     * @param planKey   the key of the plan
+     * @param variable  the plain name of a plan variable to only get the transitions setting it, or <code>null</code>
+     *                  to get all transitions running the plan
+     * @return the transitions, ordered by workflow, transition ID and position of the post function
+     */
+    List<TransitionReference> getTransitions(String applinkId, String planKey, String variable);
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api;
+
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTriggerDispatcher;
+
+/**
+ * Instance wide tuning parameters of the Bamboo Plan Runner.
+ */
+public interface PluginConfiguration {
+
+    /**
+     * @return the number of worker threads sending build triggers to Bamboo
+     */
+    int getDispatcherThreads();
+
+    /**
+     * @return the number of build triggers that may wait for a free worker thread
+     */
+    int getDispatcherQueueCapacity();
+
+    /**
+     * @return what to do with a build trigger when all workers are busy and the queue is full
+     */
+    BuildTriggerDispatcher.OverflowPolicy getDispatcherOverflowPolicy();
+
+    /**
+     * @return the maximum number of concurrent build requests against a single Bamboo instance
+     */
+    int getDispatcherRequestsPerApplink();
+
+    /**
+     * @return the number of build triggers per second, from which on they are treated as a bulk transition
+     */
+    int getDispatcherBulkThreshold();
+
+    /**
+     * @return whether all plans including their variables are fetched with the plan list instead of requesting the
+     * details of each plan separately
+     */
+    boolean isBulkPlanFetchEnabled();
+
+    /**
+     * @return the number of plans requested per page of Bamboo's plan list
+     */
+    int getPlanPageSize();
+
+    /**
+     * @return the number of threads sending catalog requests to Bamboo instances
+     */
+    int getCatalogRequestThreads();
+
+    /**
+     * @return the maximum number of concurrent catalog requests against a single Bamboo instance
+     */
+    int getCatalogRequestsPerApplink();
+
+    /**
+     * @return the number of Bamboo instances whose catalogs are loaded concurrently
+     */
+    int getCatalogLoaderThreads();
+
+    /**
+     * @return how long to wait for the catalog of a Bamboo instance, in seconds
+     */
+    int getCatalogLoadTimeoutSeconds();
+
+    /**
+     * @return how long the plans of a Bamboo instance are served from the cache before they get refreshed, in seconds
+     */
+    int getCatalogTtlSeconds();
+
+    /**
+     * @return how long outdated plans of a Bamboo instance may still be served while they get refreshed in the
+     * background, in seconds
+     */
+    int getCatalogMaxStaleSeconds();
+
+    /**
+     * @return the maximum size of a single response from Bamboo's plan API, in kilobytes
+     */
+    int getCatalogMaxResponseKilobytes();
+
+    /**
+     * @return whether the plans of all Bamboo instances are loaded in the background when the plugin gets enabled and
+     * refreshed periodically afterwards
+     */
+    boolean isCatalogWarmerEnabled();
+
+    /**
+     * @return how often the plans of a Bamboo instance are refreshed in the background, in seconds
+     */
+    int getCatalogRefreshIntervalSeconds();
+
+    /**
+     * @return the maximum random deviation from the refresh interval per Bamboo instance, in seconds, or {@code 0}
+     * to refresh exactly at the interval
+     */
+    int getCatalogRefreshJitterSeconds();
+
+    /**
+     * @return whether the plan catalog is written to Jira's local home, so it is available right after a restart
+     */
+    boolean isCatalogPersistenceEnabled();
+
+    /**
+     * @return the maximum number of compiled variable value templates kept in memory
+     */
+    int getTemplateCacheSize();
+
+    /**
+     * @return the maximum number of parsed post function configurations kept in memory
+     */
+    int getTriggerCacheSize();
+
+    /**
+     * @return the maximum number of registered post function configurations kept in memory
+     */
+    int getConfigurationRegistrySize();
+
+    /**
+     * @return whether build triggers are written to Jira's local home until Bamboo queued them, so they are sent
+     * after a restart, too
+     */
+    boolean isOutboxEnabled();
+
+    /**
+     * @return how often a build trigger is sent to Bamboo before it is given up
+     */
+    int getOutboxMaxAttempts();
+
+    /**
+     * @return how long to wait before sending a build trigger again for the first time, in seconds. The delay
+     * doubles with every further attempt.
+     */
+    int getOutboxRetryInitialSeconds();
+
+    /**
+     * @return the maximum delay before sending a build trigger again, in seconds
+     */
+    int getOutboxRetryMaxSeconds();
+
+    /**
+     * @return how many of the latest builds of a plan are searched for a build trigger Bamboo may have queued already,
+     * before the trigger is sent again
+     */
+    int getOutboxVerifyResults();
+
+    /**
+     * @return whether build triggers are skipped, if a trigger of the same plan with the same variables was sent to
+     * Bamboo shortly before
+     */
+    boolean isDeduplicationEnabled();
+
+    /**
+     * @return how long a build trigger sent to Bamboo causes identical triggers to be skipped, in seconds
+     */
+    int getDeduplicationWindowSeconds();
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api;
+
+/**
+ * Parses variable values containing field references like <code>$(assignee)</code> into {@link FieldTemplate}s.
+ * A reference is escaped with a backslash, e. g. <code>\$(assignee)</code> renders as <code>$(assignee)</code>.
+ */
+public interface TemplateCompiler {
+
+    /**
+     * Gets the compiled template for the given text. Templates are cached, so compiling the same text again is cheap.
+     *
+     * @param template the text to compile
+     * @return the compiled {@link FieldTemplate}
+     */
+    FieldTemplate compile(String template);
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api;
+
+import java.util.*;
+
+/**
+ * A workflow transition running a Bamboo plan in one of its post functions. Use {@link TransitionReference.Builder} to
+ * create a new instance of this class.
+ */
+public final class TransitionReference {
+
+    private String workflowName;
+    private int transitionId;
+    private String transitionName;
+    private int postFunctionPosition;
+    private String applinkId;
+    private String planKey;
+    private List<String> variables = Collections.emptyList();
+
+    private TransitionReference() {
+        // only instantiable via the Builder
+    }
+
+    public String getWorkflowName() {
+        return workflowName;
+    }
+
+    public int getTransitionId() {
+        return transitionId;
+    }
+
+    public String getTransitionName() {
+        return transitionName;
+    }
+
+    /**
+     * @return the position of the post function among all post functions of the transition, starting at 1, so
+     * several post functions of a transition running the same plan are told apart
+     */
+    public int getPostFunctionPosition() {
+        return postFunctionPosition;
+    }
+
+    public String getApplinkId() {
+        return applinkId;
+    }
+
+    public String getPlanKey() {
+        return planKey;
+    }
+
+    /**
+     * @return the plain names of the plan variables the post function sets
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TransitionReference that = (TransitionReference) o;
+        return transitionId == that.transitionId &&
+                postFunctionPosition == that.postFunctionPosition &&
+                workflowName.equals(that.workflowName) &&
+                applinkId.equals(that.applinkId) &&
+                planKey.equals(that.planKey) &&
+                variables.equals(that.variables);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(workflowName, transitionId, postFunctionPosition, applinkId, planKey, variables);
+    }
+
+    @Override
+    public String toString() {
+        return workflowName + " (" + transitionName + ") runs " + planKey + " with " + variables;
+    }
+
+    /**
+     * The Builder for transition references
+     */
+    public static final class Builder {
+
+        private final TransitionReference newTransitionReference = new TransitionReference();
+
+        private Builder() {
+            // no direct instantiation
+        }
+
+        public static Builder aTransitionReference() {
+            return new Builder();
+        }
+
+        public Builder inWorkflow(String workflowName) {
+            newTransitionReference.workflowName = workflowName;
+            return this;
+        }
+
+        public Builder forTransition(int transitionId, String transitionName) {
+            newTransitionReference.transitionId = transitionId;
+            newTransitionReference.transitionName = transitionName;
+            return this;
+        }
+
+        public Builder atPostFunctionPosition(int postFunctionPosition) {
+            newTransitionReference.postFunctionPosition = postFunctionPosition;
+            return this;
+        }
+
+        public Builder forApplink(String applinkId) {
+            newTransitionReference.applinkId = applinkId;
+            return this;
+        }
+
+        public Builder forPlan(String planKey) {
+            newTransitionReference.planKey = planKey;
+            return this;
+        }
+
+        public Builder withVariables(List<String> variables) {
+            newTransitionReference.variables = Collections.unmodifiableList(new ArrayList<>(variables));
+            return this;
+        }
+
+        public TransitionReference build() {
+            Objects.requireNonNull(newTransitionReference.workflowName, "workflowName");
+            Objects.requireNonNull(newTransitionReference.applinkId, "applinkId");
+            Objects.requireNonNull(newTransitionReference.planKey, "planKey");
+            return newTransitionReference;
+        }
+    }
+}
@@ -16,9 +16,11 @@
 
 package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo;
 
+import com.atlassian.applinks.api.ApplicationId;
 import com.atlassian.applinks.api.CredentialsRequiredException;
 import com.atlassian.applinks.api.ReadOnlyApplicationLink;
 import com.atlassian.sal.api.net.ResponseException;
+import com.atlassian.sal.api.net.ResponseStatusException;
 
 import javax.validation.constraints.NotNull;
 import java.util.List;
@@ -48,8 +50,33 @@ public interface BambooRestApi {
      * @param bambooApplink    a {@link ReadOnlyApplicationLink} to the Bamboo instance
      * @param planKey          the key of the plan to build. Should be in the form of '{projectKey}-{buildKey}'
      * @param valuesByVariable the (optional) mapping of variables with values for the plan to run
+     * @param triggerId        the ID of the build trigger, passed to the build as a variable if the outbox is enabled,
+     *                         so {@link #isQueued(ReadOnlyApplicationLink, String, String)} can find the build
      * @throws CredentialsRequiredException in case authentication fails
+     * @throws ResponseStatusException      in case Bamboo did not queue the build, carrying Bamboo's response
      * @throws ResponseException            in case something went wrong during the request
      */
-    void queueBuild(ReadOnlyApplicationLink bambooApplink, String planKey, Map<String, String> valuesByVariable) throws CredentialsRequiredException, ResponseException;
+    void queueBuild(ReadOnlyApplicationLink bambooApplink, String planKey, Map<String, String> valuesByVariable, String triggerId) throws CredentialsRequiredException, ResponseException;
+
+    /**
+     * Tells whether Bamboo queued a build for a trigger, by looking for the ID of the trigger in the variables of the
+     * latest builds of the plan, including the queued and running ones.
+     * See also: <a href=https://docs.atlassian.com/atlassian-bamboo/REST/latest/>https://docs.atlassian.com/atlassian-bamboo/REST/latest/</a>
+     *
+     * @param bambooApplink a {@link ReadOnlyApplicationLink} to the Bamboo instance
+     * @param planKey       the key of the plan the trigger was sent for
+     * @param triggerId     the ID the trigger was sent with
+     * @return whether one of the latest builds of the plan was queued by the trigger
+     * @throws CredentialsRequiredException in case authentication fails
+     * @throws ResponseException            in case something went wrong during the request
+     */
+    boolean isQueued(ReadOnlyApplicationLink bambooApplink, String planKey, String triggerId) throws CredentialsRequiredException, ResponseException;
+
+    /**
+     * Forgets the responses remembered to revalidate requests against a Bamboo instance, so the next request for
+     * its plans downloads and parses everything again.
+     *
+     * @param applicationId the ID of the application link to the Bamboo instance
+     */
+    void forgetResponses(ApplicationId applicationId);
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo;
+
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Represents a fully resolved request to queue a build of a Bamboo plan. Use {@link BuildTrigger.Builder} to create a
+ * new instance of this class.
+ */
+public final class BuildTrigger {
+
+    private ReadOnlyApplicationLink applink;
+    private String planKey;
+    private String issueKey;
+    private Map<String, String> valuesByVariable = Collections.emptyMap();
+    private int debounceSeconds;
+
+    private BuildTrigger() {
+        // only instantiable via the Builder
+    }
+
+    public ReadOnlyApplicationLink getApplink() {
+        return applink;
+    }
+
+    public String getPlanKey() {
+        return planKey;
+    }
+
+    public String getIssueKey() {
+        return issueKey;
+    }
+
+    public Map<String, String> getValuesByVariable() {
+        return valuesByVariable;
+    }
+
+    /**
+     * @return how long to wait for further triggers of the same plan and issue, in seconds. The last of them is sent
+     * once the time is up. 0 sends every trigger.
+     */
+    public int getDebounceSeconds() {
+        return debounceSeconds;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BuildTrigger that = (BuildTrigger) o;
+        return Objects.equals(applink, that.applink) &&
+                Objects.equals(planKey, that.planKey) &&
+                Objects.equals(issueKey, that.issueKey) &&
+                Objects.equals(valuesByVariable, that.valuesByVariable) &&
+                debounceSeconds == that.debounceSeconds;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(applink, planKey, issueKey, valuesByVariable, debounceSeconds);
+    }
+
+    @Override
+    public String toString() {
+        return planKey + " for " + issueKey;
+    }
+
+    /**
+     * The Builder for build triggers
+     */
+    public static final class Builder {
+
+        private final BuildTrigger newBuildTrigger = new BuildTrigger();
+
+        private Builder() {
+            // no direct instantiation
+        }
+
+        public static Builder aBuildTrigger() {
+            return new Builder();
+        }
+
+        public Builder forApplink(ReadOnlyApplicationLink applink) {
+            newBuildTrigger.applink = applink;
+            return this;
+        }
+
+        public Builder forPlan(String planKey) {
+            newBuildTrigger.planKey = planKey;
+            return this;
+        }
+
+        public Builder forIssue(String issueKey) {
+            newBuildTrigger.issueKey = issueKey;
+            return this;
+        }
+
+        public Builder debouncedFor(int debounceSeconds) {
+            newBuildTrigger.debounceSeconds = debounceSeconds;
+            return this;
+        }
+
+        public Builder withValuesByVariable(Map<String, String> valuesByVariable) {
+            newBuildTrigger.valuesByVariable = Collections.unmodifiableMap(new LinkedHashMap<>(valuesByVariable));
+            return this;
+        }
+
+        public BuildTrigger build() {
+            Objects.requireNonNull(newBuildTrigger.applink, "applink");
+            Objects.requireNonNull(newBuildTrigger.planKey, "planKey");
+            return newBuildTrigger;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo;
+
+/**
+ * Recognizes build triggers that would queue the same build as a trigger sent to Bamboo shortly before, e. g. when
+ * several sub-tasks run the same release plan with the same variables.
+ */
+public interface BuildTriggerDeduplicator {
+
+    /**
+     * Claims the plan and variables of a trigger before it is sent to Bamboo.
+     *
+     * @param buildTrigger the trigger about to be sent
+     * @return <code>false</code> if a trigger of the same plan with the same variables was claimed recently, so this
+     * one should be skipped
+     */
+    boolean claim(BuildTrigger buildTrigger);
+
+    /**
+     * Releases the claim of a trigger Bamboo did not queue, so identical triggers are sent again.
+     *
+     * @param buildTrigger the trigger that failed
+     */
+    void release(BuildTrigger buildTrigger);
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo;
+
+/**
+ * Hands {@link BuildTrigger}s over to Bamboo in the background, so workflow transitions do not wait for the
+ * Bamboo REST API to respond.
+ */
+public interface BuildTriggerDispatcher {
+
+    /**
+     * Schedules the given trigger to be sent to Bamboo. Returns immediately, unless the dispatcher is saturated and
+     * configured with {@link OverflowPolicy#BLOCK} or {@link OverflowPolicy#CALLER_RUNS}.
+     *
+     * @param buildTrigger the resolved trigger to send
+     */
+    void dispatch(BuildTrigger buildTrigger);
+
+    /**
+     * What to do with a trigger when all workers are busy and the queue is full.
+     */
+    enum OverflowPolicy {
+        /**
+         * Wait until there is room in the queue.
+         */
+        BLOCK,
+        /**
+         * Discard the trigger and log an error.
+         */
+        DROP,
+        /**
+         * Send the trigger synchronously on the calling thread, as soon as fewer than the allowed number of triggers
+         * are being sent to its Bamboo instance.
+         */
+        CALLER_RUNS
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo;
+
+import com.atlassian.applinks.api.ApplicationId;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The background refresh state of the plans of one Bamboo instance. Use {@link CatalogRefreshStatus.Builder} to
+ * create a new instance of this class.<br>
+ * Timestamps are milliseconds since the epoch, <code>0</code> means never.
+ */
+public final class CatalogRefreshStatus {
+
+    private ApplicationId applicationId;
+    private String applinkName;
+    private long nextRefresh;
+    private long lastSuccess;
+    private long lastFailure;
+    private String lastError = StringUtils.EMPTY;
+    private int planCount;
+
+    private CatalogRefreshStatus() {
+        // only instantiable via the Builder
+    }
+
+    public ApplicationId getApplicationId() {
+        return applicationId;
+    }
+
+    public String getApplinkName() {
+        return applinkName;
+    }
+
+    public long getNextRefresh() {
+        return nextRefresh;
+    }
+
+    public long getLastSuccess() {
+        return lastSuccess;
+    }
+
+    public long getLastFailure() {
+        return lastFailure;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public int getPlanCount() {
+        return planCount;
+    }
+
+    /**
+     * The Builder for refresh states
+     */
+    public static final class Builder {
+
+        private final CatalogRefreshStatus newStatus = new CatalogRefreshStatus();
+
+        private Builder() {
+            // no direct instantiation
+        }
+
+        public static Builder aCatalogRefreshStatus() {
+            return new Builder();
+        }
+
+        public Builder forApplink(ApplicationId applicationId, String applinkName) {
+            newStatus.applicationId = applicationId;
+            newStatus.applinkName = applinkName;
+            return this;
+        }
+
+        public Builder withNextRefresh(long nextRefresh) {
+            newStatus.nextRefresh = nextRefresh;
+            return this;
+        }
+
+        public Builder withLastSuccess(long lastSuccess) {
+            newStatus.lastSuccess = lastSuccess;
+            return this;
+        }
+
+        public Builder withLastFailure(long lastFailure, String lastError) {
+            newStatus.lastFailure = lastFailure;
+            newStatus.lastError = StringUtils.defaultString(lastError);
+            return this;
+        }
+
+        public Builder withPlanCount(int planCount) {
+            newStatus.planCount = planCount;
+            return this;
+        }
+
+        public CatalogRefreshStatus build() {
+            return newStatus;
+        }
+    }
+}
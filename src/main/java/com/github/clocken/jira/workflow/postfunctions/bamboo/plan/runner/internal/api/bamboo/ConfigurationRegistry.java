@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps every distinct post function configuration once, identified by a hash of its content. Post functions sharing
+ * the same application link, plan and variables share a single configuration, no matter how many transitions they are
+ * copied to.
+ */
+public interface ConfigurationRegistry {
+
+    /**
+     * Registers the configuration contained in the given arguments, unless an identical one is registered already.
+     *
+     * @param args the arguments of a function descriptor. Only the application link, plan and variables are taken
+     *             into account
+     * @return the ID of the configuration, derived from its content
+     */
+    String register(Map<?, ?> args);
+
+    /**
+     * Gets the ID of the configuration contained in the given arguments. The ID stored in the arguments is only
+     * trusted if it is registered for exactly the configuration the arguments contain, e. g. a descriptor edited
+     * outside of Jira's post function editor keeps an outdated ID. Otherwise, the configuration is registered again.
+     *
+     * @param args the arguments of a function descriptor
+     * @return the ID of the configuration the arguments contain
+     */
+    String getConfigurationId(Map<?, ?> args);
+
+    /**
+     * Gets a registered configuration.
+     *
+     * @param configurationId the ID as returned by {@link #register(Map)}
+     * @return the arguments making up the configuration, or an empty {@link Optional} if no configuration with the
+     * given ID was registered since Jira started or it was registered too long ago
+     */
+    Optional<Map<String, String>> getConfiguration(String configurationId);
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Provides the plans of all linked Bamboo instances.<br>
+ * The plans are cached per Bamboo instance. Outdated plans are still served while they get refreshed in the
+ * background, plans of removed application links are evicted. Changes are published as {@link PlanCatalogSnapshot}s.
+ */
+public interface PlanCatalog {
+
+    /**
+     * Gets the plans of the given Bamboo instances. Instances not cached yet are queried concurrently, so the time
+     * this takes is bound by the slowest instance rather than the sum of all of them.
+     *
+     * @param bambooApplinks the {@link ReadOnlyApplicationLink}s to the Bamboo instances
+     * @return The plans by application link ID in the iteration order of <code>bambooApplinks</code>.<br>
+     * Instances whose plans could not be fetched are missing.
+     */
+    Map<ApplicationId, List<Plan>> getPlansByApplink(Collection<ReadOnlyApplicationLink> bambooApplinks);
+
+    /**
+     * Gets the cached plans of a Bamboo instance without querying it.
+     *
+     * @param applicationId the ID of the application link to the Bamboo instance
+     * @return The plans wrapped in an {@link Optional}.<br>
+     * An empty {@link Optional}, if there are no plans cached for the instance.
+     */
+    Optional<List<Plan>> getCachedPlans(ApplicationId applicationId);
+
+    /**
+     * Fetches the plans of a Bamboo instance in the background, regardless of how old the cached plans are. Joins a
+     * fetch that is already in progress for the instance.
+     *
+     * @param bambooApplink the {@link ReadOnlyApplicationLink} to the Bamboo instance
+     * @return The fetched plans, once they are cached.<br>
+     * Completes exceptionally, if the plans could not be fetched.
+     */
+    CompletableFuture<List<Plan>> refresh(ReadOnlyApplicationLink bambooApplink);
+
+    /**
+     * Gets the current state of the catalog. The snapshot is immutable and never changes after it got published.
+     *
+     * @return the current {@link PlanCatalogSnapshot}
+     */
+    PlanCatalogSnapshot getSnapshot();
+
+    /**
+     * Removes the cached plans of a Bamboo instance, so they get fetched again on the next request.
+     *
+     * @param applicationId the ID of the application link to the Bamboo instance
+     */
+    void invalidate(ApplicationId applicationId);
+
+    /**
+     * Removes the cached plans of all Bamboo instances.
+     */
+    void invalidateAll();
+}
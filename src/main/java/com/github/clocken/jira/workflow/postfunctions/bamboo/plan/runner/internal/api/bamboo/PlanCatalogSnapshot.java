@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo;
+
+import com.atlassian.applinks.api.ApplicationId;
+
+import java.util.*;
+
+/**
+ * An immutable state of the {@link PlanCatalog}. Every change to the catalog publishes a new snapshot, so readers
+ * never block and never see a partially updated catalog.<br>
+ * The version increases whenever the plans of any Bamboo instance change. Each entry remembers the version its plans
+ * last changed in, which allows to tell whether a form rendered from an older snapshot is outdated.
+ */
+public final class PlanCatalogSnapshot {
+
+    private static final PlanCatalogSnapshot EMPTY = new PlanCatalogSnapshot(0L, Collections.emptyMap());
+
+    private final long version;
+    private final Map<ApplicationId, Entry> entriesByApplink;
+
+    private PlanCatalogSnapshot(long version, Map<ApplicationId, Entry> entriesByApplink) {
+        this.version = version;
+        this.entriesByApplink = entriesByApplink;
+    }
+
+    public static PlanCatalogSnapshot empty() {
+        return EMPTY;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Optional<Entry> getEntry(ApplicationId applicationId) {
+        return Optional.ofNullable(entriesByApplink.get(applicationId));
+    }
+
+    public Optional<List<Plan>> getPlans(ApplicationId applicationId) {
+        return getEntry(applicationId).map(Entry::getPlans);
+    }
+
+    public Map<ApplicationId, Entry> getEntriesByApplink() {
+        return entriesByApplink;
+    }
+
+    /**
+     * Creates a new snapshot with the given plans for a Bamboo instance. The version only increases, if the plans
+     * differ from the ones in this snapshot.
+     *
+     * @param applicationId the ID of the application link to the Bamboo instance
+     * @param plans         the plans of the Bamboo instance
+     * @param loadedAt      the time the plans were fetched in milliseconds since the epoch
+     * @return the new snapshot
+     */
+    public PlanCatalogSnapshot withPlans(ApplicationId applicationId, List<Plan> plans, long loadedAt) {
+        Entry currentEntry = entriesByApplink.get(applicationId);
+        boolean plansChanged = currentEntry == null || !currentEntry.plans.equals(plans);
+        long newVersion = plansChanged ? version + 1 : version;
+
+        Map<ApplicationId, Entry> newEntriesByApplink = new HashMap<>(entriesByApplink);
+        newEntriesByApplink.put(applicationId, new Entry(
+                plansChanged ? Collections.unmodifiableList(new ArrayList<>(plans)) : currentEntry.plans,
+                loadedAt,
+                plansChanged ? newVersion : currentEntry.version));
+        return new PlanCatalogSnapshot(newVersion, Collections.unmodifiableMap(newEntriesByApplink));
+    }
+
+    /**
+     * Creates a new snapshot without the plans of the given Bamboo instance.
+     *
+     * @param applicationId the ID of the application link to the Bamboo instance
+     * @return the new snapshot or this snapshot, if it has no plans for the Bamboo instance
+     */
+    public PlanCatalogSnapshot withoutPlans(ApplicationId applicationId) {
+        if (!entriesByApplink.containsKey(applicationId)) {
+            return this;
+        }
+        Map<ApplicationId, Entry> newEntriesByApplink = new HashMap<>(entriesByApplink);
+        newEntriesByApplink.remove(applicationId);
+        return new PlanCatalogSnapshot(version + 1, Collections.unmodifiableMap(newEntriesByApplink));
+    }
+
+    /**
+     * Creates a new snapshot without any plans.
+     *
+     * @return the new snapshot
+     */
+    public PlanCatalogSnapshot withoutAnyPlans() {
+        return new PlanCatalogSnapshot(version + 1, Collections.emptyMap());
+    }
+
+    /**
+     * The plans of one Bamboo instance.
+     */
+    public static final class Entry {
+
+        private final List<Plan> plans;
+        private final long loadedAt;
+        private final long version;
+
+        private Entry(List<Plan> plans, long loadedAt, long version) {
+            this.plans = plans;
+            this.loadedAt = loadedAt;
+            this.version = version;
+        }
+
+        public List<Plan> getPlans() {
+            return plans;
+        }
+
+        /**
+         * @return the time the plans were fetched in milliseconds since the epoch
+         */
+        public long getLoadedAt() {
+            return loadedAt;
+        }
+
+        /**
+         * @return the version of the catalog the plans last changed in
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        public boolean isOlderThan(long millis, long now) {
+            return now - loadedAt > millis;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo;
+
+import java.util.List;
+
+/**
+ * Keeps the {@link PlanCatalog} warm by loading the plans of every linked Bamboo instance in the background, starting
+ * when the plugin gets enabled and repeating periodically. The refreshes of different instances are spread out
+ * randomly, so they don't hit Bamboo all at once.
+ */
+public interface PlanCatalogWarmer {
+
+    /**
+     * @return the refresh schedule and outcome of every Bamboo instance known to the warmer, ordered by name
+     */
+    List<CatalogRefreshStatus> getStatus();
+}
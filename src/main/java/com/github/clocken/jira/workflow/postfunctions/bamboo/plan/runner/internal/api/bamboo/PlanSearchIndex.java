@@ -0,0 +1,39 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo;
+
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+
+import java.util.List;
+
+/**
+ * Finds plans in the {@link PlanCatalog} while the user is typing. Plans are matched by prefixes of their key,
+ * project key, name and the words of their description.
+ */
+public interface PlanSearchIndex {
+
+    /**
+     * Searches the plans of a Bamboo instance. Every word of the query has to be the prefix of a word of the plan.
+     * Plans whose key matches are ranked before plans whose name or description matches.
+     *
+     * @param bambooApplink the {@link ReadOnlyApplicationLink} to the Bamboo instance
+     * @param query         the words to search for, case insensitive. An empty query matches all plans.
+     * @param limit         the maximum number of plans to return
+     * @return the best matching plans, best first
+     */
+    List<Plan> search(ReadOnlyApplicationLink bambooApplink, String query, int limit);
+}
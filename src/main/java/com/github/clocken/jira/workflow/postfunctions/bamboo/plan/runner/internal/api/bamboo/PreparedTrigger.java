@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo;
+
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FieldTemplate;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The configuration of a post function, parsed and ready to be turned into a {@link BuildTrigger} for an issue. Use
+ * {@link PreparedTrigger.Builder} to create a new instance of this class.
+ */
+public final class PreparedTrigger {
+
+    private ReadOnlyApplicationLink applink;
+    private String planKey;
+    private Map<String, FieldTemplate> templatesByVariable = Collections.emptyMap();
+    private int debounceSeconds;
+
+    private PreparedTrigger() {
+        // only instantiable via the Builder
+    }
+
+    public ReadOnlyApplicationLink getApplink() {
+        return applink;
+    }
+
+    public String getPlanKey() {
+        return planKey;
+    }
+
+    /**
+     * @return the compiled values by the plain names of the plan variables
+     */
+    public Map<String, FieldTemplate> getTemplatesByVariable() {
+        return templatesByVariable;
+    }
+
+    /**
+     * @return how long to wait for further transitions of the same issue before the plan is run, in seconds. 0 runs
+     * the plan on every transition.
+     */
+    public int getDebounceSeconds() {
+        return debounceSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return planKey + " with " + templatesByVariable.keySet();
+    }
+
+    /**
+     * The Builder for prepared triggers
+     */
+    public static final class Builder {
+
+        private final PreparedTrigger newPreparedTrigger = new PreparedTrigger();
+
+        private Builder() {
+            // no direct instantiation
+        }
+
+        public static Builder aPreparedTrigger() {
+            return new Builder();
+        }
+
+        public Builder forApplink(ReadOnlyApplicationLink applink) {
+            newPreparedTrigger.applink = applink;
+            return this;
+        }
+
+        public Builder forPlan(String planKey) {
+            newPreparedTrigger.planKey = planKey;
+            return this;
+        }
+
+        public Builder debouncedFor(int debounceSeconds) {
+            newPreparedTrigger.debounceSeconds = debounceSeconds;
+            return this;
+        }
+
+        public Builder withTemplatesByVariable(Map<String, FieldTemplate> templatesByVariable) {
+            newPreparedTrigger.templatesByVariable = Collections.unmodifiableMap(new LinkedHashMap<>(templatesByVariable));
+            return this;
+        }
+
+        public PreparedTrigger build() {
+            Objects.requireNonNull(newPreparedTrigger.applink, "applink");
+            Objects.requireNonNull(newPreparedTrigger.planKey, "planKey");
+            return newPreparedTrigger;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Parses the arguments of post functions into {@link PreparedTrigger}s once and hands out the cached result on every
+ * further transition.
+ */
+public interface PreparedTriggerCache {
+
+    /**
+     * Gets the prepared trigger for the given arguments of a post function.
+     *
+     * @param args the arguments of the function descriptor, as passed to the post function
+     * @return the {@link PreparedTrigger}, or an empty {@link Optional} if no application link or plan is selected
+     * or the selected application link does not exist anymore
+     */
+    Optional<PreparedTrigger> getPreparedTrigger(Map<?, ?> args);
+}
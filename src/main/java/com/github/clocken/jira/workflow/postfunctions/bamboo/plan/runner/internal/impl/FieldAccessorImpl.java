@@ -16,27 +16,49 @@
 
 package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl;
 
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.bc.project.component.ProjectComponent;
+import com.atlassian.jira.event.ClearCacheEvent;
+import com.atlassian.jira.event.issue.field.CustomFieldCreatedEvent;
+import com.atlassian.jira.event.issue.field.CustomFieldDeletedEvent;
+import com.atlassian.jira.event.issue.field.CustomFieldUpdatedEvent;
 import com.atlassian.jira.issue.CustomFieldManager;
 import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.export.ExportableSystemField;
+import com.atlassian.jira.issue.export.FieldExportParts;
 import com.atlassian.jira.issue.export.customfield.ExportableCustomFieldType;
 import com.atlassian.jira.issue.fields.CustomField;
 import com.atlassian.jira.issue.fields.Field;
 import com.atlassian.jira.issue.fields.FieldException;
 import com.atlassian.jira.issue.fields.FieldManager;
+import com.atlassian.jira.issue.label.Label;
+import com.atlassian.jira.project.version.Version;
+import com.atlassian.jira.user.ApplicationUser;
 import com.atlassian.jira.util.I18nHelper;
 import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
 import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FieldAccessor;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FieldValueResolver;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 
 import javax.inject.Named;
+import java.text.CollationKey;
+import java.text.Collator;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+/**
+ * Keeps the sorted exportable fields per locale and the resolvers of all exportable fields by identifier, until a
+ * custom field gets created, updated or deleted.
+ */
 @Named
-public final class FieldAccessorImpl implements FieldAccessor {
+public final class FieldAccessorImpl implements FieldAccessor, InitializingBean, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(FieldAccessorImpl.class);
     private static final Map<String, String> VALUE_REPRESENTATION_IDS_BY_FIELD_ID;
@@ -51,29 +73,89 @@ public final class FieldAccessorImpl implements FieldAccessor {
     private final FieldManager fieldManager;
     private final CustomFieldManager customFieldManager;
     private final I18nHelper i18nHelper;
+    private final EventPublisher eventPublisher;
+    // Read the most used system fields straight from the issue, without building their export representation
+    private final Map<String, FieldValueResolver> directResolversByFieldId;
+    // Replaced as a whole on invalidation, so a load that started before ends up in the discarded map
+    private volatile Map<Locale, ExportableFields> exportableFieldsByLocale = new ConcurrentHashMap<>();
+    private final Object resolverIndexLock = new Object();
+    private volatile ResolverIndex resolverIndex;
 
     public FieldAccessorImpl(@ComponentImport FieldManager fieldManager,
                              @ComponentImport CustomFieldManager customFieldManager,
-                             @ComponentImport I18nHelper i18nHelper) {
+                             @ComponentImport I18nHelper i18nHelper,
+                             @ComponentImport EventPublisher eventPublisher) {
         this.fieldManager = fieldManager;
         this.customFieldManager = customFieldManager;
         this.i18nHelper = i18nHelper;
+        this.eventPublisher = eventPublisher;
+        this.directResolversByFieldId = createDirectResolvers(i18nHelper);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        eventPublisher.register(this);
+    }
+
+    @Override
+    public void destroy() {
+        eventPublisher.unregister(this);
+    }
+
+    @EventListener
+    public void onCustomFieldCreated(CustomFieldCreatedEvent event) {
+        invalidate();
+    }
+
+    @EventListener
+    public void onCustomFieldUpdated(CustomFieldUpdatedEvent event) {
+        invalidate();
+    }
+
+    @EventListener
+    public void onCustomFieldDeleted(CustomFieldDeletedEvent event) {
+        invalidate();
+    }
+
+    @EventListener
+    public void onClearCache(ClearCacheEvent event) {
+        invalidate();
     }
 
     @Override
     public List<Field> getAllExportableJiraFields() throws FieldException {
-        List<Field> fields = fieldManager.getAllAvailableNavigableFields().stream()
-                .filter(
-                        navigableField ->
-                                !navigableField.getName().startsWith("?")
-                                        && (navigableField instanceof ExportableSystemField
-                                        || (navigableField instanceof CustomField && ((CustomField) navigableField).getCustomFieldType() instanceof ExportableCustomFieldType))
-                )
-                .sorted((field1, field2) ->
-                        StringUtils.compare(i18nHelper.getText(field1.getNameKey()), i18nHelper.getText(field2.getNameKey())))
-                .collect(Collectors.toList());
+        return exportableFields().fields;
+    }
+
+    @Override
+    public List<Field> searchExportableJiraFields(String query, int limit) throws FieldException {
+        final ExportableFields exportableFields = exportableFields();
+        final String lowerCaseQuery = StringUtils.trimToEmpty(query).toLowerCase(exportableFields.locale);
+        final List<Field> exactMatches = new ArrayList<>();
+        final List<Field> prefixMatches = new ArrayList<>();
+        for (ExportableField exportableField : exportableFields.entries) {
+            if (exactMatches.size() >= limit) {
+                break;
+            }
+            if (exportableField.lowerCaseId.equals(lowerCaseQuery) || exportableField.lowerCaseName.equals(lowerCaseQuery)) {
+                exactMatches.add(exportableField.field);
+            } else if (prefixMatches.size() < limit && exportableField.matchesPrefix(lowerCaseQuery)) {
+                prefixMatches.add(exportableField.field);
+            }
+        }
 
-        return Collections.unmodifiableList(fields);
+        exactMatches.addAll(prefixMatches);
+        return exactMatches.size() > limit ? exactMatches.subList(0, limit) : exactMatches;
+    }
+
+    @Override
+    public Optional<FieldValueResolver> getFieldValueResolver(String identifier) {
+        final ResolverIndex index = resolverIndex();
+        if (index.ambiguousNames.contains(identifier)) {
+            LOG.error("Ambiguous custom field name {}. Use the custom field ID instead.", identifier);
+            return Optional.empty();
+        }
+        return Optional.ofNullable(index.resolversByIdentifier.get(identifier));
     }
 
     @Override
@@ -97,21 +179,7 @@ public final class FieldAccessorImpl implements FieldAccessor {
             return Optional.empty();
         }
 
-        final List<String> fieldValues = new ArrayList<>();
-        ((ExportableCustomFieldType) customField.getCustomFieldType())
-                .getRepresentationFromIssue(issue, new CustomFieldExportContext(customField, i18nHelper))
-                .getParts()
-                .stream()
-                .filter(
-                        fieldExportPart ->
-                                StringUtils.equals(fieldExportPart.getId(), VALUE_REPRESENTATION_IDS_BY_FIELD_ID.getOrDefault(identifier, identifier))
-                                        || StringUtils.equals(fieldExportPart.getItemLabel(), identifier)
-                )
-                .findAny()
-                .ifPresent(fieldExportPart ->
-                        fieldExportPart.getValues().forEach(fieldValues::add));
-
-        return Optional.of(StringUtils.join(fieldValues, ", "));
+        return Optional.of(getCustomFieldValue(issue, customField, identifier));
     }
 
     @Override
@@ -126,14 +194,271 @@ public final class FieldAccessorImpl implements FieldAccessor {
             return Optional.empty();
         }
 
+        FieldValueResolver directResolver = directResolversByFieldId.get(identifier);
+        if (directResolver != null) {
+            return Optional.of(directResolver.resolve(issue));
+        }
+        return Optional.of(getSystemFieldValue(issue, (ExportableSystemField) field,
+                VALUE_REPRESENTATION_IDS_BY_FIELD_ID.getOrDefault(identifier, identifier)));
+    }
+
+    private String getCustomFieldValue(Issue issue, CustomField customField, String identifier) {
+        return getCustomFieldValue(getCustomFieldRepresentation(issue, customField), identifier);
+    }
+
+    private FieldExportParts getCustomFieldRepresentation(Issue issue, CustomField customField) {
+        return ((ExportableCustomFieldType) customField.getCustomFieldType())
+                .getRepresentationFromIssue(issue, new CustomFieldExportContext(customField, i18nHelper));
+    }
+
+    private static String getCustomFieldValue(FieldExportParts representation, String identifier) {
+        final List<String> fieldValues = new ArrayList<>();
+        representation.getParts()
+                .stream()
+                .filter(
+                        fieldExportPart ->
+                                StringUtils.equals(fieldExportPart.getId(), VALUE_REPRESENTATION_IDS_BY_FIELD_ID.getOrDefault(identifier, identifier))
+                                        || StringUtils.equals(fieldExportPart.getItemLabel(), identifier)
+                )
+                .findAny()
+                .ifPresent(fieldExportPart ->
+                        fieldExportPart.getValues().forEach(fieldValues::add));
+
+        return StringUtils.join(fieldValues, ", ");
+    }
+
+    private static String getSystemFieldValue(Issue issue, ExportableSystemField field, String partId) {
+        return getSystemFieldValue(field.getRepresentationFromIssue(issue), partId);
+    }
+
+    private static String getSystemFieldValue(FieldExportParts representation, String partId) {
         final List<String> fieldValues = new ArrayList<>();
-        ((ExportableSystemField) field)
-                .getRepresentationFromIssue(issue)
-                .getPartWithId(VALUE_REPRESENTATION_IDS_BY_FIELD_ID.getOrDefault(identifier, identifier))
+        representation.getPartWithId(partId)
                 .ifPresent(fieldExportPart ->
                         fieldExportPart.getValues().forEach(fieldValues::add));
 
-        return Optional.of(StringUtils.join(fieldValues, ", "));
+        return StringUtils.join(fieldValues, ", ");
+    }
+
+    private void invalidate() {
+        exportableFieldsByLocale = new ConcurrentHashMap<>();
+        synchronized (resolverIndexLock) {
+            resolverIndex = null;
+        }
+    }
+
+    private ResolverIndex resolverIndex() {
+        ResolverIndex index = resolverIndex;
+        if (index == null) {
+            synchronized (resolverIndexLock) {
+                index = resolverIndex;
+                if (index == null) {
+                    index = buildResolverIndex();
+                    resolverIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Maps system field IDs, unique custom field names and custom field IDs to their resolvers. Later entries take
+     * precedence, so a custom field ID beats a custom field name, which beats a system field ID.
+     */
+    private ResolverIndex buildResolverIndex() {
+        final Map<String, FieldValueResolver> resolversByIdentifier = new HashMap<>();
+        fieldManager.getNavigableFields().stream()
+                .filter(field -> field instanceof ExportableSystemField && !(field instanceof CustomField))
+                .forEach(field -> {
+                    String partId = VALUE_REPRESENTATION_IDS_BY_FIELD_ID.getOrDefault(field.getId(), field.getId());
+                    resolversByIdentifier.put(field.getId(), directResolversByFieldId.getOrDefault(field.getId(),
+                            new SystemFieldValueResolver(field, partId)));
+                });
+
+        final Map<String, List<CustomField>> customFieldsByName = new HashMap<>();
+        final List<CustomField> exportableCustomFields = new ArrayList<>();
+        customFieldManager.getCustomFieldObjects().stream()
+                .filter(customField -> customField.getCustomFieldType() instanceof ExportableCustomFieldType)
+                .forEach(customField -> {
+                    exportableCustomFields.add(customField);
+                    customFieldsByName.computeIfAbsent(customField.getName(), name -> new ArrayList<>()).add(customField);
+                });
+
+        final Set<String> ambiguousNames = new HashSet<>();
+        customFieldsByName.forEach((name, customFields) -> {
+            if (customFields.size() > 1) {
+                ambiguousNames.add(name);
+            } else {
+                CustomField customField = customFields.get(0);
+                resolversByIdentifier.put(name, new CustomFieldValueResolver(customField, name));
+            }
+        });
+        exportableCustomFields.forEach(customField -> {
+            ambiguousNames.remove(customField.getId());
+            resolversByIdentifier.put(customField.getId(), new CustomFieldValueResolver(customField, customField.getId()));
+        });
+
+        return new ResolverIndex(resolversByIdentifier, ambiguousNames);
+    }
+
+    private static Map<String, FieldValueResolver> createDirectResolvers(I18nHelper i18nHelper) {
+        final Map<String, FieldValueResolver> directResolversByFieldId = new HashMap<>();
+        directResolversByFieldId.put("issuekey", issue -> StringUtils.defaultString(issue.getKey()));
+        directResolversByFieldId.put("summary", issue -> StringUtils.defaultString(issue.getSummary()));
+        directResolversByFieldId.put("project", issue ->
+                issue.getProjectObject() == null ? StringUtils.EMPTY : issue.getProjectObject().getName());
+        directResolversByFieldId.put("issuetype", issue ->
+                issue.getIssueType() == null ? StringUtils.EMPTY : issue.getIssueType().getNameTranslation(i18nHelper));
+        directResolversByFieldId.put("status", issue ->
+                issue.getStatus() == null ? StringUtils.EMPTY : issue.getStatus().getNameTranslation(i18nHelper));
+        directResolversByFieldId.put("assignee", issue -> getDisplayName(issue.getAssignee()));
+        directResolversByFieldId.put("reporter", issue -> getDisplayName(issue.getReporter()));
+        directResolversByFieldId.put("labels", issue -> joinNames(issue.getLabels(), Label::getLabel));
+        directResolversByFieldId.put("fixVersions", issue -> joinNames(issue.getFixVersions(), Version::getName));
+        directResolversByFieldId.put("components", issue -> joinNames(issue.getComponents(), ProjectComponent::getName));
+        return Collections.unmodifiableMap(directResolversByFieldId);
+    }
+
+    private static String getDisplayName(ApplicationUser user) {
+        return user == null ? StringUtils.EMPTY : user.getDisplayName();
+    }
+
+    private static <T> String joinNames(Collection<T> items, Function<T, String> getName) {
+        if (items == null) {
+            return StringUtils.EMPTY;
+        }
+        return items.stream()
+                .map(getName)
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Reads a part of the export representation of a system field.
+     */
+    private static final class SystemFieldValueResolver implements FieldValueResolver {
+
+        private final Field field;
+        private final String partId;
+
+        private SystemFieldValueResolver(Field field, String partId) {
+            this.field = field;
+            this.partId = partId;
+        }
+
+        @Override
+        public String resolve(Issue issue) {
+            return getSystemFieldValue(issue, (ExportableSystemField) field, partId);
+        }
+
+        @Override
+        public String resolve(Issue issue, Map<Field, FieldExportParts> representationsByField) {
+            return getSystemFieldValue(representationsByField.computeIfAbsent(field,
+                    ignored -> ((ExportableSystemField) field).getRepresentationFromIssue(issue)), partId);
+        }
+    }
+
+    /**
+     * Reads the part of the export representation of a custom field, that matches the identifier the field was
+     * referenced by.
+     */
+    private final class CustomFieldValueResolver implements FieldValueResolver {
+
+        private final CustomField customField;
+        private final String identifier;
+
+        private CustomFieldValueResolver(CustomField customField, String identifier) {
+            this.customField = customField;
+            this.identifier = identifier;
+        }
+
+        @Override
+        public String resolve(Issue issue) {
+            return getCustomFieldValue(issue, customField, identifier);
+        }
+
+        @Override
+        public String resolve(Issue issue, Map<Field, FieldExportParts> representationsByField) {
+            return getCustomFieldValue(representationsByField.computeIfAbsent(customField,
+                    ignored -> getCustomFieldRepresentation(issue, customField)), identifier);
+        }
+    }
+
+    private static final class ResolverIndex {
+
+        private final Map<String, FieldValueResolver> resolversByIdentifier;
+        private final Set<String> ambiguousNames;
+
+        private ResolverIndex(Map<String, FieldValueResolver> resolversByIdentifier, Set<String> ambiguousNames) {
+            this.resolversByIdentifier = resolversByIdentifier;
+            this.ambiguousNames = ambiguousNames;
+        }
+    }
+
+    private ExportableFields exportableFields() throws FieldException {
+        final Map<Locale, ExportableFields> cache = exportableFieldsByLocale;
+        final Locale locale = i18nHelper.getLocale();
+        ExportableFields exportableFields = cache.get(locale);
+        if (exportableFields == null) {
+            exportableFields = loadExportableFields(locale);
+            cache.putIfAbsent(locale, exportableFields);
+        }
+        return exportableFields;
+    }
+
+    private ExportableFields loadExportableFields(Locale locale) throws FieldException {
+        final Collator collator = Collator.getInstance(locale);
+        final List<ExportableField> entries = new ArrayList<>();
+        fieldManager.getAllAvailableNavigableFields().stream()
+                .filter(
+                        navigableField ->
+                                !navigableField.getName().startsWith("?")
+                                        && (navigableField instanceof ExportableSystemField
+                                        || (navigableField instanceof CustomField && ((CustomField) navigableField).getCustomFieldType() instanceof ExportableCustomFieldType))
+                )
+                // Translates each name once instead of twice per comparison
+                .forEach(field -> entries.add(new ExportableField(field, i18nHelper.getText(field.getNameKey()), collator, locale)));
+        entries.sort(Comparator.comparing(exportableField -> exportableField.collationKey));
+
+        return new ExportableFields(locale, entries);
+    }
+
+    private static final class ExportableFields {
+
+        private final Locale locale;
+        private final List<ExportableField> entries;
+        private final List<Field> fields;
+
+        private ExportableFields(Locale locale, List<ExportableField> entries) {
+            this.locale = locale;
+            this.entries = entries;
+            final List<Field> fields = new ArrayList<>(entries.size());
+            entries.forEach(entry -> fields.add(entry.field));
+            this.fields = Collections.unmodifiableList(fields);
+        }
+    }
+
+    private static final class ExportableField {
+
+        private final Field field;
+        private final CollationKey collationKey;
+        private final String lowerCaseId;
+        private final String lowerCaseName;
+
+        private ExportableField(Field field, String name, Collator collator, Locale locale) {
+            this.field = field;
+            this.collationKey = collator.getCollationKey(StringUtils.defaultString(name));
+            this.lowerCaseId = StringUtils.defaultString(field.getId()).toLowerCase(locale);
+            this.lowerCaseName = StringUtils.defaultString(name).toLowerCase(locale);
+        }
+
+        /**
+         * @return whether the ID, the name or a word of the name starts with the given lower case prefix
+         */
+        private boolean matchesPrefix(String lowerCasePrefix) {
+            return lowerCaseId.startsWith(lowerCasePrefix)
+                    || lowerCaseName.startsWith(lowerCasePrefix)
+                    || lowerCaseName.contains(" " + lowerCasePrefix);
+        }
     }
 
     private static final class CustomFieldExportContext implements com.atlassian.jira.issue.export.customfield.CustomFieldExportContext {
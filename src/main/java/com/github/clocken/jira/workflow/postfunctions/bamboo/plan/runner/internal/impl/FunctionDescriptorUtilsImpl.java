@@ -23,12 +23,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Named;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
+/**
+ * Writes lists and maps as <code>v2:</code> followed by comma separated entries, with keys and values separated by
+ * <code>=</code>. Each item, key and value is UTF-8 encoded and then Base64 encoded without padding, so none of them
+ * can contain a separator. Strings without the prefix are read in the legacy format of {@link List#toString()} and
+ * {@link Map#toString()}, so existing post functions keep working and get converted when they are saved again.
+ */
 @Named
 public final class FunctionDescriptorUtilsImpl implements FunctionDescriptorUtils {
 
     private static final Logger LOG = LoggerFactory.getLogger(FunctionDescriptorUtilsImpl.class);
+    private static final String FORMAT_V2 = "v2:";
+    private static final char ENTRY_SEPARATOR = ',';
+    private static final char KEY_VALUE_SEPARATOR = '=';
+    private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
 
     @Override
     public List<String> parseListFromFunctionDescriptor(FunctionDescriptor functionDescriptor, String key) {
@@ -46,6 +60,9 @@ public final class FunctionDescriptorUtilsImpl implements FunctionDescriptorUtil
         if (StringUtils.isEmpty(list)) {
             return Collections.emptyList();
         }
+        if (list.startsWith(FORMAT_V2)) {
+            return parseV2List(list);
+        }
 
         List<String> parsedList = new ArrayList<>();
         Arrays.stream(list
@@ -59,6 +76,18 @@ public final class FunctionDescriptorUtilsImpl implements FunctionDescriptorUtil
         return Collections.unmodifiableList(parsedList);
     }
 
+    @Override
+    public String createStringFromList(List<String> list) {
+        StringBuilder encoded = new StringBuilder(FORMAT_V2);
+        for (String item : list) {
+            if (encoded.length() > FORMAT_V2.length()) {
+                encoded.append(ENTRY_SEPARATOR);
+            }
+            encoded.append(encode(item));
+        }
+        return encoded.toString();
+    }
+
     @Override
     public Map<String, String> parseMapFromFunctionDescriptor(FunctionDescriptor functionDescriptor, String key) {
         String descriptorParam = (String) functionDescriptor.getArgs().get(key);
@@ -75,7 +104,11 @@ public final class FunctionDescriptorUtilsImpl implements FunctionDescriptorUtil
         if (StringUtils.isEmpty(map)) {
             return Collections.emptyMap();
         }
+        if (map.startsWith(FORMAT_V2)) {
+            return parseV2Map(map);
+        }
 
+        // The legacy format was encoded with the platform's default charset
         Map<String, String> parsedMap = new HashMap<>();
         Arrays.stream(map
                 .replace("{", "")
@@ -86,12 +119,74 @@ public final class FunctionDescriptorUtilsImpl implements FunctionDescriptorUtil
                 .forEach(mapEntry -> parsedMap.put(
                         new String(
                                 Base64.getDecoder()
-                                        .decode(StringUtils.substringBefore(mapEntry, "="))),
+                                        .decode(StringUtils.substringBefore(mapEntry, "=")), Charset.defaultCharset()),
                         new String(
                                 Base64.getDecoder()
-                                        .decode(StringUtils.substringAfter(mapEntry, "="))))
+                                        .decode(StringUtils.substringAfter(mapEntry, "=")), Charset.defaultCharset()))
                 );
 
         return Collections.unmodifiableMap(parsedMap);
     }
+
+    @Override
+    public String createEncodedStringFromMap(Map<String, String> map) {
+        StringBuilder encoded = new StringBuilder(FORMAT_V2);
+        map.forEach((key, value) -> {
+            if (encoded.length() > FORMAT_V2.length()) {
+                encoded.append(ENTRY_SEPARATOR);
+            }
+            encoded.append(encode(key))
+                    .append(KEY_VALUE_SEPARATOR)
+                    .append(encode(value));
+        });
+        return encoded.toString();
+    }
+
+    private static String encode(String text) {
+        return ENCODER.encodeToString(StringUtils.defaultString(text).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a range of the given characters. Base64 only consists of ASCII characters, so each character is one byte.
+     */
+    private static String decode(byte[] encoded, int start, int end) {
+        ByteBuffer decoded = DECODER.decode(ByteBuffer.wrap(encoded, start, end - start));
+        return new String(decoded.array(), decoded.arrayOffset() + decoded.position(), decoded.remaining(), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> parseV2List(String list) {
+        final byte[] encoded = list.getBytes(StandardCharsets.US_ASCII);
+        final List<String> parsedList = new ArrayList<>();
+        int start = FORMAT_V2.length();
+        for (int position = start; position <= encoded.length; position++) {
+            if (position == encoded.length || encoded[position] == ENTRY_SEPARATOR) {
+                if (position > start) {
+                    parsedList.add(decode(encoded, start, position));
+                }
+                start = position + 1;
+            }
+        }
+        return Collections.unmodifiableList(parsedList);
+    }
+
+    private static Map<String, String> parseV2Map(String map) {
+        final byte[] encoded = map.getBytes(StandardCharsets.US_ASCII);
+        final Map<String, String> parsedMap = new LinkedHashMap<>();
+        int start = FORMAT_V2.length();
+        int separator = -1;
+        for (int position = start; position <= encoded.length; position++) {
+            if (position == encoded.length || encoded[position] == ENTRY_SEPARATOR) {
+                if (separator > start) {
+                    parsedMap.put(decode(encoded, start, separator), decode(encoded, separator + 1, position));
+                } else if (position > start) {
+                    LOG.warn("Ignoring entry without value in {}", map);
+                }
+                start = position + 1;
+                separator = -1;
+            } else if (encoded[position] == KEY_VALUE_SEPARATOR && separator < 0) {
+                separator = position;
+            }
+        }
+        return Collections.unmodifiableMap(parsedMap);
+    }
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl;
+
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.event.workflow.WorkflowCreatedEvent;
+import com.atlassian.jira.event.workflow.WorkflowDeletedEvent;
+import com.atlassian.jira.event.workflow.WorkflowRenamedEvent;
+import com.atlassian.jira.event.workflow.WorkflowUpdatedEvent;
+import com.atlassian.jira.workflow.JiraWorkflow;
+import com.atlassian.jira.workflow.WorkflowManager;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.BambooPlanRunner;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.BambooPlanRunnerFactory;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.NamedThreadFactory;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FunctionDescriptorUtils;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PlanUsageIndex;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.TransitionReference;
+import com.opensymphony.workflow.loader.ActionDescriptor;
+import com.opensymphony.workflow.loader.FunctionDescriptor;
+import com.opensymphony.workflow.loader.ResultDescriptor;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.inject.Named;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.TransitionReference.Builder.aTransitionReference;
+
+/**
+ * Indexes the post functions of all workflows by application link and plan. The index is populated from all
+ * workflows in the background when the plugin gets enabled and afterwards kept up to date on every workflow that is
+ * created, saved, renamed or deleted. Drafts are not indexed, as they do not run any plans.
+ */
+@Named
+public final class PlanUsageIndexImpl implements PlanUsageIndex, InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PlanUsageIndexImpl.class);
+    private static final String ARG_CLASS_NAME = "class.name";
+    private static final Comparator<TransitionReference> TRANSITION_ORDER =
+            Comparator.comparing(TransitionReference::getWorkflowName)
+                    .thenComparingInt(TransitionReference::getTransitionId)
+                    .thenComparingInt(TransitionReference::getPostFunctionPosition);
+
+    private final WorkflowManager workflowManager;
+    private final EventPublisher eventPublisher;
+    private final FunctionDescriptorUtils functionDescriptorUtils;
+    private final ExecutorService indexer;
+    private final CountDownLatch populated = new CountDownLatch(1);
+
+    // All guarded by this
+    private final Map<String, List<TransitionReference>> transitionsByWorkflow = new HashMap<>();
+    private final Map<List<String>, Set<TransitionReference>> transitionsByPlan = new HashMap<>();
+    // The workflows changed while all workflows are read, their outdated transitions must not be indexed
+    private final Set<String> workflowsChangedWhilePopulating = new HashSet<>();
+
+    public PlanUsageIndexImpl(@ComponentImport WorkflowManager workflowManager,
+                              @ComponentImport EventPublisher eventPublisher,
+                              FunctionDescriptorUtils functionDescriptorUtils) {
+        this.workflowManager = workflowManager;
+        this.eventPublisher = eventPublisher;
+        this.functionDescriptorUtils = functionDescriptorUtils;
+        this.indexer = Executors.newSingleThreadExecutor(new NamedThreadFactory("plan-usage-indexer"));
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        eventPublisher.register(this);
+        indexer.execute(this::populate);
+        // The thread ends once all workflows are indexed
+        indexer.shutdown();
+    }
+
+    @Override
+    public void destroy() {
+        eventPublisher.unregister(this);
+        indexer.shutdownNow();
+    }
+
+    @EventListener
+    public void onWorkflowCreated(WorkflowCreatedEvent event) {
+        reindex(event.getWorkflow().getName());
+    }
+
+    @EventListener
+    public void onWorkflowUpdated(WorkflowUpdatedEvent event) {
+        reindex(event.getWorkflow().getName());
+    }
+
+    @EventListener
+    public synchronized void onWorkflowRenamed(WorkflowRenamedEvent event) {
+        markChanged(event.getOldWorkflowName());
+        remove(event.getOldWorkflowName());
+        reindex(event.getNewWorkflowName());
+    }
+
+    @EventListener
+    public synchronized void onWorkflowDeleted(WorkflowDeletedEvent event) {
+        markChanged(event.getWorkflow().getName());
+        remove(event.getWorkflow().getName());
+    }
+
+    @Override
+    public List<TransitionReference> getTransitions(String applinkId, String planKey, String variable) {
+        try {
+            populated.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            return transitionsByPlan.getOrDefault(Arrays.asList(applinkId, planKey), Collections.emptySet()).stream()
+                    .filter(transition -> variable == null || transition.getVariables().contains(variable))
+                    .sorted(TRANSITION_ORDER)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private void populate() {
+        try {
+            // Read without holding the lock, so workflow events are not held up by reading all workflows
+            final Map<String, List<TransitionReference>> transitionsOfAllWorkflows = new HashMap<>();
+            for (JiraWorkflow workflow : workflowManager.getWorkflows()) {
+                if (!workflow.isDraftWorkflow()) {
+                    transitionsOfAllWorkflows.put(workflow.getName(), createTransitionReferences(workflow));
+                }
+            }
+
+            synchronized (this) {
+                transitionsOfAllWorkflows.forEach((workflowName, transitions) -> {
+                    if (!workflowsChangedWhilePopulating.contains(workflowName)) {
+                        add(workflowName, transitions);
+                    }
+                });
+                workflowsChangedWhilePopulating.clear();
+                LOG.debug("Indexed {} transitions running Bamboo plans.",
+                        transitionsByWorkflow.values().stream().mapToInt(List::size).sum());
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Error while indexing the workflows running Bamboo plans. Only workflows saved from now on are indexed.", e);
+        } finally {
+            populated.countDown();
+        }
+    }
+
+    private synchronized void reindex(String workflowName) {
+        markChanged(workflowName);
+        remove(workflowName);
+        // The event may carry a draft, so the active workflow is read again
+        JiraWorkflow workflow = workflowManager.getWorkflow(workflowName);
+        if (workflow != null && !workflow.isDraftWorkflow()) {
+            add(workflowName, createTransitionReferences(workflow));
+        }
+    }
+
+    private void markChanged(String workflowName) {
+        if (populated.getCount() > 0) {
+            workflowsChangedWhilePopulating.add(workflowName);
+        }
+    }
+
+    private List<TransitionReference> createTransitionReferences(JiraWorkflow workflow) {
+        final List<TransitionReference> transitions = new ArrayList<>();
+        for (ActionDescriptor action : workflow.getAllActions()) {
+            final List<FunctionDescriptor> postFunctions = postFunctionsOf(action).collect(Collectors.toList());
+            for (int i = 0; i < postFunctions.size(); i++) {
+                final FunctionDescriptor function = postFunctions.get(i);
+                if (BambooPlanRunner.class.getName().equals(function.getArgs().get(ARG_CLASS_NAME))) {
+                    final TransitionReference transition = createTransitionReference(workflow.getName(), action, i + 1, function);
+                    if (transition != null) {
+                        transitions.add(transition);
+                    }
+                }
+            }
+        }
+        return transitions;
+    }
+
+    private void add(String workflowName, List<TransitionReference> transitions) {
+        if (transitions.isEmpty()) {
+            return;
+        }
+
+        transitionsByWorkflow.put(workflowName, transitions);
+        transitions.forEach(transition ->
+                transitionsByPlan.computeIfAbsent(Arrays.asList(transition.getApplinkId(), transition.getPlanKey()),
+                        key -> new HashSet<>()).add(transition));
+    }
+
+    private void remove(String workflowName) {
+        List<TransitionReference> transitions = transitionsByWorkflow.remove(workflowName);
+        if (transitions == null) {
+            return;
+        }
+        transitions.forEach(transition -> {
+            List<String> key = Arrays.asList(transition.getApplinkId(), transition.getPlanKey());
+            Set<TransitionReference> transitionsOfPlan = transitionsByPlan.get(key);
+            transitionsOfPlan.remove(transition);
+            if (transitionsOfPlan.isEmpty()) {
+                transitionsByPlan.remove(key);
+            }
+        });
+    }
+
+    private TransitionReference createTransitionReference(String workflowName, ActionDescriptor action, int postFunctionPosition,
+                                                          FunctionDescriptor function) {
+        final Map<?, ?> args = function.getArgs();
+        final String selectedApplinkId = (String) args.get(BambooPlanRunnerFactory.FIELD_SELECTED_APPLINK);
+        final String selectedPlan = StringUtils.removeStart(
+                (String) args.get(BambooPlanRunnerFactory.FIELD_SELECTED_PLAN_FOR + selectedApplinkId), selectedApplinkId + "_");
+        if (StringUtils.isEmpty(selectedApplinkId) || StringUtils.isEmpty(selectedPlan)) {
+            return null;
+        }
+
+        // The variables look like use_<applink>_<plan>_<variable>
+        final String variablePrefix = "use_" + selectedApplinkId + "_" + selectedPlan + "_";
+        final List<String> variables = functionDescriptorUtils
+                .createListFromString((String) args.get(BambooPlanRunnerFactory.FIELD_VARIABLES_TO_USE)).stream()
+                .map(variable -> StringUtils.removeStart(variable, variablePrefix))
+                .collect(Collectors.toList());
+
+        return aTransitionReference()
+                .inWorkflow(workflowName)
+                .forTransition(action.getId(), action.getName())
+                .atPostFunctionPosition(postFunctionPosition)
+                .forApplink(selectedApplinkId)
+                .forPlan(selectedPlan)
+                .withVariables(variables).build();
+    }
+
+    private static Stream<FunctionDescriptor> postFunctionsOf(ActionDescriptor action) {
+        // Functions added in the workflow editor end up in the results of the transition
+        final List<Object> functions = new ArrayList<>();
+        addAll(functions, action.getPostFunctions());
+        if (action.getUnconditionalResult() != null) {
+            addAll(functions, action.getUnconditionalResult().getPostFunctions());
+        }
+        if (action.getConditionalResults() != null) {
+            for (Object result : action.getConditionalResults()) {
+                addAll(functions, ((ResultDescriptor) result).getPostFunctions());
+            }
+        }
+        return functions.stream()
+                .filter(FunctionDescriptor.class::isInstance)
+                .map(FunctionDescriptor.class::cast);
+    }
+
+    private static void addAll(List<Object> functions, List<?> functionsToAdd) {
+        if (functionsToAdd != null) {
+            functions.addAll(functionsToAdd);
+        }
+    }
+}
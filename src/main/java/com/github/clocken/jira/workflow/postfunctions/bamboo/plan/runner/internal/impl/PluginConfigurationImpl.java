@@ -0,0 +1,219 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl;
+
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTriggerDispatcher;
+import org.apache.commons.lang3.EnumUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Named;
+
+/**
+ * Reads the configuration from JVM system properties prefixed with <code>bamboo-plan-runner.</code>, e. g.
+ * <code>-Dbamboo-plan-runner.dispatcher.threads=8</code>. Missing or invalid values fall back to the defaults.
+ */
+@Named
+public final class PluginConfigurationImpl implements PluginConfiguration {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PluginConfigurationImpl.class);
+    private static final String PROPERTY_PREFIX = "bamboo-plan-runner.";
+
+    @Override
+    public int getDispatcherThreads() {
+        return getPositiveInt("dispatcher.threads", 4);
+    }
+
+    @Override
+    public int getDispatcherQueueCapacity() {
+        return getPositiveInt("dispatcher.queue.capacity", 1000);
+    }
+
+    @Override
+    public BuildTriggerDispatcher.OverflowPolicy getDispatcherOverflowPolicy() {
+        return getEnum("dispatcher.overflow.policy", BuildTriggerDispatcher.OverflowPolicy.class,
+                BuildTriggerDispatcher.OverflowPolicy.CALLER_RUNS);
+    }
+
+    @Override
+    public int getDispatcherRequestsPerApplink() {
+        return getPositiveInt("dispatcher.requests.per.applink", 2);
+    }
+
+    @Override
+    public int getDispatcherBulkThreshold() {
+        return getPositiveInt("dispatcher.bulk.threshold", 20);
+    }
+
+    @Override
+    public boolean isBulkPlanFetchEnabled() {
+        return getBoolean("catalog.bulk.fetch", true);
+    }
+
+    @Override
+    public int getPlanPageSize() {
+        return getPositiveInt("catalog.page.size", 100);
+    }
+
+    @Override
+    public int getCatalogRequestThreads() {
+        return getPositiveInt("catalog.request.threads", 8);
+    }
+
+    @Override
+    public int getCatalogRequestsPerApplink() {
+        return getPositiveInt("catalog.requests.per.applink", 4);
+    }
+
+    @Override
+    public int getCatalogLoaderThreads() {
+        return getPositiveInt("catalog.loader.threads", 4);
+    }
+
+    @Override
+    public int getCatalogLoadTimeoutSeconds() {
+        return getPositiveInt("catalog.load.timeout.seconds", 60);
+    }
+
+    @Override
+    public int getCatalogTtlSeconds() {
+        return getPositiveInt("catalog.ttl.seconds", 300);
+    }
+
+    @Override
+    public int getCatalogMaxStaleSeconds() {
+        return getPositiveInt("catalog.max.stale.seconds", 3600);
+    }
+
+    @Override
+    public int getCatalogMaxResponseKilobytes() {
+        return getPositiveInt("catalog.max.response.kb", 10240);
+    }
+
+    @Override
+    public boolean isCatalogWarmerEnabled() {
+        return getBoolean("catalog.warmer.enabled", true);
+    }
+
+    @Override
+    public int getCatalogRefreshIntervalSeconds() {
+        return getPositiveInt("catalog.refresh.interval.seconds", 240);
+    }
+
+    @Override
+    public int getCatalogRefreshJitterSeconds() {
+        return getNonNegativeInt("catalog.refresh.jitter.seconds", 30);
+    }
+
+    @Override
+    public boolean isCatalogPersistenceEnabled() {
+        return getBoolean("catalog.persistence.enabled", true);
+    }
+
+    @Override
+    public int getTemplateCacheSize() {
+        return getPositiveInt("template.cache.size", 1000);
+    }
+
+    @Override
+    public int getTriggerCacheSize() {
+        return getPositiveInt("trigger.cache.size", 1000);
+    }
+
+    @Override
+    public int getConfigurationRegistrySize() {
+        return getPositiveInt("configuration.registry.size", 5000);
+    }
+
+    @Override
+    public boolean isOutboxEnabled() {
+        return getBoolean("outbox.enabled", true);
+    }
+
+    @Override
+    public int getOutboxMaxAttempts() {
+        return getPositiveInt("outbox.max.attempts", 10);
+    }
+
+    @Override
+    public int getOutboxRetryInitialSeconds() {
+        return getPositiveInt("outbox.retry.initial.seconds", 5);
+    }
+
+    @Override
+    public int getOutboxRetryMaxSeconds() {
+        return getPositiveInt("outbox.retry.max.seconds", 600);
+    }
+
+    @Override
+    public int getOutboxVerifyResults() {
+        return getPositiveInt("outbox.verify.results", 100);
+    }
+
+    @Override
+    public boolean isDeduplicationEnabled() {
+        return getBoolean("dedup.enabled", false);
+    }
+
+    @Override
+    public int getDeduplicationWindowSeconds() {
+        return getPositiveInt("dedup.window.seconds", 60);
+    }
+
+    private static boolean getBoolean(String key, boolean defaultValue) {
+        String value = System.getProperty(PROPERTY_PREFIX + key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    private static int getPositiveInt(String key, int defaultValue) {
+        Integer value = Integer.getInteger(PROPERTY_PREFIX + key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value <= 0) {
+            LOG.warn("Ignoring non-positive value {} for {}. Using {}.", value, PROPERTY_PREFIX + key, defaultValue);
+            return defaultValue;
+        }
+        return value;
+    }
+
+    private static int getNonNegativeInt(String key, int defaultValue) {
+        Integer value = Integer.getInteger(PROPERTY_PREFIX + key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value < 0) {
+            LOG.warn("Ignoring negative value {} for {}. Using {}.", value, PROPERTY_PREFIX + key, defaultValue);
+            return defaultValue;
+        }
+        return value;
+    }
+
+    private static <E extends Enum<E>> E getEnum(String key, Class<E> enumClass, E defaultValue) {
+        String value = System.getProperty(PROPERTY_PREFIX + key);
+        if (value == null) {
+            return defaultValue;
+        }
+        E enumValue = EnumUtils.getEnum(enumClass, value.trim().toUpperCase());
+        if (enumValue == null) {
+            LOG.warn("Ignoring unknown value '{}' for {}. Using {}.", value, PROPERTY_PREFIX + key, defaultValue);
+            return defaultValue;
+        }
+        return enumValue;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl;
+
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FieldTemplate;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.TemplateCompiler;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the most recently used templates in a bounded LRU cache keyed by the template text.
+ */
+@Named
+public final class TemplateCompilerImpl implements TemplateCompiler {
+
+    private static final char ESCAPE = '\\';
+    private static final String REFERENCE_PREFIX = "$(";
+    private static final char REFERENCE_SUFFIX = ')';
+
+    private final Map<String, FieldTemplate> templatesByText;
+
+    public TemplateCompilerImpl(PluginConfiguration pluginConfiguration) {
+        final int cacheSize = pluginConfiguration.getTemplateCacheSize();
+        this.templatesByText = Collections.synchronizedMap(new LinkedHashMap<String, FieldTemplate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FieldTemplate> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    @Override
+    public FieldTemplate compile(String template) {
+        final String text = StringUtils.defaultString(template);
+        FieldTemplate fieldTemplate = templatesByText.get(text);
+        if (fieldTemplate == null) {
+            fieldTemplate = parse(text);
+            templatesByText.put(text, fieldTemplate);
+        }
+        return fieldTemplate;
+    }
+
+    /**
+     * Splits the text into literals and field references. An unterminated reference is kept as literal text.
+     */
+    private static FieldTemplate parse(String text) {
+        final List<FieldTemplate.Segment> segments = new ArrayList<>();
+        final StringBuilder literal = new StringBuilder();
+        int position = 0;
+        while (position < text.length()) {
+            if (text.charAt(position) == ESCAPE && text.startsWith(REFERENCE_PREFIX, position + 1)) {
+                literal.append(REFERENCE_PREFIX);
+                position += 1 + REFERENCE_PREFIX.length();
+            } else if (text.startsWith(REFERENCE_PREFIX, position)) {
+                final int end = text.indexOf(REFERENCE_SUFFIX, position + REFERENCE_PREFIX.length());
+                if (end < 0) {
+                    literal.append(text, position, text.length());
+                    break;
+                }
+                if (literal.length() > 0) {
+                    segments.add(FieldTemplate.Segment.literal(literal.toString()));
+                    literal.setLength(0);
+                }
+                segments.add(FieldTemplate.Segment.fieldReference(text.substring(position + REFERENCE_PREFIX.length(), end)));
+                position = end + 1;
+            } else {
+                literal.append(text.charAt(position++));
+            }
+        }
+        if (literal.length() > 0) {
+            segments.add(FieldTemplate.Segment.literal(literal.toString()));
+        }
+        return new FieldTemplate(segments);
+    }
+}
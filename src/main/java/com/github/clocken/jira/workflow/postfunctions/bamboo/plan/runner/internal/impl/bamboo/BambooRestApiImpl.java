@@ -16,51 +16,90 @@
 
 package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
 
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.ApplicationLinkRequest;
 import com.atlassian.applinks.api.CredentialsRequiredException;
 import com.atlassian.applinks.api.ReadOnlyApplicationLink;
-import com.atlassian.jira.util.json.JSONArray;
-import com.atlassian.jira.util.json.JSONException;
-import com.atlassian.jira.util.json.JSONObject;
 import com.atlassian.sal.api.net.Request;
+import com.atlassian.sal.api.net.Response;
 import com.atlassian.sal.api.net.ResponseException;
+import com.atlassian.sal.api.net.ResponseStatusException;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.NamedThreadFactory;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
 import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BambooRestApi;
 import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.springframework.beans.factory.DisposableBean;
 
 import javax.inject.Named;
-import java.net.MalformedURLException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-
-import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan.Builder.aPlan;
+import java.util.concurrent.*;
 
 @Named
-public final class BambooRestApiImpl implements BambooRestApi {
+public final class BambooRestApiImpl implements BambooRestApi, DisposableBean {
 
     private static final String REST_API_BASE = "/rest/api/latest";
     private static final String PLAN_API = REST_API_BASE + "/plan";
     private static final String PLAN_API_VARIABLE_QUERY_PARAMETER = "expand=variableContext";
+    private static final String PLAN_API_BULK_VARIABLE_QUERY_PARAMETER = "expand=plans.plan.variableContext";
     private static final String QUEUE_API = REST_API_BASE + "/queue";
+    private static final String RESULT_API = REST_API_BASE + "/result";
+    private static final String RESULT_API_QUERY_PARAMETERS = "includeAllStates=true&expand=results.result.variables";
+    private static final String TRIGGER_ID_VARIABLE = "planRunnerTriggerId";
 
     private static final String HTTP_HEADER_ACCEPT = "Accept";
     private static final String HTTP_HEADER_APPLICATION_JSON = "application/json";
+    private static final String HTTP_HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String HTTP_HEADER_ETAG = "ETag";
+    private static final String HTTP_HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HTTP_HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HTTP_HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final int HTTP_STATUS_NOT_MODIFIED = 304;
+
+    private final PluginConfiguration pluginConfiguration;
+    private final ExecutorService requestExecutor;
+    private final Map<ApplicationId, Semaphore> requestPermitsByApplink = new ConcurrentHashMap<>();
+    private final Map<ApplicationId, Map<String, ValidatedResponse>> validatedResponsesByApplink = new ConcurrentHashMap<>();
+
+    public BambooRestApiImpl(PluginConfiguration pluginConfiguration) {
+        this.pluginConfiguration = pluginConfiguration;
+        this.requestExecutor = Executors.newFixedThreadPool(pluginConfiguration.getCatalogRequestThreads(),
+                new NamedThreadFactory("catalog-request"));
+    }
 
     @Override
     public List<Plan> plans(ReadOnlyApplicationLink bambooApplink) throws CredentialsRequiredException, ResponseException {
+        if (pluginConfiguration.isBulkPlanFetchEnabled()) {
+            return getPlansInBulk(bambooApplink);
+        }
         return getPlans(bambooApplink);
     }
 
     @Override
-    public void queueBuild(ReadOnlyApplicationLink bambooApplink, String planKey, Map<String, String> valuesByVariable) throws CredentialsRequiredException, ResponseException {
+    public void queueBuild(ReadOnlyApplicationLink bambooApplink, String planKey, Map<String, String> valuesByVariable, String triggerId) throws CredentialsRequiredException, ResponseException {
         final List<String> planVariablesWithValues = new ArrayList<>();
         valuesByVariable.forEach((variable, value) -> {
             planVariablesWithValues.add("bamboo.variable." + variable);
             planVariablesWithValues.add(value);
         });
+        if (pluginConfiguration.isOutboxEnabled()) {
+            // Only looked up for the triggers kept in the outbox
+            planVariablesWithValues.add("bamboo.variable." + TRIGGER_ID_VARIABLE);
+            planVariablesWithValues.add(triggerId);
+        }
 
         bambooApplink.createAuthenticatedRequestFactory()
                 .createRequest(Request.MethodType.POST, QUEUE_API + "/" + planKey)
@@ -68,97 +107,298 @@ public final class BambooRestApiImpl implements BambooRestApi {
                 .addHeader(HTTP_HEADER_ACCEPT, HTTP_HEADER_APPLICATION_JSON)
                 .execute(response -> {
                     if (!response.isSuccessful()) {
-                        throw new ResponseException(
+                        throw new ResponseStatusException(
                                 MessageFormat.format("Request for {0} was unsuccessful. Status code is {1}",
                                         QUEUE_API + "/" + planKey,
-                                        response.getStatusCode())
-                        );
+                                        response.getStatusCode()),
+                                response);
+                    }
+                });
+    }
+
+    @Override
+    public boolean isQueued(ReadOnlyApplicationLink bambooApplink, String planKey, String triggerId) throws CredentialsRequiredException, ResponseException {
+        final String requestPath = RESULT_API + "/" + planKey + '?' + RESULT_API_QUERY_PARAMETERS
+                + "&max-result=" + pluginConfiguration.getOutboxVerifyResults();
+        final List<Boolean> queued = new ArrayList<>(1);
+        bambooApplink.createAuthenticatedRequestFactory()
+                .createRequest(Request.MethodType.GET, requestPath)
+                .addHeader(HTTP_HEADER_ACCEPT, HTTP_HEADER_APPLICATION_JSON)
+                .execute(response -> {
+                    if (!response.isSuccessful()) {
+                        throw new ResponseStatusException(
+                                MessageFormat.format("Request for {0} was unsuccessful. Status code is {1}",
+                                        requestPath,
+                                        response.getStatusCode()),
+                                response);
+                    }
+                    try (InputStream responseBody = boundedResponseBody(response, requestPath)) {
+                        queued.add(PlanJsonParser.parseResultVariableValues(responseBody, TRIGGER_ID_VARIABLE)
+                                .contains(triggerId));
+                    } catch (IOException e) {
+                        throw new ResponseException(
+                                MessageFormat.format("Error parsing response from {0}", requestPath),
+                                e);
                     }
                 });
+        return queued.get(0);
+    }
+
+    @Override
+    public void forgetResponses(ApplicationId applicationId) {
+        validatedResponsesByApplink.remove(applicationId);
+    }
+
+    @Override
+    public void destroy() {
+        requestExecutor.shutdownNow();
+    }
+
+    /**
+     * Fetches all plans including their variables with as few requests as possible by expanding the variable context
+     * of every plan in the (paged) plan list.
+     */
+    private List<Plan> getPlansInBulk(ReadOnlyApplicationLink bambooApplink) throws ResponseException, CredentialsRequiredException {
+        return getPagedPlanList(bambooApplink, PLAN_API_BULK_VARIABLE_QUERY_PARAMETER);
     }
 
     private List<Plan> getPlans(ReadOnlyApplicationLink bambooApplink) throws ResponseException, CredentialsRequiredException {
-        final List<Plan> plans = new ArrayList<>();
-        for (URL planLink : getPlanLinks(bambooApplink)) {
-            // Allow for context paths in the plan link
-            String planLinkPath = StringUtils.removeStart(planLink.toString(), bambooApplink.getRpcUrl().toString());
-
-            bambooApplink.createAuthenticatedRequestFactory()
-                    .createRequest(Request.MethodType.GET, planLinkPath + '?' + PLAN_API_VARIABLE_QUERY_PARAMETER)
-                    .addHeader(HTTP_HEADER_ACCEPT, HTTP_HEADER_APPLICATION_JSON)
-                    .execute(response -> {
-                        if (!response.isSuccessful()) {
-                            throw new ResponseException(
-                                    MessageFormat.format("Request for {0} was unsuccessful. Status code is {1}",
-                                            planLink.toString() + '?' + PLAN_API_VARIABLE_QUERY_PARAMETER,
-                                            response.getStatusCode()));
-                        }
+        final List<RequestTask<Plan>> planRequests = new ArrayList<>();
+        for (Plan planListEntry : getPagedPlanList(bambooApplink, StringUtils.EMPTY)) {
+            planRequests.add(() -> getPlan(bambooApplink, planListEntry.getLink()));
+        }
+        return executeConcurrently(bambooApplink, planRequests);
+    }
+
+    private Plan getPlan(ReadOnlyApplicationLink bambooApplink, URL planLink) throws ResponseException, CredentialsRequiredException {
+        // Allow for context paths in the plan link
+        String planLinkPath = StringUtils.removeStart(planLink.toString(), bambooApplink.getRpcUrl().toString());
+
+        return getConditionally(bambooApplink, planLinkPath + '?' + PLAN_API_VARIABLE_QUERY_PARAMETER,
+                PlanJsonParser::parsePlan);
+    }
+
+    /**
+     * Walks the plan list using <code>start-index</code> and <code>max-result</code>, as Bamboo only returns its
+     * default page size when the list is requested without paging parameters. The first page tells the total size of
+     * the list, all further pages are then requested concurrently.
+     */
+    private List<Plan> getPagedPlanList(ReadOnlyApplicationLink bambooApplink,
+                                        String queryParameters) throws ResponseException, CredentialsRequiredException {
+        PlanJsonParser.PlanListPage firstPage = getPlanListPage(bambooApplink, queryParameters, 0,
+                pluginConfiguration.getPlanPageSize());
+        // Bamboo may return less than requested, so further pages are sized like the first one
+        final int pageSize = firstPage.plans.size();
+        if (pageSize == 0 || pageSize >= firstPage.totalSize) {
+            return Collections.unmodifiableList(firstPage.plans);
+        }
+
+        final List<RequestTask<PlanJsonParser.PlanListPage>> pageRequests = new ArrayList<>();
+        for (int startIndex = pageSize; startIndex < firstPage.totalSize; startIndex += pageSize) {
+            final int pageStartIndex = startIndex;
+            pageRequests.add(() -> getPlanListPage(bambooApplink, queryParameters, pageStartIndex, pageSize));
+        }
+
+        final List<Plan> plans = new ArrayList<>(firstPage.totalSize);
+        plans.addAll(firstPage.plans);
+        executeConcurrently(bambooApplink, pageRequests)
+                .forEach(page -> plans.addAll(page.plans));
+        return Collections.unmodifiableList(plans);
+    }
+
+    private PlanJsonParser.PlanListPage getPlanListPage(ReadOnlyApplicationLink bambooApplink,
+                                                        String queryParameters,
+                                                        int startIndex,
+                                                        int pageSize) throws ResponseException, CredentialsRequiredException {
+        final String requestPath = PLAN_API + '?'
+                + (StringUtils.isEmpty(queryParameters) ? StringUtils.EMPTY : queryParameters + '&')
+                + "start-index=" + startIndex
+                + "&max-result=" + pageSize;
+        return getConditionally(bambooApplink, requestPath, PlanJsonParser::parsePlanList);
+    }
+
+    /**
+     * Requests a resource of the plan API, revalidating a previous response with <code>If-None-Match</code> and
+     * <code>If-Modified-Since</code>. When Bamboo answers with <code>304 Not Modified</code> or the same ETag, the
+     * previously parsed value is returned as is, without reading the body. Otherwise the body is hashed while it is
+     * parsed, and the previously parsed value is returned if the content did not change, so unchanged plans keep their
+     * identity.
+     */
+    private <T> T getConditionally(ReadOnlyApplicationLink bambooApplink,
+                                   String requestPath,
+                                   ResponseParser<T> responseParser) throws ResponseException, CredentialsRequiredException {
+        final Map<String, ValidatedResponse> validatedResponses = validatedResponsesByApplink.computeIfAbsent(
+                bambooApplink.getId(), applicationId -> new ConcurrentHashMap<>());
+        final ValidatedResponse previousResponse = validatedResponses.get(requestPath);
+
+        final ApplicationLinkRequest request = bambooApplink.createAuthenticatedRequestFactory()
+                .createRequest(Request.MethodType.GET, requestPath);
+        request.addHeader(HTTP_HEADER_ACCEPT, HTTP_HEADER_APPLICATION_JSON);
+        if (previousResponse != null && previousResponse.eTag != null) {
+            request.addHeader(HTTP_HEADER_IF_NONE_MATCH, previousResponse.eTag);
+        }
+        if (previousResponse != null && previousResponse.lastModified != null) {
+            request.addHeader(HTTP_HEADER_IF_MODIFIED_SINCE, previousResponse.lastModified);
+        }
+
+        final List<ValidatedResponse> validatedResponse = new ArrayList<>(1);
+        request.execute(response -> {
+            if (response.getStatusCode() == HTTP_STATUS_NOT_MODIFIED && previousResponse != null) {
+                validatedResponse.add(previousResponse);
+                return;
+            }
+            if (!response.isSuccessful()) {
+                throw new ResponseException(
+                        MessageFormat.format("Request for {0} was unsuccessful. Status code is {1}",
+                                requestPath,
+                                response.getStatusCode()));
+            }
+
+            final String eTag = response.getHeader(HTTP_HEADER_ETAG);
+            final String lastModified = response.getHeader(HTTP_HEADER_LAST_MODIFIED);
+            if (previousResponse != null && eTag != null && eTag.equals(previousResponse.eTag)) {
+                validatedResponse.add(previousResponse);
+                return;
+            }
+
+            final MessageDigest contentDigest = createContentDigest();
+            try (InputStream responseBody = new DigestInputStream(boundedResponseBody(response, requestPath), contentDigest)) {
+                final T value = responseParser.parse(new FilterInputStream(responseBody) {
+                    @Override
+                    public void close() {
+                        // Closed once the rest of the body is hashed
+                    }
+                });
+                // The parser may stop before the end of the body, which still counts for the hash
+                skipRemaining(responseBody);
+                final byte[] contentHash = contentDigest.digest();
+                if (previousResponse != null && Arrays.equals(contentHash, previousResponse.contentHash)) {
+                    validatedResponse.add(new ValidatedResponse(eTag, lastModified, contentHash, previousResponse.value));
+                } else {
+                    validatedResponse.add(new ValidatedResponse(eTag, lastModified, contentHash, value));
+                }
+            } catch (IOException e) {
+                throw new ResponseException(
+                        MessageFormat.format("Error parsing response from {0}", requestPath),
+                        e);
+            }
+        });
+
+        validatedResponses.put(requestPath, validatedResponse.get(0));
+        @SuppressWarnings("unchecked") final T value = (T) validatedResponse.get(0).value;
+        return value;
+    }
+
+    /**
+     * Rejects responses that announce a body larger than allowed right away. Bodies without a length are limited
+     * while they are read.
+     */
+    private InputStream boundedResponseBody(Response response, String requestPath) throws ResponseException {
+        final long contentLength = NumberUtils.toLong(response.getHeader(HTTP_HEADER_CONTENT_LENGTH), -1L);
+        if (contentLength > getMaxResponseBytes()) {
+            throw new ResponseException(
+                    MessageFormat.format("Response from {0} is too large: {1} bytes exceed the maximum of {2} bytes",
+                            requestPath,
+                            String.valueOf(contentLength),
+                            String.valueOf(getMaxResponseBytes())));
+        }
+        return new LimitedInputStream(response.getResponseBodyAsStream(), getMaxResponseBytes());
+    }
+
+    private long getMaxResponseBytes() {
+        return pluginConfiguration.getCatalogMaxResponseKilobytes() * 1024L;
+    }
+
+    /**
+     * Executes the given requests on the request executor, while never running more than the configured number of
+     * requests against the same Bamboo instance at once.
+     *
+     * @return the results in the order of the given requests
+     */
+    private <T> List<T> executeConcurrently(ReadOnlyApplicationLink bambooApplink,
+                                            List<RequestTask<T>> requestTasks) throws ResponseException, CredentialsRequiredException {
+        final Semaphore requestPermits = requestPermitsByApplink.computeIfAbsent(bambooApplink.getId(),
+                applicationId -> new Semaphore(pluginConfiguration.getCatalogRequestsPerApplink()));
+        final List<Future<T>> futures = new ArrayList<>(requestTasks.size());
+        try {
+            for (RequestTask<T> requestTask : requestTasks) {
+                requestPermits.acquire();
+                try {
+                    futures.add(requestExecutor.submit(() -> {
                         try {
-                            JSONObject jsonResponse = new JSONObject(response.getResponseBodyAsString());
-                            JSONArray jsonPlanVariables = jsonResponse
-                                    .getJSONObject("variableContext")
-                                    .getJSONArray("variable");
-
-                            List<String> planVariables = new ArrayList<>();
-                            for (int i = 0; i < jsonPlanVariables.length(); i++) {
-                                JSONObject jsonPlanVariable = jsonPlanVariables.getJSONObject(i);
-                                planVariables.add(jsonPlanVariable.getString("key"));
-                            }
-
-                            String planDescription = StringUtils.EMPTY;
-                            try { // NOSONAR - nested block for optional parameter ok here
-                                planDescription = jsonResponse.getString("description");
-                            } catch (JSONException e) {
-                                // This is an optional parameter
-                            }
-                            plans.add(aPlan()
-                                    .withKey(jsonResponse.getString("key"))
-                                    .withName(jsonResponse.getString("shortName"))
-                                    .thatIsEnabled(jsonResponse.getBoolean("enabled"))
-                                    .withDescription(planDescription)
-                                    .withLink(planLink)
-                                    .withVariables(planVariables).build());
-                        } catch (JSONException e) {
-                            throw new ResponseException(
-                                    MessageFormat.format("Error parsing response from {0}", planLink),
-                                    e);
+                            return requestTask.execute();
+                        } finally {
+                            requestPermits.release();
                         }
-                    });
+                    }));
+                } catch (RejectedExecutionException e) {
+                    requestPermits.release();
+                    throw new ResponseException("Request executor is shut down", e);
+                }
+            }
+
+            final List<T> results = new ArrayList<>(futures.size());
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseException("Interrupted while waiting for Bamboo", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ResponseException) {
+                throw (ResponseException) e.getCause();
+            }
+            if (e.getCause() instanceof CredentialsRequiredException) {
+                throw (CredentialsRequiredException) e.getCause();
+            }
+            throw new ResponseException(e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
         }
-        return Collections.unmodifiableList(plans);
     }
 
-    private List<URL> getPlanLinks(ReadOnlyApplicationLink bambooApplink) throws ResponseException, CredentialsRequiredException {
-        List<URL> planLinks = new ArrayList<>();
-        bambooApplink.createAuthenticatedRequestFactory()
-                .createRequest(Request.MethodType.GET, PLAN_API)
-                .addHeader(HTTP_HEADER_ACCEPT, HTTP_HEADER_APPLICATION_JSON)
-                .execute(
-                        response -> {
-                            if (!response.isSuccessful()) {
-                                throw new ResponseException(
-                                        MessageFormat.format("Request for {0} was unsuccessful. Status code is {1}",
-                                                PLAN_API,
-                                                response.getStatusCode()));
-                            }
-                            try {
-                                JSONObject jsonResponse = new JSONObject(response.getResponseBodyAsString());
-                                JSONArray jsonPlans = jsonResponse
-                                        .getJSONObject("plans")
-                                        .getJSONArray("plan");
-
-                                for (int i = 0; i < jsonPlans.length(); i++) {
-                                    JSONObject jsonPlan = jsonPlans.getJSONObject(i);
-                                    planLinks.add(new URL(jsonPlan
-                                            .getJSONObject("link")
-                                            .getString("href")));
-                                }
-                            } catch (JSONException | MalformedURLException e) {
-                                throw new ResponseException(
-                                        MessageFormat.format("Error parsing response from {0}", PLAN_API),
-                                        e);
-                            }
-                        });
-        return Collections.unmodifiableList(planLinks);
+    private static void skipRemaining(InputStream inputStream) throws IOException {
+        final byte[] buffer = new byte[8192];
+        while (inputStream.read(buffer) != -1) {
+            // Only read for the digest
+        }
+    }
+
+    private static MessageDigest createContentDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A parsed response together with what is needed to tell whether it is still current.
+     */
+    private static final class ValidatedResponse {
+
+        private final String eTag;
+        private final String lastModified;
+        private final byte[] contentHash;
+        private final Object value;
+
+        private ValidatedResponse(String eTag, String lastModified, byte[] contentHash, Object value) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+            this.value = value;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ResponseParser<T> {
+        T parse(InputStream responseBody) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface RequestTask<T> {
+        T execute() throws ResponseException, CredentialsRequiredException;
     }
 }
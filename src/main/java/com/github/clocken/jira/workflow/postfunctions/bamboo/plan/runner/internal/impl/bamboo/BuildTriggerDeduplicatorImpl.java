@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTrigger;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTriggerDeduplicator;
+
+import javax.inject.Named;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers the SHA-256 hashes of the application link, plan key and variables sorted by name of the triggers sent
+ * within the configured window. The issue is not part of the hash, so triggers of different issues are recognized as
+ * duplicates as well. Only triggers sent by this Jira node are taken into account.
+ */
+@Named
+public final class BuildTriggerDeduplicatorImpl implements BuildTriggerDeduplicator {
+
+    private static final int CLAIMS_PER_CLEANUP = 100;
+
+    private final boolean enabled;
+    private final long windowNanos;
+    private final ConcurrentMap<ByteBuffer, Long> claimedAtByHash = new ConcurrentHashMap<>();
+    private final AtomicInteger claimsSinceCleanup = new AtomicInteger();
+
+    public BuildTriggerDeduplicatorImpl(PluginConfiguration pluginConfiguration) {
+        this.enabled = pluginConfiguration.isDeduplicationEnabled();
+        this.windowNanos = TimeUnit.SECONDS.toNanos(pluginConfiguration.getDeduplicationWindowSeconds());
+    }
+
+    @Override
+    public boolean claim(BuildTrigger buildTrigger) {
+        if (!enabled) {
+            return true;
+        }
+        final long now = System.nanoTime();
+        if (claimsSinceCleanup.incrementAndGet() >= CLAIMS_PER_CLEANUP) {
+            claimsSinceCleanup.set(0);
+            claimedAtByHash.values().removeIf(claimedAt -> now - claimedAt >= windowNanos);
+        }
+
+        final boolean[] claimed = new boolean[1];
+        claimedAtByHash.compute(hash(buildTrigger), (hash, claimedAt) -> {
+            if (claimedAt != null && now - claimedAt < windowNanos) {
+                return claimedAt;
+            }
+            claimed[0] = true;
+            return now;
+        });
+        return claimed[0];
+    }
+
+    @Override
+    public void release(BuildTrigger buildTrigger) {
+        if (enabled) {
+            claimedAtByHash.remove(hash(buildTrigger));
+        }
+    }
+
+    private static ByteBuffer hash(BuildTrigger buildTrigger) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        update(digest, buildTrigger.getApplink().getId().get());
+        update(digest, buildTrigger.getPlanKey());
+        for (Map.Entry<String, String> valueByVariable : new TreeMap<>(buildTrigger.getValuesByVariable()).entrySet()) {
+            update(digest, valueByVariable.getKey());
+            update(digest, valueByVariable.getValue());
+        }
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        // The values are prefixed with their lengths, so no two different triggers hash the same input
+        final byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+        digest.update((byte) ':');
+        digest.update(bytes);
+    }
+}
@@ -0,0 +1,808 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.CredentialsRequiredException;
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+import com.atlassian.applinks.api.ReadOnlyApplicationLinkService;
+import com.atlassian.jira.config.util.JiraHome;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.atlassian.sal.api.net.ResponseConnectTimeoutException;
+import com.atlassian.sal.api.net.ResponseException;
+import com.atlassian.sal.api.net.ResponseStatusException;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.NamedThreadFactory;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BambooRestApi;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTrigger;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTriggerDeduplicator;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTriggerDispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.inject.Named;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTrigger.Builder.aBuildTrigger;
+
+/**
+ * Sends build triggers to Bamboo in the background and sends them again with exponential backoff and jitter, as long
+ * as Bamboo is unavailable or fails. Until Bamboo queued a trigger, it is kept in a {@link TriggerJournal}, so pending
+ * triggers are sent after a restart as well.<br>
+ * With the outbox enabled, every trigger is sent with its ID as a build variable, so Bamboo's results tell whether it
+ * queued the trigger. A trigger that was being sent while Jira stopped, or whose request failed after it may have
+ * reached Bamboo, e. g. by a read timeout, is only sent again if none of the latest builds of the plan carries its ID,
+ * so no build is queued twice. Only a trigger that never reached Bamboo, as the connection failed or Bamboo answered
+ * 429 or 503, is sent again without looking it up.<br>
+ * Triggers with a debounce time are held back, and replaced by further triggers of the same plan and issue, until the
+ * time since the first of them is up. Then the last one is sent.<br>
+ * At most {@link PluginConfiguration#getDispatcherRequestsPerApplink()} triggers are sent to the same Bamboo instance
+ * at once, so a bulk transition of many issues neither overloads Bamboo nor occupies all workers. The triggers of an
+ * issue are sent one after another in the order of its transitions, including their retries, while the triggers of
+ * different issues are sent in parallel and take turns, so a busy issue does not hold up the others. Once triggers arrive
+ * faster than {@link PluginConfiguration#getDispatcherBulkThreshold()} per second, they are tracked as a
+ * {@link BulkRun}: its progress is logged periodically and its failures are summed up when it is done. A bulk run is
+ * never sent on the transitions' threads, as long as the outbox is enabled: the triggers exceeding the queue are only
+ * kept in the outbox and read from it again once the queue has room, so the queue stays bounded. The triggers pending
+ * after a restart are read from the outbox the same way, and new triggers wait behind them. A trigger keeps its slot in
+ * the queue until it is sent or given up, so its retries count against the queue as well. A trigger sent on the
+ * calling thread by {@link OverflowPolicy#CALLER_RUNS} counts against the requests allowed per Bamboo instance like
+ * any other.
+ */
+@Named
+public final class BuildTriggerDispatcherImpl implements BuildTriggerDispatcher, InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BuildTriggerDispatcherImpl.class);
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    private static final String OUTBOX_FILE = "bamboo-plan-runner/trigger-outbox.journal";
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long BULK_RUN_IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long BULK_RUN_REPORT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long DEBOUNCED_ADMIT_RETRY_MILLIS = 100;
+
+    private final BambooRestApi bambooRestApi;
+    private final BuildTriggerDeduplicator buildTriggerDeduplicator;
+    private final ReadOnlyApplicationLinkService applicationLinkService;
+    private final PluginConfiguration pluginConfiguration;
+    private final Path outboxFile;
+    private final OverflowPolicy overflowPolicy;
+    private final Semaphore queueSlots;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, ApplinkLane> lanesByApplinkId = new ConcurrentHashMap<>();
+    private final Map<List<String>, DispatchTask> debouncedTasks = new ConcurrentHashMap<>();
+    private final Map<UUID, BulkRun> bulkRunsBySpilledId = new ConcurrentHashMap<>();
+    private final Object bulkRunLock = new Object();
+    // Orders admitting new triggers with reading spilled ones from the outbox
+    private final Object spillLock = new Object();
+    // guarded by bulkRunLock
+    private long rateWindowStartedAt = System.nanoTime();
+    private int rateWindowCount;
+    private BulkRun bulkRun;
+    private long bulkRunReportedAt;
+    private ScheduledFuture<?> bulkRunMonitor;
+    // null, if the outbox is disabled or could not be opened
+    private volatile TriggerJournal journal;
+
+    public BuildTriggerDispatcherImpl(BambooRestApi bambooRestApi,
+                                      BuildTriggerDeduplicator buildTriggerDeduplicator,
+                                      @ComponentImport ReadOnlyApplicationLinkService applicationLinkService,
+                                      @ComponentImport JiraHome jiraHome,
+                                      PluginConfiguration pluginConfiguration) {
+        this.bambooRestApi = bambooRestApi;
+        this.buildTriggerDeduplicator = buildTriggerDeduplicator;
+        this.applicationLinkService = applicationLinkService;
+        this.pluginConfiguration = pluginConfiguration;
+        this.outboxFile = pluginConfiguration.isOutboxEnabled()
+                ? jiraHome.getLocalHome().toPath().resolve(OUTBOX_FILE)
+                : null;
+
+        this.overflowPolicy = pluginConfiguration.getDispatcherOverflowPolicy();
+
+        int threads = pluginConfiguration.getDispatcherThreads();
+        // Triggers waiting for a worker, for their Bamboo instance or to be sent again occupy a slot until they are
+        // sent or given up
+        this.queueSlots = new Semaphore(threads + pluginConfiguration.getDispatcherQueueCapacity());
+        this.executor = new ThreadPoolExecutor(threads,
+                threads,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamedThreadFactory("dispatcher"));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("dispatcher-scheduler"));
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (outboxFile == null) {
+            return;
+        }
+        try {
+            journal = TriggerJournal.open(outboxFile);
+        } catch (IOException e) {
+            LOG.error("Error while opening the trigger outbox {}: {}. Build triggers are not kept across restarts.",
+                    outboxFile, e.getMessage());
+            LOG.error("Exception: ", e);
+            return;
+        }
+
+        // Read from the outbox as the queue has room, like the triggers spilled by a bulk run
+        final List<TriggerJournal.Entry> pendingEntries = journal.getPendingEntries();
+        synchronized (spillLock) {
+            pendingEntries.forEach(entry -> journal.spilled(entry.getId()));
+        }
+        if (!pendingEntries.isEmpty()) {
+            LOG.info("Sending {} build triggers from {}", pendingEntries.size(), outboxFile);
+        }
+        refill();
+    }
+
+    @Override
+    public void dispatch(BuildTrigger buildTrigger) {
+        final UUID id = UUID.randomUUID();
+        record(journal -> journal.added(id, buildTrigger));
+        final DispatchTask task = new DispatchTask(id, buildTrigger, 0, trackBulkRun(), false);
+        if (buildTrigger.getDebounceSeconds() <= 0 || buildTrigger.getIssueKey() == null) {
+            admit(task);
+            return;
+        }
+
+        final List<String> key = Arrays.asList(buildTrigger.getApplink().getId().get(), buildTrigger.getPlanKey(),
+                buildTrigger.getIssueKey());
+        // Once sendDebounced removed the previous trigger, this one waits for a debounce time of its own
+        final DispatchTask replacedTask = debouncedTasks.put(key, task);
+        if (replacedTask == null) {
+            scheduleDebounced(key, buildTrigger.getDebounceSeconds());
+            return;
+        }
+        LOG.debug("Replacing build trigger {} with the one of a later transition.", replacedTask.buildTrigger);
+        record(journal -> journal.done(replacedTask.id));
+        if (replacedTask.bulkRun != null) {
+            replacedTask.bulkRun.skipped();
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException, IOException {
+        scheduler.shutdownNow();
+        int unsent = 0;
+        // Not worth waiting for further transitions now, but neither for a slot in the queue
+        for (List<String> key : debouncedTasks.keySet()) {
+            final DispatchTask task = debouncedTasks.remove(key);
+            if (task != null && !tryAdmit(task)) {
+                unsent++;
+            }
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            unsent += executor.shutdownNow().size();
+        }
+        for (ApplinkLane lane : lanesByApplinkId.values()) {
+            unsent += lane.getWaiting();
+        }
+        if (unsent > 0) {
+            LOG.warn("{} build triggers were not sent to Bamboo before shutdown.", unsent);
+        }
+        synchronized (bulkRunLock) {
+            if (bulkRun != null) {
+                LOG.warn("Bulk run stopped by shutdown after {}", bulkRun);
+            }
+        }
+        if (journal != null) {
+            int pending = journal.getPendingEntries().size();
+            if (pending > 0) {
+                LOG.info("{} pending build triggers are sent after the next start.", pending);
+            }
+            journal.close();
+        }
+    }
+
+    /**
+     * Lets the given new trigger wait for a worker, if there is a free slot in the queue. Otherwise, the trigger is
+     * spilled to the outbox during a bulk run or while other triggers are spilled, or handled according to the overflow
+     * policy.
+     */
+    private void admit(DispatchTask task) {
+        if (tryAdmit(task)) {
+            return;
+        }
+
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queueSlots.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    complete(task, Outcome.FAILED);
+                    throw new RejectedExecutionException("Interrupted while waiting for the dispatcher queue", e);
+                }
+                task.holdsQueueSlot = true;
+                submit(task);
+                break;
+            case DROP:
+                drop(task);
+                break;
+            case CALLER_RUNS:
+            default:
+                try {
+                    getLane(task).run(task);
+                } catch (RejectedExecutionException e) {
+                    // Shutting down, the trigger stays in the outbox
+                    LOG.debug("Not sending build trigger {} before shutdown.", task.buildTrigger);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Lets the given new trigger wait for a worker without waiting for a free slot in the queue. As long as triggers
+     * are spilled to the outbox, the new trigger is spilled behind them, to keep the order of each issue.
+     *
+     * @return whether the trigger got a slot in the queue or was spilled to the outbox
+     */
+    private boolean tryAdmit(DispatchTask task) {
+        final TriggerJournal currentJournal = journal;
+        if (currentJournal != null) {
+            synchronized (spillLock) {
+                if (!currentJournal.hasSpilled()) {
+                    if (queueSlots.tryAcquire()) {
+                        task.holdsQueueSlot = true;
+                        submit(task);
+                        return true;
+                    }
+                    if (task.bulkRun == null) {
+                        return false;
+                    }
+                }
+                if (task.bulkRun != null) {
+                    bulkRunsBySpilledId.put(task.id, task.bulkRun);
+                }
+                currentJournal.spilled(task.id);
+            }
+            // A slot may have been released meanwhile
+            refill();
+            return true;
+        }
+
+        if (queueSlots.tryAcquire()) {
+            task.holdsQueueSlot = true;
+            submit(task);
+            return true;
+        }
+        return false;
+    }
+
+    private void drop(DispatchTask task) {
+        LOG.error("Dispatcher queue is full. Dropping build trigger {}!", task.buildTrigger);
+        record(journal -> journal.done(task.id));
+        complete(task, Outcome.FAILED);
+    }
+
+    /**
+     * Reads the spilled triggers from the outbox into the free slots of the queue, in the order they were spilled.
+     */
+    private void refill() {
+        final TriggerJournal currentJournal = journal;
+        if (currentJournal == null) {
+            return;
+        }
+        synchronized (spillLock) {
+            while (currentJournal.hasSpilled() && queueSlots.tryAcquire()) {
+                final TriggerJournal.Entry entry = currentJournal.nextSpilled();
+                if (entry == null) {
+                    queueSlots.release();
+                    continue;
+                }
+                // null, if the trigger was pending since the last start or spilled while there was no bulk run
+                final BulkRun spilledBulkRun = bulkRunsBySpilledId.remove(entry.getId());
+                final BuildTrigger buildTrigger = readBuildTrigger(entry);
+                if (buildTrigger == null) {
+                    queueSlots.release();
+                    if (spilledBulkRun != null) {
+                        spilledBulkRun.failed(entry.getPlanKey());
+                    }
+                    continue;
+                }
+                // A trigger pending since the last start may have been queued by Bamboo before Jira stopped
+                final DispatchTask task = new DispatchTask(entry.getId(), buildTrigger, 0, spilledBulkRun, entry.isSending());
+                task.holdsQueueSlot = true;
+                submit(task);
+            }
+        }
+    }
+
+    /**
+     * @return the trigger kept by the given outbox entry, or <code>null</code> if its application link was removed
+     */
+    private BuildTrigger readBuildTrigger(TriggerJournal.Entry entry) {
+        final ReadOnlyApplicationLink applink = applicationLinkService.getApplicationLink(new ApplicationId(entry.getApplinkId()));
+        if (applink == null || entry.getPlanKey() == null) {
+            LOG.error("No Application link found for ID {}. Not running plan {}!", entry.getApplinkId(), entry);
+            record(journal -> journal.done(entry.getId()));
+            return null;
+        }
+        return aBuildTrigger()
+                .forApplink(applink)
+                .forPlan(entry.getPlanKey())
+                .forIssue(entry.getIssueKey())
+                .withValuesByVariable(entry.getValuesByVariable()).build();
+    }
+
+    private ApplinkLane getLane(DispatchTask task) {
+        return lanesByApplinkId.computeIfAbsent(task.buildTrigger.getApplink().getId().get(), applinkId -> new ApplinkLane());
+    }
+
+    private void submit(DispatchTask task) {
+        try {
+            getLane(task).submit(task);
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the trigger stays in the outbox
+            LOG.debug("Not sending build trigger {} before shutdown.", task.buildTrigger);
+        }
+    }
+
+    private Outcome process(DispatchTask task) {
+        Outcome outcome = Outcome.FAILED;
+        try {
+            outcome = send(task);
+        } catch (RuntimeException e) {
+            LOG.error("Error running plan {}: {}", task.buildTrigger, e.getMessage());
+            LOG.error("Exception: ", e);
+            record(journal -> journal.done(task.id));
+        } finally {
+            complete(task, outcome);
+        }
+        return outcome;
+    }
+
+    private void complete(DispatchTask task, Outcome outcome) {
+        // A trigger keeps its slot until it is sent or given up, so the retries count against the queue as well
+        if (task.holdsQueueSlot && outcome != Outcome.RETRYING) {
+            task.holdsQueueSlot = false;
+            queueSlots.release();
+            refill();
+        }
+        if (task.bulkRun == null) {
+            return;
+        }
+        switch (outcome) {
+            case SENT:
+                task.bulkRun.sent();
+                break;
+            case SKIPPED:
+                task.bulkRun.skipped();
+                break;
+            case FAILED:
+                task.bulkRun.failed(task.buildTrigger.getPlanKey());
+                break;
+            case RETRYING:
+            default:
+                // Counted once it is sent or given up
+                break;
+        }
+    }
+
+    private Outcome send(DispatchTask task) {
+        final BuildTrigger buildTrigger = task.buildTrigger;
+        if (!buildTriggerDeduplicator.claim(buildTrigger)) {
+            LOG.info("Skipping build trigger {}, the plan was run with the same variables shortly before.", buildTrigger);
+            record(journal -> journal.done(task.id));
+            return Outcome.SKIPPED;
+        }
+
+        final String triggerId = task.id.toString();
+        // Without the outbox, the triggers are sent without their ID, so there is nothing to look up
+        if (task.unconfirmed && outboxFile != null) {
+            try {
+                if (bambooRestApi.isQueued(buildTrigger.getApplink(), buildTrigger.getPlanKey(), triggerId)) {
+                    LOG.info("Not sending build trigger {} again, Bamboo queued it already.", buildTrigger);
+                    record(journal -> journal.done(task.id));
+                    return Outcome.SENT;
+                }
+            } catch (CredentialsRequiredException | ResponseException e) {
+                buildTriggerDeduplicator.release(buildTrigger);
+                return retry(task, e, true);
+            }
+        }
+
+        record(journal -> journal.sending(task.id));
+        try {
+            bambooRestApi.queueBuild(buildTrigger.getApplink(), buildTrigger.getPlanKey(), buildTrigger.getValuesByVariable(),
+                    triggerId);
+            record(journal -> journal.done(task.id));
+            return Outcome.SENT;
+        } catch (ResponseStatusException e) {
+            buildTriggerDeduplicator.release(buildTrigger);
+            final int statusCode = e.getResponse().getStatusCode();
+            if (isRetryable(statusCode)) {
+                return retry(task, e, !isRejectedUnprocessed(statusCode));
+            }
+            // The plan does not exist anymore, or a variable is invalid, so sending it again does not help
+            LOG.error("Error running plan {}: {}", buildTrigger, e.getMessage());
+            record(journal -> journal.done(task.id));
+            return Outcome.FAILED;
+        } catch (CredentialsRequiredException e) {
+            // Thrown before the request is sent
+            buildTriggerDeduplicator.release(buildTrigger);
+            return retry(task, e, false);
+        } catch (ResponseException e) {
+            buildTriggerDeduplicator.release(buildTrigger);
+            return retry(task, e, !isUnsent(e));
+        }
+    }
+
+    /**
+     * @param unconfirmed whether Bamboo may have queued the trigger, so it is looked up before it is sent again
+     */
+    private Outcome retry(DispatchTask task, Exception cause, boolean unconfirmed) {
+        final int attempts = task.attempt + 1;
+        if (attempts >= pluginConfiguration.getOutboxMaxAttempts()) {
+            LOG.error("Error running plan {}: {}. Giving up after {} attempts.", task.buildTrigger, cause.getMessage(), attempts);
+            LOG.error("Exception: ", cause);
+            record(journal -> journal.done(task.id));
+            return Outcome.FAILED;
+        }
+
+        final long delayMillis = backoffMillis(task.attempt);
+        LOG.warn("Error running plan {}: {}. Trying again in {} seconds.", task.buildTrigger, cause.getMessage(),
+                TimeUnit.MILLISECONDS.toSeconds(delayMillis));
+        if (!unconfirmed) {
+            // Otherwise it stays sending, so it is looked up after a restart, too
+            record(journal -> journal.failed(task.id));
+        }
+        final DispatchTask retryTask = new DispatchTask(task.id, task.buildTrigger, attempts, task.bulkRun, unconfirmed);
+        // Takes over the slot of the failed attempt, if it held one. A trigger sent on the calling thread never did.
+        retryTask.holdsQueueSlot = task.holdsQueueSlot;
+        try {
+            scheduler.schedule(() -> submit(retryTask), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the trigger stays in the outbox
+            LOG.debug("Not sending build trigger {} again before shutdown.", task.buildTrigger);
+        }
+        return Outcome.RETRYING;
+    }
+
+    /**
+     * Doubles the delay with every attempt up to the maximum and picks a random delay between half of it and all of
+     * it, so the triggers queued up during an outage do not all hit Bamboo at once when it is back.
+     */
+    private long backoffMillis(int attempt) {
+        final long initialMillis = TimeUnit.SECONDS.toMillis(pluginConfiguration.getOutboxRetryInitialSeconds());
+        final long maxMillis = TimeUnit.SECONDS.toMillis(pluginConfiguration.getOutboxRetryMaxSeconds());
+        final long delayMillis = Math.min(maxMillis, initialMillis << Math.min(attempt, 30));
+        return delayMillis / 2 + ThreadLocalRandom.current().nextLong(delayMillis / 2 + 1);
+    }
+
+    private void scheduleDebounced(List<String> key, int debounceSeconds) {
+        try {
+            scheduler.schedule(() -> sendDebounced(key), debounceSeconds, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the trigger stays in the outbox
+            LOG.debug("Not sending build trigger for {} before shutdown.", key);
+        }
+    }
+
+    private void sendDebounced(List<String> key) {
+        final DispatchTask task = debouncedTasks.remove(key);
+        if (task != null) {
+            admitDebounced(task);
+        }
+    }
+
+    /**
+     * Counts the given debounced trigger against the queue like any other new trigger. As long as the queue is full,
+     * it is admitted again a little later instead of waiting for a slot or being sent on the scheduler thread, which
+     * would hold up the retries and the other debounced triggers.
+     */
+    private void admitDebounced(DispatchTask task) {
+        if (tryAdmit(task)) {
+            return;
+        }
+        if (overflowPolicy == OverflowPolicy.DROP) {
+            drop(task);
+            return;
+        }
+        try {
+            scheduler.schedule(() -> admitDebounced(task), DEBOUNCED_ADMIT_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the trigger stays in the outbox
+            LOG.debug("Not sending build trigger {} before shutdown.", task.buildTrigger);
+        }
+    }
+
+    /**
+     * Counts the new trigger against the rate of the current second and starts a bulk run, once the rate reaches the
+     * threshold.
+     *
+     * @return the bulk run the new trigger belongs to, or <code>null</code>
+     */
+    private BulkRun trackBulkRun() {
+        final long now = System.nanoTime();
+        synchronized (bulkRunLock) {
+            if (now - rateWindowStartedAt >= RATE_WINDOW_NANOS) {
+                rateWindowStartedAt = now;
+                rateWindowCount = 0;
+            }
+            rateWindowCount++;
+            if (bulkRun == null && rateWindowCount >= pluginConfiguration.getDispatcherBulkThreshold()) {
+                try {
+                    bulkRunMonitor = scheduler.scheduleWithFixedDelay(this::monitorBulkRun, 1, 1, TimeUnit.SECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Shutting down
+                    return null;
+                }
+                LOG.info("Received {} build triggers within a second, e. g. by a bulk transition. Reporting their " +
+                        "progress every {} seconds.", rateWindowCount, TimeUnit.NANOSECONDS.toSeconds(BULK_RUN_REPORT_NANOS));
+                bulkRun = new BulkRun();
+                bulkRunReportedAt = now;
+            }
+            if (bulkRun != null) {
+                bulkRun.dispatched();
+            }
+            return bulkRun;
+        }
+    }
+
+    private void monitorBulkRun() {
+        synchronized (bulkRunLock) {
+            if (bulkRun == null) {
+                return;
+            }
+            if (bulkRun.isFinished(BULK_RUN_IDLE_NANOS)) {
+                if (bulkRun.getFailed() > 0) {
+                    LOG.warn("Finished bulk run of {}", bulkRun);
+                } else {
+                    LOG.info("Finished bulk run of {}", bulkRun);
+                }
+                bulkRun = null;
+                bulkRunMonitor.cancel(false);
+                return;
+            }
+            final long now = System.nanoTime();
+            if (now - bulkRunReportedAt >= BULK_RUN_REPORT_NANOS) {
+                LOG.info("Bulk run in progress: {}", bulkRun);
+                bulkRunReportedAt = now;
+            }
+        }
+    }
+
+    private void record(JournalUpdate update) {
+        final TriggerJournal currentJournal = journal;
+        if (currentJournal == null) {
+            return;
+        }
+        try {
+            update.apply(currentJournal);
+        } catch (IOException e) {
+            LOG.error("Error while writing to the trigger outbox {}: {}", outboxFile, e.getMessage());
+            LOG.error("Exception: ", e);
+        }
+    }
+
+    private static boolean isRetryable(int statusCode) {
+        // Request timeout, too many requests and server errors are temporary
+        return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+
+    private static boolean isRejectedUnprocessed(int statusCode) {
+        // Too many requests and service unavailable are answered before the request is processed
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    /**
+     * @return whether the request failed before it reached Bamboo, so Bamboo cannot have queued the trigger
+     */
+    private static boolean isUnsent(ResponseException e) {
+        if (e instanceof ResponseConnectTimeoutException) {
+            return true;
+        }
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof NoRouteToHostException
+                    || cause instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @FunctionalInterface
+    private interface JournalUpdate {
+        void apply(TriggerJournal journal) throws IOException;
+    }
+
+    private enum Outcome {
+        SENT,
+        SKIPPED,
+        FAILED,
+        RETRYING
+    }
+
+    private static final class DispatchTask {
+
+        private final UUID id;
+        private final BuildTrigger buildTrigger;
+        private final int attempt;
+        // null, if the trigger was not part of a bulk run
+        private final BulkRun bulkRun;
+        // Bamboo may have queued the trigger already, so it is looked up before it is sent
+        private final boolean unconfirmed;
+        // The triggers of the same issue are sent in order. Triggers without an issue are not ordered.
+        private final String issue;
+        private volatile boolean holdsQueueSlot;
+
+        private DispatchTask(UUID id, BuildTrigger buildTrigger, int attempt, BulkRun bulkRun, boolean unconfirmed) {
+            this.id = id;
+            this.buildTrigger = buildTrigger;
+            this.attempt = attempt;
+            this.bulkRun = bulkRun;
+            this.unconfirmed = unconfirmed;
+            this.issue = buildTrigger.getIssueKey() != null ? buildTrigger.getIssueKey() : id.toString();
+        }
+    }
+
+    /**
+     * Sends the triggers of a single Bamboo instance with at most the configured number of workers. The other triggers
+     * wait in the lane instead of occupying further workers, so the triggers of other Bamboo instances are not held up.
+     * <br>
+     * The triggers wait in a queue per issue. An issue is ready as long as none of its triggers is being sent or
+     * retried, and the workers take the next trigger of the ready issues in turn.
+     */
+    private final class ApplinkLane {
+
+        private final int maxRunning = pluginConfiguration.getDispatcherRequestsPerApplink();
+        // guarded by this. Contains an issue's queue until its last trigger is done. The head of a queue is the trigger
+        // being sent or retried, or the next one to send.
+        private final Map<String, Deque<DispatchTask>> tasksByIssue = new HashMap<>();
+        private final Queue<String> readyIssues = new ArrayDeque<>();
+        private int running;
+
+        private void submit(DispatchTask task) {
+            synchronized (this) {
+                final Deque<DispatchTask> tasks = tasksByIssue.get(task.issue);
+                if (task.attempt > 0) {
+                    // The retry replaces the trigger that failed at the head of the queue
+                    tasks.pollFirst();
+                    tasks.addFirst(task);
+                    readyIssues.add(task.issue);
+                } else if (tasks != null) {
+                    tasks.add(task);
+                    return;
+                } else {
+                    tasksByIssue.put(task.issue, new ArrayDeque<>(Collections.singleton(task)));
+                    readyIssues.add(task.issue);
+                }
+            }
+            startWorker();
+        }
+
+        /**
+         * Sends the given new trigger on the calling thread, once fewer than the allowed number of triggers are being
+         * sent to the Bamboo instance. Unless another trigger of its issue is waiting or being sent: then it is queued
+         * behind that one, to keep the order.
+         */
+        private void run(DispatchTask task) {
+            try {
+                if (!startOnCallingThread(task)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                complete(task, Outcome.FAILED);
+                throw new RejectedExecutionException("Interrupted while waiting for the Bamboo instance", e);
+            }
+            try {
+                finish(task.issue, process(task));
+            } finally {
+                release();
+            }
+            startWorker();
+        }
+
+        /**
+         * @return whether the calling thread takes the place of a worker to send the given trigger. Otherwise, the
+         * trigger is queued behind the other triggers of its issue.
+         */
+        private synchronized boolean startOnCallingThread(DispatchTask task) throws InterruptedException {
+            while (running >= maxRunning && !tasksByIssue.containsKey(task.issue)) {
+                wait();
+            }
+            final Deque<DispatchTask> tasks = tasksByIssue.get(task.issue);
+            if (tasks != null) {
+                tasks.add(task);
+                return false;
+            }
+            tasksByIssue.put(task.issue, new ArrayDeque<>(Collections.singleton(task)));
+            running++;
+            return true;
+        }
+
+        private void startWorker() {
+            synchronized (this) {
+                if (running >= maxRunning || readyIssues.isEmpty()) {
+                    return;
+                }
+                running++;
+            }
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                release();
+                throw e;
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                final String issue;
+                final DispatchTask task;
+                synchronized (this) {
+                    // Interrupted by the shutdown, the waiting triggers stay in the outbox
+                    issue = Thread.currentThread().isInterrupted() ? null : readyIssues.poll();
+                    if (issue == null) {
+                        running--;
+                        // Wakes up the threads waiting to send on their own
+                        notifyAll();
+                        return;
+                    }
+                    task = tasksByIssue.get(issue).peekFirst();
+                }
+                finish(issue, process(task));
+            }
+        }
+
+        private synchronized void release() {
+            running--;
+            notifyAll();
+        }
+
+        private synchronized void finish(String issue, Outcome outcome) {
+            if (outcome == Outcome.RETRYING) {
+                // The issue stays busy until the retry is submitted
+                return;
+            }
+            final Deque<DispatchTask> tasks = tasksByIssue.get(issue);
+            tasks.pollFirst();
+            if (tasks.isEmpty()) {
+                tasksByIssue.remove(issue);
+            } else {
+                // Behind the other ready issues, so they get their turn first
+                readyIssues.add(issue);
+            }
+        }
+
+        private synchronized int getWaiting() {
+            return tasksByIssue.values().stream().mapToInt(Deque::size).sum();
+        }
+    }
+}
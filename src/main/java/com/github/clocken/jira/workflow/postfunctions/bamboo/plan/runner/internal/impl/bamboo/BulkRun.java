@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the outcomes of the build triggers dispatched during a burst of transitions, e. g. a bulk transition of many
+ * issues, so a single summary can be reported instead of a line per trigger.
+ */
+final class BulkRun {
+
+    private final long startedAt = System.nanoTime();
+    private final AtomicInteger dispatched = new AtomicInteger();
+    private final AtomicInteger sent = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final ConcurrentMap<String, AtomicInteger> failuresByPlan = new ConcurrentHashMap<>();
+    private volatile long lastDispatchedAt = startedAt;
+
+    void dispatched() {
+        dispatched.incrementAndGet();
+        lastDispatchedAt = System.nanoTime();
+    }
+
+    void sent() {
+        sent.incrementAndGet();
+    }
+
+    void skipped() {
+        skipped.incrementAndGet();
+    }
+
+    void failed(String planKey) {
+        failed.incrementAndGet();
+        failuresByPlan.computeIfAbsent(planKey, key -> new AtomicInteger()).incrementAndGet();
+    }
+
+    int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of triggers that are neither sent, skipped nor failed yet
+     */
+    int getPending() {
+        return dispatched.get() - sent.get() - skipped.get() - failed.get();
+    }
+
+    /**
+     * @return whether all triggers are done and no trigger was dispatched for the given time
+     */
+    boolean isFinished(long idleNanos) {
+        return getPending() == 0 && System.nanoTime() - lastDispatchedAt >= idleNanos;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder summary = new StringBuilder()
+                .append(dispatched.get()).append(" build triggers in ")
+                .append(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startedAt)).append(" seconds: ")
+                .append(sent.get()).append(" sent, ")
+                .append(skipped.get()).append(" skipped, ")
+                .append(failed.get()).append(" failed, ")
+                .append(getPending()).append(" pending");
+        if (!failuresByPlan.isEmpty()) {
+            final Map<String, Integer> failures = new TreeMap<>();
+            failuresByPlan.forEach((planKey, count) -> failures.put(planKey, count.get()));
+            summary.append(". Failures by plan: ").append(failures);
+        }
+        return summary.toString();
+    }
+}
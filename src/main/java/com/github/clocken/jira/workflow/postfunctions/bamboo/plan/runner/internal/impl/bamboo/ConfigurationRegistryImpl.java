@@ -0,0 +1,187 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.BambooPlanRunnerFactory;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.ConfigurationRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Named;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Identifies configurations by the SHA-256 hash of their arguments. The registry lives in memory only, the function
+ * descriptors keep their arguments, so workflows stay intact when they are exported, copied or imported. After a
+ * restart, each configuration is registered again by the first transition or save using it. For the same reason, the
+ * registry only keeps the most recently used configurations.<br>
+ * The ID stored in a descriptor is verified once per descriptor, as Jira replaces the descriptors of a workflow when it
+ * is saved instead of changing their arguments. Transitions then only look up the verified ID by the identity of the
+ * arguments.
+ */
+@Named
+public final class ConfigurationRegistryImpl implements ConfigurationRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationRegistryImpl.class);
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Map<String, Map<String, String>> configurationsById;
+    private final Map<DescriptorArgs, VerifiedId> verifiedIdsByArgs;
+
+    public ConfigurationRegistryImpl(PluginConfiguration pluginConfiguration) {
+        final int registrySize = pluginConfiguration.getConfigurationRegistrySize();
+        this.configurationsById = Collections.synchronizedMap(new LinkedHashMap<String, Map<String, String>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, String>> eldest) {
+                return size() > registrySize;
+            }
+        });
+        this.verifiedIdsByArgs = Collections.synchronizedMap(new LinkedHashMap<DescriptorArgs, VerifiedId>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<DescriptorArgs, VerifiedId> eldest) {
+                return size() > registrySize;
+            }
+        });
+    }
+
+    @Override
+    public String register(Map<?, ?> args) {
+        return registerConfiguration(getConfiguration(args));
+    }
+
+    @Override
+    public String getConfigurationId(Map<?, ?> args) {
+        final String storedId = (String) args.get(BambooPlanRunnerFactory.FIELD_CONFIGURATION_ID);
+        final DescriptorArgs descriptorArgs = new DescriptorArgs(args);
+        final VerifiedId verifiedId = verifiedIdsByArgs.get(descriptorArgs);
+        if (verifiedId != null && Objects.equals(verifiedId.storedId, storedId)) {
+            return verifiedId.configurationId;
+        }
+
+        final String configurationId = verifyConfigurationId(args, storedId);
+        verifiedIdsByArgs.put(descriptorArgs, new VerifiedId(storedId, configurationId));
+        return configurationId;
+    }
+
+    @Override
+    public Optional<Map<String, String>> getConfiguration(String configurationId) {
+        return Optional.ofNullable(configurationsById.get(configurationId));
+    }
+
+    private String verifyConfigurationId(Map<?, ?> args, String storedId) {
+        final Map<String, String> configuration = getConfiguration(args);
+        if (StringUtils.isNotEmpty(storedId) && configuration.equals(configurationsById.get(storedId))) {
+            return storedId;
+        }
+
+        final String configurationId = registerConfiguration(configuration);
+        if (StringUtils.isNotEmpty(storedId) && !configurationId.equals(storedId)) {
+            LOG.warn("The configuration {} of the post function does not match its arguments. Using the configuration {} of the arguments.",
+                    storedId, configurationId);
+        }
+        return configurationId;
+    }
+
+    private String registerConfiguration(Map<String, String> configuration) {
+        final String configurationId = hash(configuration);
+        configurationsById.putIfAbsent(configurationId, Collections.unmodifiableMap(configuration));
+        return configurationId;
+    }
+
+    private static Map<String, String> getConfiguration(Map<?, ?> args) {
+        final String selectedApplinkId = StringUtils.defaultString((String) args.get(BambooPlanRunnerFactory.FIELD_SELECTED_APPLINK));
+
+        // Jira adds arguments of its own to the descriptor, so only the ones making up the configuration are kept
+        final Map<String, String> configuration = new LinkedHashMap<>();
+        configuration.put(BambooPlanRunnerFactory.FIELD_SELECTED_APPLINK, selectedApplinkId);
+        for (String key : Arrays.asList(BambooPlanRunnerFactory.FIELD_SELECTED_PLAN_FOR + selectedApplinkId,
+                BambooPlanRunnerFactory.FIELD_VARIABLES_TO_USE,
+                BambooPlanRunnerFactory.FIELD_SELECTED_VALUE_TYPES_BY_VARIABLE,
+                BambooPlanRunnerFactory.FIELD_SELECTED_VALUES_BY_VARIABLE,
+                BambooPlanRunnerFactory.FIELD_DEBOUNCE_SECONDS)) {
+            configuration.put(key, StringUtils.defaultString((String) args.get(key)));
+        }
+        return configuration;
+    }
+
+    private static String hash(Map<String, String> configuration) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        // The values are prefixed with their lengths, so no two different configurations hash the same input
+        configuration.values().forEach(value -> {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+            digest.update((byte) ':');
+            digest.update(bytes);
+        });
+
+        final byte[] hash = digest.digest();
+        final char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * The arguments of a function descriptor, compared by identity, so looking them up does not compare their content.
+     */
+    private static final class DescriptorArgs {
+
+        private final Map<?, ?> args;
+
+        private DescriptorArgs(Map<?, ?> args) {
+            this.args = args;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof DescriptorArgs && ((DescriptorArgs) o).args == args;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(args);
+        }
+    }
+
+    /**
+     * The ID of the configuration a descriptor contains, together with the ID stored in the descriptor when it was
+     * verified.
+     */
+    private static final class VerifiedId {
+
+        private final String storedId;
+        private final String configurationId;
+
+        private VerifiedId(String storedId, String configurationId) {
+            this.storedId = storedId;
+            this.configurationId = configurationId;
+        }
+    }
+}
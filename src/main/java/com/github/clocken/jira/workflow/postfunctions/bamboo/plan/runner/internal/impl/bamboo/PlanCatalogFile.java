@@ -0,0 +1,187 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalogSnapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan.Builder.aPlan;
+
+/**
+ * Stores the plans of a {@link PlanCatalogSnapshot} in a compact binary file, so the catalog survives restarts.<br>
+ * The file starts with a magic number and a format version, followed by the plans of each Bamboo instance. Strings
+ * are written as UTF-8 prefixed with their length. Files of another format version are ignored.
+ */
+final class PlanCatalogFile {
+
+    private static final int MAGIC = 0x42505243; // "BPRC"
+    private static final int FORMAT_VERSION = 1;
+
+    private PlanCatalogFile() {
+        // only static methods
+    }
+
+    /**
+     * Writes the plans of the given snapshot. The file is replaced atomically, so readers never see a partially
+     * written catalog.
+     *
+     * @param file     the file to write
+     * @param snapshot the snapshot to persist
+     * @throws IOException if the file could not be written
+     */
+    static void write(Path file, PlanCatalogSnapshot snapshot) throws IOException {
+        Files.createDirectories(file.getParent());
+        final Path temporaryFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream fileOutput = Files.newOutputStream(temporaryFile);
+                 DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput))) {
+                output.writeInt(MAGIC);
+                output.writeInt(FORMAT_VERSION);
+                output.writeInt(snapshot.getEntriesByApplink().size());
+                for (Map.Entry<ApplicationId, PlanCatalogSnapshot.Entry> entry : snapshot.getEntriesByApplink().entrySet()) {
+                    writeString(output, entry.getKey().get());
+                    output.writeLong(entry.getValue().getLoadedAt());
+                    writePlans(output, entry.getValue().getPlans());
+                }
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Reads a catalog written by {@link #write(Path, PlanCatalogSnapshot)}. The file is read at once into a heap
+     * buffer. It is not mapped into memory, as a mapping stays alive until it is garbage collected and keeps the file
+     * from being replaced on Windows.
+     *
+     * @param file the file to read
+     * @return the plans in a new snapshot, or an empty snapshot if the file does not exist or has another format
+     * version
+     * @throws IOException if the file could not be read or is corrupt
+     */
+    static PlanCatalogSnapshot read(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return PlanCatalogSnapshot.empty();
+        }
+        try {
+            final ByteBuffer input = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (input.remaining() < 8 || input.getInt() != MAGIC || input.getInt() != FORMAT_VERSION) {
+                return PlanCatalogSnapshot.empty();
+            }
+
+            PlanCatalogSnapshot snapshot = PlanCatalogSnapshot.empty();
+            final int applinkCount = input.getInt();
+            for (int i = 0; i < applinkCount; i++) {
+                final ApplicationId applicationId = new ApplicationId(readRequiredString(input));
+                final long loadedAt = input.getLong();
+                snapshot = snapshot.withPlans(applicationId, readPlans(input), loadedAt);
+            }
+            return snapshot;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt plan catalog file " + file, e);
+        }
+    }
+
+    private static void writePlans(DataOutputStream output, List<Plan> plans) throws IOException {
+        output.writeInt(plans.size());
+        for (Plan plan : plans) {
+            writeString(output, plan.getKey());
+            writeString(output, plan.getName());
+            writeString(output, plan.getDescription());
+            writeString(output, plan.getLink() == null ? null : plan.getLink().toString());
+            output.writeBoolean(plan.isEnabled());
+            output.writeInt(plan.getVariables().size());
+            for (String variable : plan.getVariables()) {
+                writeString(output, variable);
+            }
+        }
+    }
+
+    private static List<Plan> readPlans(ByteBuffer input) throws MalformedURLException {
+        final int planCount = input.getInt();
+        final List<Plan> plans = new ArrayList<>(Math.min(planCount, input.remaining()));
+        for (int i = 0; i < planCount; i++) {
+            final Plan.Builder plan = aPlan()
+                    .withKey(readRequiredString(input))
+                    .withName(readString(input))
+                    .withDescription(readString(input));
+            final String link = readString(input);
+            plan.withLink(link == null ? null : new URL(link))
+                    .thatIsEnabled(input.get() != 0);
+
+            final int variableCount = input.getInt();
+            final List<String> variables = new ArrayList<>(Math.min(variableCount, input.remaining()));
+            for (int j = 0; j < variableCount; j++) {
+                variables.add(readRequiredString(input));
+            }
+            plans.add(plan.withVariables(variables).build());
+        }
+        return plans;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the string is missing, which only happens in a corrupt file
+     */
+    private static String readRequiredString(ByteBuffer input) {
+        final String value = readString(input);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing value at position " + input.position());
+        }
+        return value;
+    }
+
+    private static String readString(ByteBuffer input) {
+        final int length = input.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > input.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final byte[] bytes = new byte[length];
+        input.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.CredentialsRequiredException;
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+import com.atlassian.applinks.api.ReadOnlyApplicationLinkService;
+import com.atlassian.applinks.api.event.ApplicationLinkDeletedEvent;
+import com.atlassian.applinks.api.event.ApplicationLinkDetailsChangedEvent;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.config.util.JiraHome;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.atlassian.sal.api.net.ResponseException;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.NamedThreadFactory;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BambooRestApi;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalog;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalogSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.inject.Named;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Named
+public final class PlanCatalogImpl implements PlanCatalog, InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PlanCatalogImpl.class);
+    private static final String CATALOG_FILE = "caches/bamboo-plan-runner/plan-catalog.bin";
+    private static final long STORE_SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    private final ReadOnlyApplicationLinkService applicationLinkService;
+    private final EventPublisher eventPublisher;
+    private final BambooRestApi bambooRestApi;
+    private final PluginConfiguration pluginConfiguration;
+    private final ExecutorService loaderExecutor;
+    private final AtomicReference<PlanCatalogSnapshot> snapshot = new AtomicReference<>(PlanCatalogSnapshot.empty());
+    private final Map<ApplicationId, CompletableFuture<List<Plan>>> loadsInProgress = new ConcurrentHashMap<>();
+    private final Path catalogFile;
+    private final ExecutorService storeExecutor;
+    private final AtomicBoolean storePending = new AtomicBoolean();
+    // The version of the snapshot last written or restored
+    private final AtomicLong storedVersion = new AtomicLong(PlanCatalogSnapshot.empty().getVersion());
+
+    public PlanCatalogImpl(@ComponentImport ReadOnlyApplicationLinkService applicationLinkService,
+                           @ComponentImport EventPublisher eventPublisher,
+                           @ComponentImport JiraHome jiraHome,
+                           BambooRestApi bambooRestApi,
+                           PluginConfiguration pluginConfiguration) {
+        this.applicationLinkService = applicationLinkService;
+        this.eventPublisher = eventPublisher;
+        this.bambooRestApi = bambooRestApi;
+        this.pluginConfiguration = pluginConfiguration;
+        this.loaderExecutor = Executors.newFixedThreadPool(pluginConfiguration.getCatalogLoaderThreads(),
+                new NamedThreadFactory("catalog-loader"));
+        this.catalogFile = pluginConfiguration.isCatalogPersistenceEnabled()
+                ? jiraHome.getLocalHome().toPath().resolve(CATALOG_FILE)
+                : null;
+        this.storeExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("catalog-store"));
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        eventPublisher.register(this);
+        restore();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        eventPublisher.unregister(this);
+        loaderExecutor.shutdownNow();
+        // Let a pending write finish, so the next start sees the latest plans
+        storeExecutor.shutdown();
+        if (!storeExecutor.awaitTermination(STORE_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            LOG.warn("The plan catalog was not written to {} before shutdown.", catalogFile);
+        }
+    }
+
+    @Override
+    public Map<ApplicationId, List<Plan>> getPlansByApplink(Collection<ReadOnlyApplicationLink> bambooApplinks) {
+        final long now = System.currentTimeMillis();
+        final long ttlMillis = TimeUnit.SECONDS.toMillis(pluginConfiguration.getCatalogTtlSeconds());
+        final long maxStaleMillis = ttlMillis + TimeUnit.SECONDS.toMillis(pluginConfiguration.getCatalogMaxStaleSeconds());
+
+        // Start all loads first, so missing instances are queried concurrently
+        final PlanCatalogSnapshot currentSnapshot = snapshot.get();
+        final Map<ApplicationId, Future<List<Plan>>> loadsToWaitFor = new HashMap<>();
+        bambooApplinks.forEach(bambooApplink -> {
+            PlanCatalogSnapshot.Entry entry = currentSnapshot.getEntry(bambooApplink.getId()).orElse(null);
+            if (entry == null || entry.isOlderThan(maxStaleMillis, now)) {
+                loadsToWaitFor.put(bambooApplink.getId(), load(bambooApplink));
+            } else if (entry.isOlderThan(ttlMillis, now)) {
+                LOG.debug("Plans of {} are outdated. Refreshing them in the background.", bambooApplink.getName());
+                load(bambooApplink);
+            }
+        });
+
+        final long deadline = System.nanoTime()
+                + TimeUnit.SECONDS.toNanos(pluginConfiguration.getCatalogLoadTimeoutSeconds());
+        final Map<ApplicationId, List<Plan>> plansByApplink = new LinkedHashMap<>();
+        bambooApplinks.forEach(bambooApplink -> {
+            Future<List<Plan>> plans = loadsToWaitFor.get(bambooApplink.getId());
+            if (plans == null) {
+                currentSnapshot.getPlans(bambooApplink.getId())
+                        .ifPresent(cachedPlans -> plansByApplink.put(bambooApplink.getId(), cachedPlans));
+                return;
+            }
+            try {
+                plansByApplink.put(bambooApplink.getId(),
+                        plans.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (ExecutionException e) {
+                LOG.error("Error while fetching Bamboo plans from {}: {}", bambooApplink.getName(), e.getCause().getMessage());
+                LOG.error("Exception: ", e.getCause());
+            } catch (TimeoutException e) {
+                LOG.error("Timed out while fetching Bamboo plans from {}", bambooApplink.getName());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        return Collections.unmodifiableMap(plansByApplink);
+    }
+
+    @Override
+    public Optional<List<Plan>> getCachedPlans(ApplicationId applicationId) {
+        return snapshot.get().getPlans(applicationId);
+    }
+
+    @Override
+    public CompletableFuture<List<Plan>> refresh(ReadOnlyApplicationLink bambooApplink) {
+        return load(bambooApplink);
+    }
+
+    @Override
+    public PlanCatalogSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    @Override
+    public void invalidate(ApplicationId applicationId) {
+        LOG.debug("Invalidating plans of application link {}", applicationId);
+        snapshot.updateAndGet(currentSnapshot -> currentSnapshot.withoutPlans(applicationId));
+        scheduleStore();
+    }
+
+    @Override
+    public void invalidateAll() {
+        snapshot.updateAndGet(PlanCatalogSnapshot::withoutAnyPlans);
+        scheduleStore();
+    }
+
+    @EventListener
+    public void onApplicationLinkDeleted(ApplicationLinkDeletedEvent event) {
+        invalidate(event.getApplicationId());
+        bambooRestApi.forgetResponses(event.getApplicationId());
+    }
+
+    @EventListener
+    public void onApplicationLinkDetailsChanged(ApplicationLinkDetailsChangedEvent event) {
+        invalidate(event.getApplicationId());
+        bambooRestApi.forgetResponses(event.getApplicationId());
+    }
+
+    /**
+     * Starts loading the plans of the given Bamboo instance in the background, unless a load is already in progress.
+     *
+     * @return the load in progress
+     */
+    private CompletableFuture<List<Plan>> load(ReadOnlyApplicationLink bambooApplink) {
+        final CompletableFuture<List<Plan>> load = new CompletableFuture<>();
+        final CompletableFuture<List<Plan>> loadInProgress = loadsInProgress.putIfAbsent(bambooApplink.getId(), load);
+        if (loadInProgress != null) {
+            return loadInProgress;
+        }
+
+        try {
+            loaderExecutor.execute(() -> {
+                // Leave the map before completing, so nobody picks up a load that has already finished
+                try {
+                    List<Plan> plans = loadAndCache(bambooApplink);
+                    loadsInProgress.remove(bambooApplink.getId(), load);
+                    load.complete(plans);
+                } catch (CredentialsRequiredException | ResponseException | RuntimeException e) {
+                    LOG.warn("Error while refreshing Bamboo plans from {}: {}", bambooApplink.getName(), e.getMessage());
+                    loadsInProgress.remove(bambooApplink.getId(), load);
+                    load.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loadsInProgress.remove(bambooApplink.getId(), load);
+            load.completeExceptionally(e);
+        }
+        return load;
+    }
+
+    private List<Plan> loadAndCache(ReadOnlyApplicationLink bambooApplink) throws CredentialsRequiredException, ResponseException {
+        final List<Plan> plans = bambooRestApi.plans(bambooApplink);
+        final long loadedAt = System.currentTimeMillis();
+        snapshot.updateAndGet(currentSnapshot ->
+                // Don't resurrect an application link that got removed while its plans were loading
+                applicationLinkService.getApplicationLink(bambooApplink.getId()) == null
+                        ? currentSnapshot
+                        : currentSnapshot.withPlans(bambooApplink.getId(), plans, loadedAt));
+        scheduleStore();
+        return plans;
+    }
+
+    /**
+     * Puts the plans persisted by the last run back into the catalog, so editors can be served right away. Plans
+     * older than the TTL are restored as outdated, so they are shown while they get refreshed in the background.
+     */
+    private void restore() {
+        if (catalogFile == null) {
+            return;
+        }
+        final PlanCatalogSnapshot persistedSnapshot;
+        try {
+            persistedSnapshot = PlanCatalogFile.read(catalogFile);
+        } catch (IOException e) {
+            LOG.warn("Ignoring the persisted plan catalog {}: {}", catalogFile, e.getMessage());
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long ttlMillis = TimeUnit.SECONDS.toMillis(pluginConfiguration.getCatalogTtlSeconds());
+        persistedSnapshot.getEntriesByApplink().forEach((applicationId, entry) -> {
+            if (applicationLinkService.getApplicationLink(applicationId) == null) {
+                return;
+            }
+            final long loadedAt = entry.isOlderThan(ttlMillis, now) ? now - ttlMillis - 1 : entry.getLoadedAt();
+            // Plans loaded in the meantime are newer than the persisted ones
+            snapshot.updateAndGet(currentSnapshot -> currentSnapshot.getEntry(applicationId).isPresent()
+                    ? currentSnapshot
+                    : currentSnapshot.withPlans(applicationId, entry.getPlans(), loadedAt));
+        });
+        storedVersion.set(snapshot.get().getVersion());
+        LOG.info("Restored the plans of {} Bamboo instances from {}", snapshot.get().getEntriesByApplink().size(), catalogFile);
+    }
+
+    /**
+     * Writes the catalog to disk in the background, unless its version did not change since it was last written, e. g.
+     * as a refresh found the same plans. Changes arriving while a write is pending are covered by that write.
+     */
+    private void scheduleStore() {
+        if (catalogFile == null || snapshot.get().getVersion() == storedVersion.get()
+                || !storePending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            storeExecutor.execute(() -> {
+                storePending.set(false);
+                final PlanCatalogSnapshot snapshotToStore = snapshot.get();
+                try {
+                    PlanCatalogFile.write(catalogFile, snapshotToStore);
+                    storedVersion.set(snapshotToStore.getVersion());
+                } catch (IOException e) {
+                    LOG.warn("Error while writing the plan catalog to {}: {}", catalogFile, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            storePending.set(false);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+import com.atlassian.applinks.api.ReadOnlyApplicationLinkService;
+import com.atlassian.applinks.api.application.bamboo.BambooApplicationType;
+import com.atlassian.applinks.api.event.ApplicationLinkAddedEvent;
+import com.atlassian.applinks.api.event.ApplicationLinkDeletedEvent;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.NamedThreadFactory;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.CatalogRefreshStatus;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalog;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalogWarmer;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.inject.Named;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.CatalogRefreshStatus.Builder.aCatalogRefreshStatus;
+
+@Named
+public final class PlanCatalogWarmerImpl implements PlanCatalogWarmer, InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PlanCatalogWarmerImpl.class);
+    private static final long MIN_REFRESH_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private final ReadOnlyApplicationLinkService applicationLinkService;
+    private final EventPublisher eventPublisher;
+    private final PlanCatalog planCatalog;
+    private final PluginConfiguration pluginConfiguration;
+    private final ScheduledExecutorService scheduler;
+    private final Map<ApplicationId, ScheduledRefresh> scheduledRefreshes = new ConcurrentHashMap<>();
+
+    public PlanCatalogWarmerImpl(@ComponentImport ReadOnlyApplicationLinkService applicationLinkService,
+                                 @ComponentImport EventPublisher eventPublisher,
+                                 PlanCatalog planCatalog,
+                                 PluginConfiguration pluginConfiguration) {
+        this.applicationLinkService = applicationLinkService;
+        this.eventPublisher = eventPublisher;
+        this.planCatalog = planCatalog;
+        this.pluginConfiguration = pluginConfiguration;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("catalog-warmer"));
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!pluginConfiguration.isCatalogWarmerEnabled()) {
+            LOG.info("The plan catalog warmer is disabled. Plans are loaded when a workflow editor needs them.");
+            return;
+        }
+        eventPublisher.register(this);
+        // Also picks up application links that were not available yet while Jira was starting
+        scheduler.scheduleWithFixedDelay(this::scheduleApplinks, 0L,
+                pluginConfiguration.getCatalogRefreshIntervalSeconds(), TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        eventPublisher.unregister(this);
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public List<CatalogRefreshStatus> getStatus() {
+        return scheduledRefreshes.values().stream()
+                .map(ScheduledRefresh::toStatus)
+                .sorted((status1, status2) -> StringUtils.compare(status1.getApplinkName(), status2.getApplinkName()))
+                .collect(Collectors.toList());
+    }
+
+    @EventListener
+    public void onApplicationLinkAdded(ApplicationLinkAddedEvent event) {
+        scheduleApplinks();
+    }
+
+    @EventListener
+    public void onApplicationLinkDeleted(ApplicationLinkDeletedEvent event) {
+        scheduleApplinks();
+    }
+
+    /**
+     * Starts refreshing new Bamboo instances and stops refreshing removed ones.
+     */
+    private synchronized void scheduleApplinks() {
+        final Set<ApplicationId> bambooApplinkIds = new HashSet<>();
+        try {
+            for (ReadOnlyApplicationLink bambooApplink : applicationLinkService.getApplicationLinks(BambooApplicationType.class)) {
+                bambooApplinkIds.add(bambooApplink.getId());
+                scheduledRefreshes.computeIfAbsent(bambooApplink.getId(), applicationId -> {
+                    ScheduledRefresh scheduledRefresh = new ScheduledRefresh(applicationId, bambooApplink.getName());
+                    // Spread the initial load of all instances, too
+                    scheduledRefresh.scheduleIn(randomMillis(0L, jitterMillis()));
+                    return scheduledRefresh;
+                });
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Error while looking up the Bamboo application links: {}", e.getMessage());
+            return;
+        }
+
+        scheduledRefreshes.entrySet().removeIf(scheduledRefresh -> {
+            if (bambooApplinkIds.contains(scheduledRefresh.getKey())) {
+                return false;
+            }
+            scheduledRefresh.getValue().cancel();
+            return true;
+        });
+    }
+
+    private long nextRefreshDelayMillis() {
+        final long intervalMillis = TimeUnit.SECONDS.toMillis(pluginConfiguration.getCatalogRefreshIntervalSeconds());
+        return Math.max(MIN_REFRESH_DELAY_MILLIS,
+                intervalMillis + randomMillis(-jitterMillis(), jitterMillis()));
+    }
+
+    private long jitterMillis() {
+        return TimeUnit.SECONDS.toMillis(pluginConfiguration.getCatalogRefreshJitterSeconds());
+    }
+
+    private static long randomMillis(long from, long to) {
+        return ThreadLocalRandom.current().nextLong(from, to + 1);
+    }
+
+    /**
+     * The refresh chain of one Bamboo instance. Every refresh schedules the next one once it is done, so there is
+     * never more than one refresh per instance in progress.
+     */
+    private final class ScheduledRefresh implements Runnable {
+
+        private final ApplicationId applicationId;
+        private volatile String applinkName;
+        private volatile long nextRefresh;
+        private volatile long lastSuccess;
+        private volatile long lastFailure;
+        private volatile String lastError;
+        private volatile int planCount;
+        private volatile ScheduledFuture<?> future;
+        private volatile boolean cancelled;
+
+        private ScheduledRefresh(ApplicationId applicationId, String applinkName) {
+            this.applicationId = applicationId;
+            this.applinkName = applinkName;
+        }
+
+        @Override
+        public void run() {
+            final ReadOnlyApplicationLink bambooApplink = applicationLinkService.getApplicationLink(applicationId);
+            if (bambooApplink == null || cancelled) {
+                return;
+            }
+            applinkName = bambooApplink.getName();
+            nextRefresh = 0L;
+
+            planCatalog.refresh(bambooApplink).whenComplete((plans, error) -> {
+                if (error == null) {
+                    lastSuccess = System.currentTimeMillis();
+                    planCount = plans.size();
+                    LOG.debug("Refreshed {} plans of {}", planCount, applinkName);
+                } else {
+                    final Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause()
+                            : error;
+                    lastFailure = System.currentTimeMillis();
+                    lastError = cause.getMessage();
+                    LOG.warn("Error while refreshing Bamboo plans from {} in the background: {}", applinkName, lastError);
+                }
+                scheduleIn(nextRefreshDelayMillis());
+            });
+        }
+
+        private void scheduleIn(long delayMillis) {
+            if (cancelled) {
+                return;
+            }
+            nextRefresh = System.currentTimeMillis() + delayMillis;
+            try {
+                future = scheduler.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The plugin is being disabled
+                nextRefresh = 0L;
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            final ScheduledFuture<?> scheduledFuture = future;
+            if (scheduledFuture != null) {
+                scheduledFuture.cancel(false);
+            }
+        }
+
+        private CatalogRefreshStatus toStatus() {
+            return aCatalogRefreshStatus()
+                    .forApplink(applicationId, applinkName)
+                    .withNextRefresh(nextRefresh)
+                    .withLastSuccess(lastSuccess)
+                    .withLastFailure(lastFailure, lastError)
+                    .withPlanCount(planCount)
+                    .build();
+        }
+    }
+}
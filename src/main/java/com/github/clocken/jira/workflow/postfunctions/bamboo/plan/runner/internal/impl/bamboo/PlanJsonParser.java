@@ -0,0 +1,299 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan;
+import org.apache.commons.lang3.StringUtils;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan.Builder.aPlan;
+
+/**
+ * Reads plans straight from the response stream of Bamboo's plan API, and the builds of a plan from its result API.
+ * Only the fields the plugin needs are extracted, everything else is skipped without being materialized.
+ */
+final class PlanJsonParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private PlanJsonParser() {
+        // only static methods
+    }
+
+    /**
+     * Parses one page of <code>/rest/api/latest/plan</code>. Plans are parsed with their variables, if the response
+     * was requested with an expanded variable context.
+     *
+     * @param responseBody the response body
+     * @return the plans of the page and the total size of the plan list
+     * @throws IOException if the response body is no valid plan list
+     */
+    static PlanListPage parsePlanList(InputStream responseBody) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createJsonParser(responseBody)) {
+            final PlanListPage page = new PlanListPage();
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+                if ("plans".equals(fieldName)) {
+                    parsePlans(parser, page);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Parses the response of <code>/rest/api/latest/plan/{planKey}</code>.
+     *
+     * @param responseBody the response body
+     * @return the plan
+     * @throws IOException if the response body is no valid plan
+     */
+    static Plan parsePlan(InputStream responseBody) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createJsonParser(responseBody)) {
+            return parsePlan(parser, parser.nextToken());
+        }
+    }
+
+    /**
+     * Parses the response of <code>/rest/api/latest/result/{planKey}</code>, requested with expanded variables.
+     *
+     * @param responseBody the response body
+     * @param variable     the key of the variable to get the values of
+     * @return the values the builds of the plan were run with for the variable, in the order of the builds
+     * @throws IOException if the response body is no valid result list
+     */
+    static List<String> parseResultVariableValues(InputStream responseBody, String variable) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createJsonParser(responseBody)) {
+            final List<String> values = new ArrayList<>();
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("results".equals(fieldName)) {
+                    expect(parser, token, JsonToken.START_OBJECT);
+                    parseResults(parser, variable, values);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return values;
+        }
+    }
+
+    private static void parseResults(JsonParser parser, String variable, List<String> values) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("result".equals(fieldName)) {
+                expect(parser, token, JsonToken.START_ARRAY);
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    expect(parser, token, JsonToken.START_OBJECT);
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String resultFieldName = parser.getCurrentName();
+                        token = parser.nextToken();
+                        if ("variables".equals(resultFieldName) && token == JsonToken.START_OBJECT) {
+                            parseVariableValue(parser, variable, values);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void parseVariableValue(JsonParser parser, String variable, List<String> values) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("variable".equals(fieldName) && token == JsonToken.START_ARRAY) {
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    expect(parser, token, JsonToken.START_OBJECT);
+                    String key = null;
+                    String value = null;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String variableFieldName = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("key".equals(variableFieldName) || "name".equals(variableFieldName)) {
+                            key = parser.getText();
+                        } else if ("value".equals(variableFieldName)) {
+                            value = parser.getText();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    if (variable.equals(key) && value != null) {
+                        values.add(value);
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void parsePlans(JsonParser parser, PlanListPage page) throws IOException {
+        expect(parser, parser.getCurrentToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("size".equals(fieldName)) {
+                page.totalSize = parser.getValueAsInt(0);
+            } else if ("plan".equals(fieldName)) {
+                expect(parser, token, JsonToken.START_ARRAY);
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    page.plans.add(parsePlan(parser, token));
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static Plan parsePlan(JsonParser parser, JsonToken token) throws IOException {
+        expect(parser, token, JsonToken.START_OBJECT);
+        String key = null;
+        String name = null;
+        Boolean enabled = null;
+        // This is an optional parameter
+        String description = StringUtils.EMPTY;
+        URL link = null;
+        List<String> variables = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            token = parser.nextToken();
+            switch (fieldName) {
+                case "key":
+                    key = parser.getText();
+                    break;
+                case "shortName":
+                    name = parser.getText();
+                    break;
+                case "enabled":
+                    enabled = parser.getValueAsBoolean();
+                    break;
+                case "description":
+                    description = token == JsonToken.VALUE_NULL ? StringUtils.EMPTY : parser.getText();
+                    break;
+                case "link":
+                    link = parseLink(parser, token);
+                    break;
+                case "variableContext":
+                    parseVariables(parser, token, variables);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        return aPlan()
+                .withKey(require(parser, key, "key"))
+                .withName(require(parser, name, "shortName"))
+                .thatIsEnabled(require(parser, enabled, "enabled"))
+                .withDescription(description)
+                .withLink(require(parser, link, "link"))
+                .withVariables(variables).build();
+    }
+
+    private static URL parseLink(JsonParser parser, JsonToken token) throws IOException {
+        expect(parser, token, JsonToken.START_OBJECT);
+        URL link = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            if ("href".equals(fieldName)) {
+                link = new URL(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return link;
+    }
+
+    private static void parseVariables(JsonParser parser, JsonToken token, List<String> variables) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            token = parser.nextToken();
+            if ("variable".equals(fieldName) && token == JsonToken.START_ARRAY) {
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    variables.add(require(parser, parseVariableKey(parser, token), "variable key"));
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static String parseVariableKey(JsonParser parser, JsonToken token) throws IOException {
+        expect(parser, token, JsonToken.START_OBJECT);
+        String key = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            if ("key".equals(fieldName)) {
+                key = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return key;
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(MessageFormat.format("Expected {0} but found {1}", expected, actual),
+                    parser.getCurrentLocation());
+        }
+    }
+
+    private static <T> T require(JsonParser parser, T value, String fieldName) throws JsonParseException {
+        if (value == null) {
+            throw new JsonParseException("Missing " + fieldName, parser.getCurrentLocation());
+        }
+        return value;
+    }
+
+    /**
+     * One page of Bamboo's plan list.
+     */
+    static final class PlanListPage {
+
+        final List<Plan> plans = new ArrayList<>();
+        int totalSize;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalog;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalogSnapshot;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanSearchIndex;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.inject.Named;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps one prefix index per Bamboo instance. An index is rebuilt on the first search after the plans of its
+ * instance changed in the {@link PlanCatalog}; the indexes of other instances are left alone.
+ */
+@Named
+public final class PlanSearchIndexImpl implements PlanSearchIndex {
+
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int WEIGHT_DESCRIPTION = 1;
+    private static final int WEIGHT_NAME = 2;
+    private static final int WEIGHT_PROJECT_KEY = 3;
+    private static final int WEIGHT_KEY = 4;
+    private static final int BONUS_EXACT_MATCH = 4;
+
+    private final PlanCatalog planCatalog;
+    private final Map<ApplicationId, Index> indexesByApplink = new ConcurrentHashMap<>();
+
+    public PlanSearchIndexImpl(PlanCatalog planCatalog) {
+        this.planCatalog = planCatalog;
+    }
+
+    @Override
+    public List<Plan> search(ReadOnlyApplicationLink bambooApplink, String query, int limit) {
+        return indexOf(bambooApplink).search(query, limit);
+    }
+
+    private Index indexOf(ReadOnlyApplicationLink bambooApplink) {
+        final ApplicationId applicationId = bambooApplink.getId();
+        // Loads the plans, if they are not cached yet
+        final List<Plan> plans = planCatalog.getPlansByApplink(Collections.singletonList(bambooApplink))
+                .getOrDefault(applicationId, Collections.emptyList());
+        final Optional<PlanCatalogSnapshot.Entry> entry = planCatalog.getSnapshot().getEntry(applicationId);
+        if (!entry.isPresent()) {
+            indexesByApplink.remove(applicationId);
+            return new Index(plans, -1L);
+        }
+
+        final long version = entry.get().getVersion();
+        return indexesByApplink.compute(applicationId, (id, index) ->
+                index != null && index.version == version ? index : new Index(entry.get().getPlans(), version));
+    }
+
+    private static List<String> words(String text) {
+        final List<String> words = new ArrayList<>();
+        for (String word : WORD_SEPARATOR.split(StringUtils.defaultString(text).toLowerCase(Locale.ROOT))) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Maps every lower case word of the indexed plans to the plans it occurs in. Being sorted, all words starting
+     * with a prefix are found with a single range lookup.
+     */
+    private static final class Index {
+
+        private final List<Plan> plans;
+        private final long version;
+        private final NavigableMap<String, List<Posting>> postingsByWord = new TreeMap<>();
+
+        private Index(List<Plan> plans, long version) {
+            this.plans = plans;
+            this.version = version;
+            for (int i = 0; i < plans.size(); i++) {
+                final Plan plan = plans.get(i);
+                final String key = StringUtils.defaultString(plan.getKey()).toLowerCase(Locale.ROOT);
+                add(key, i, WEIGHT_KEY);
+                add(StringUtils.substringBefore(key, "-"), i, WEIGHT_PROJECT_KEY);
+                add(StringUtils.substringAfter(key, "-"), i, WEIGHT_KEY);
+                for (String word : words(plan.getName())) {
+                    add(word, i, WEIGHT_NAME);
+                }
+                for (String word : words(plan.getDescription())) {
+                    add(word, i, WEIGHT_DESCRIPTION);
+                }
+            }
+        }
+
+        private void add(String word, int planIndex, int weight) {
+            if (word.isEmpty()) {
+                return;
+            }
+            final List<Posting> postings = postingsByWord.computeIfAbsent(word, w -> new ArrayList<>(1));
+            final Posting last = postings.isEmpty() ? null : postings.get(postings.size() - 1);
+            if (last != null && last.planIndex == planIndex) {
+                last.weight = Math.max(last.weight, weight);
+            } else {
+                postings.add(new Posting(planIndex, weight));
+            }
+        }
+
+        private List<Plan> search(String query, int limit) {
+            if (limit <= 0) {
+                return Collections.emptyList();
+            }
+            final String trimmedQuery = StringUtils.trimToEmpty(query).toLowerCase(Locale.ROOT);
+            if (trimmedQuery.isEmpty()) {
+                return plans.subList(0, Math.min(limit, plans.size()));
+            }
+
+            // Plan keys contain a dash, so the whole query is tried as a key as well
+            Map<Integer, Integer> scoresByPlan = scores(trimmedQuery);
+            final List<String> terms = words(trimmedQuery);
+            if (scoresByPlan.isEmpty() || terms.size() > 1) {
+                Map<Integer, Integer> termScoresByPlan = null;
+                for (String term : terms) {
+                    termScoresByPlan = termScoresByPlan == null
+                            ? scores(term)
+                            : intersect(termScoresByPlan, scores(term));
+                }
+                if (termScoresByPlan != null) {
+                    termScoresByPlan.forEach((planIndex, score) -> scoresByPlan.merge(planIndex, score, Math::max));
+                }
+            }
+            return top(scoresByPlan, limit);
+        }
+
+        /**
+         * @return the best weight of all words starting with the given prefix, by plan
+         */
+        private Map<Integer, Integer> scores(String prefix) {
+            final Map<Integer, Integer> scoresByPlan = new HashMap<>();
+            for (Map.Entry<String, List<Posting>> words : postingsByWord.subMap(prefix, true, prefix + Character.MAX_VALUE, false).entrySet()) {
+                final int bonus = words.getKey().equals(prefix) ? BONUS_EXACT_MATCH : 0;
+                for (Posting posting : words.getValue()) {
+                    scoresByPlan.merge(posting.planIndex, posting.weight + bonus, Math::max);
+                }
+            }
+            return scoresByPlan;
+        }
+
+        private static Map<Integer, Integer> intersect(Map<Integer, Integer> scoresByPlan, Map<Integer, Integer> otherScoresByPlan) {
+            final Map<Integer, Integer> intersection = new HashMap<>();
+            scoresByPlan.forEach((planIndex, score) -> {
+                Integer otherScore = otherScoresByPlan.get(planIndex);
+                if (otherScore != null) {
+                    intersection.put(planIndex, score + otherScore);
+                }
+            });
+            return intersection;
+        }
+
+        /**
+         * Picks the best plans with a bounded heap instead of sorting all matches. Enabled plans and plans earlier in
+         * the catalog win ties.
+         */
+        private List<Plan> top(Map<Integer, Integer> scoresByPlan, int limit) {
+            final Comparator<Map.Entry<Integer, Integer>> ranking = Comparator
+                    .comparing((Map.Entry<Integer, Integer> match) -> match.getValue())
+                    .thenComparing(match -> plans.get(match.getKey()).isEnabled())
+                    .thenComparing(Map.Entry::getKey, Comparator.reverseOrder());
+            final PriorityQueue<Map.Entry<Integer, Integer>> best = new PriorityQueue<>(limit + 1, ranking);
+            for (Map.Entry<Integer, Integer> match : scoresByPlan.entrySet()) {
+                best.add(match);
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+
+            final List<Plan> result = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                result.add(plans.get(best.poll().getKey()));
+            }
+            Collections.reverse(result);
+            return result;
+        }
+    }
+
+    private static final class Posting {
+
+        private final int planIndex;
+        private int weight;
+
+        private Posting(int planIndex, int weight) {
+            this.planIndex = planIndex;
+            this.weight = weight;
+        }
+    }
+}
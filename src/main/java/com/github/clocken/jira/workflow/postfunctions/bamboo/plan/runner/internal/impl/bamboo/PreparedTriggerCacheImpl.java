@@ -0,0 +1,159 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+import com.atlassian.applinks.api.ReadOnlyApplicationLinkService;
+import com.atlassian.applinks.api.event.ApplicationLinkDeletedEvent;
+import com.atlassian.applinks.api.event.ApplicationLinkDetailsChangedEvent;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.BambooPlanRunner;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FieldTemplate;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FunctionDescriptorUtils;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.TemplateCompiler;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.ConfigurationRegistry;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PreparedTrigger;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PreparedTriggerCache;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.inject.Named;
+import java.util.*;
+
+import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PreparedTrigger.Builder.aPreparedTrigger;
+
+/**
+ * Keeps the most recently used prepared triggers in a bounded LRU cache. The key is the ID of the configuration the
+ * trigger is prepared from, so post functions sharing a configuration share the trigger, and a changed configuration
+ * never hits an outdated entry. The ID is verified against the arguments of the post function, so a stale ID never
+ * gets the trigger of another configuration. The cache is cleared when an application link is changed or deleted, as the triggers
+ * hold the application links.
+ */
+@Named
+public final class PreparedTriggerCacheImpl implements PreparedTriggerCache, InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PreparedTriggerCacheImpl.class);
+
+    private final ReadOnlyApplicationLinkService applicationLinkService;
+    private final EventPublisher eventPublisher;
+    private final FunctionDescriptorUtils functionDescriptorUtils;
+    private final TemplateCompiler templateCompiler;
+    private final ConfigurationRegistry configurationRegistry;
+    private final Map<String, PreparedTrigger> preparedTriggersByConfigurationId;
+
+    public PreparedTriggerCacheImpl(@ComponentImport ReadOnlyApplicationLinkService applicationLinkService,
+                                    @ComponentImport EventPublisher eventPublisher,
+                                    FunctionDescriptorUtils functionDescriptorUtils,
+                                    TemplateCompiler templateCompiler,
+                                    ConfigurationRegistry configurationRegistry,
+                                    PluginConfiguration pluginConfiguration) {
+        this.applicationLinkService = applicationLinkService;
+        this.eventPublisher = eventPublisher;
+        this.functionDescriptorUtils = functionDescriptorUtils;
+        this.templateCompiler = templateCompiler;
+        this.configurationRegistry = configurationRegistry;
+
+        final int cacheSize = pluginConfiguration.getTriggerCacheSize();
+        this.preparedTriggersByConfigurationId = Collections.synchronizedMap(new LinkedHashMap<String, PreparedTrigger>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedTrigger> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        eventPublisher.register(this);
+    }
+
+    @Override
+    public void destroy() {
+        eventPublisher.unregister(this);
+    }
+
+    @EventListener
+    public void onApplicationLinkDeleted(ApplicationLinkDeletedEvent event) {
+        preparedTriggersByConfigurationId.clear();
+    }
+
+    @EventListener
+    public void onApplicationLinkDetailsChanged(ApplicationLinkDetailsChangedEvent event) {
+        preparedTriggersByConfigurationId.clear();
+    }
+
+    @Override
+    public Optional<PreparedTrigger> getPreparedTrigger(Map<?, ?> args) {
+        // Saved before configurations were registered or edited outside of Jira, the ID is recomputed from the arguments
+        final String configurationId = configurationRegistry.getConfigurationId(args);
+
+        PreparedTrigger preparedTrigger = preparedTriggersByConfigurationId.get(configurationId);
+        if (preparedTrigger == null) {
+            preparedTrigger = prepare(args);
+            if (preparedTrigger != null) {
+                preparedTriggersByConfigurationId.put(configurationId, preparedTrigger);
+            }
+        }
+        return Optional.ofNullable(preparedTrigger);
+    }
+
+    private PreparedTrigger prepare(Map<?, ?> args) {
+        final String selectedApplinkId = (String) args.get(BambooPlanRunner.FIELD_SELECTED_APPLINK);
+        if (StringUtils.isEmpty(selectedApplinkId)) {
+            LOG.error("No Application link selected. Not running any plan!");
+            return null;
+        }
+        final String selectedPlanForApplink = (String) args.get(BambooPlanRunner.FIELD_SELECTED_PLAN_FOR + selectedApplinkId);
+        final String selectedValuesByVariable = (String) args.get(BambooPlanRunner.FIELD_SELECTED_VALUES_BY_VARIABLE);
+
+        final String selectedPlan = StringUtils.remove(selectedPlanForApplink, selectedApplinkId + "_");
+        if (StringUtils.isEmpty(selectedPlan)) {
+            LOG.error("No plan selected for the Application Link {}. Not running any plan!", selectedApplinkId);
+            return null;
+        }
+
+        final ReadOnlyApplicationLink selectedApplink = applicationLinkService.getApplicationLink(new ApplicationId(selectedApplinkId));
+        if (selectedApplink == null) {
+            LOG.error("No Application link found for ID {}. Not running any plan!", selectedApplinkId);
+            return null;
+        }
+
+        // The keys look like <value_type>_for_<applink>_<plan>_<variable>
+        final String variablePrefix = "for_" + selectedApplinkId + "_" + selectedPlan + "_";
+        final Map<String, FieldTemplate> templatesByVariable = new LinkedHashMap<>();
+        functionDescriptorUtils.createDecodedMapFromBase64String(selectedValuesByVariable)
+                .forEach((variable, value) -> {
+                    int prefixIndex = variable.lastIndexOf(variablePrefix);
+                    templatesByVariable.put(prefixIndex < 0 ? variable : variable.substring(prefixIndex + variablePrefix.length()),
+                            templateCompiler.compile(value));
+                });
+
+        return aPreparedTrigger()
+                .forApplink(selectedApplink)
+                .forPlan(selectedPlan)
+                .debouncedFor(NumberUtils.toInt((String) args.get(BambooPlanRunner.FIELD_DEBOUNCE_SECONDS)))
+                .withTemplatesByVariable(templatesByVariable).build();
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTrigger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * An append-only file of the build triggers Bamboo has not queued yet, so they survive restarts.<br>
+ * The file starts with a magic number and a format version, followed by records. Each record is prefixed with its
+ * length and consists of its type and the ID of the trigger. Records of the type {@link #ADDED} carry the trigger as
+ * well, strings are written as UTF-8 prefixed with their length. A record cut off by a crash is dropped when the
+ * journal is opened. Whenever the file has grown large enough, it is rewritten with the pending triggers only. The
+ * rewrite does not hold up further records: they are appended to the current file meanwhile and to the rewritten one
+ * before it replaces the current file. If the rewrite fails, the current file is kept.<br>
+ * Records are handed to the operating system right away, but not forced to disk, so triggers survive a restart of
+ * Jira at the cost of a few bytes written per transition.<br>
+ * Pending triggers can be spilled, to be kept by the journal only until there is room to send them. Spilling is not
+ * recorded in the file, as all pending triggers are sent after a restart anyway.
+ */
+final class TriggerJournal implements Closeable {
+
+    private static final int MAGIC = 0x4250524a; // "BPRJ"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int MIN_RECORD_LENGTH = 17;
+    private static final long MIN_COMPACTION_SIZE = 1024L * 1024L;
+
+    // The trigger is waiting to be sent
+    private static final byte ADDED = 1;
+    // The trigger is being sent, Bamboo may or may not have queued it
+    private static final byte SENDING = 2;
+    // Bamboo did not queue the trigger, it is waiting to be sent again
+    private static final byte FAILED = 3;
+    // Bamboo queued the trigger, or it was given up
+    private static final byte DONE = 4;
+
+    private final Path file;
+    private final Map<UUID, Entry> pendingEntries = new LinkedHashMap<>();
+    private final Queue<UUID> spilledIds = new ArrayDeque<>();
+    private FileChannel channel;
+    private long compactionSize;
+    // Not null while the file is rewritten, collects the records appended meanwhile
+    private List<byte[]> recordsAppendedWhileCompacting;
+
+    private TriggerJournal(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the journal, creating it if it does not exist yet.
+     *
+     * @param file the file of the journal
+     * @return the journal with the triggers that were pending when it was closed last
+     * @throws IOException if the file could not be read or written, or has another format version
+     */
+    static TriggerJournal open(Path file) throws IOException {
+        final TriggerJournal journal = new TriggerJournal(file);
+        journal.replay();
+        journal.compact(journal.startCompaction());
+        return journal;
+    }
+
+    /**
+     * @return the pending triggers in the order they were added
+     */
+    synchronized List<Entry> getPendingEntries() {
+        return new ArrayList<>(pendingEntries.values());
+    }
+
+    synchronized void added(UUID id, BuildTrigger buildTrigger) throws IOException {
+        final Entry entry = new Entry(id,
+                buildTrigger.getApplink().getId().get(),
+                buildTrigger.getPlanKey(),
+                buildTrigger.getIssueKey(),
+                buildTrigger.getValuesByVariable());
+        pendingEntries.put(id, entry);
+        append(createRecord(ADDED, entry));
+    }
+
+    /**
+     * Keeps a pending trigger in the journal only, until it is handed out by {@link #nextSpilled()}.
+     */
+    synchronized void spilled(UUID id) {
+        if (pendingEntries.containsKey(id)) {
+            spilledIds.add(id);
+        }
+    }
+
+    /**
+     * @return the pending trigger that was spilled first, or <code>null</code> if no trigger is spilled
+     */
+    synchronized Entry nextSpilled() {
+        UUID id;
+        while ((id = spilledIds.poll()) != null) {
+            final Entry entry = pendingEntries.get(id);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    synchronized boolean hasSpilled() {
+        return !spilledIds.isEmpty();
+    }
+
+    synchronized void sending(UUID id) throws IOException {
+        update(id, SENDING);
+    }
+
+    synchronized void failed(UUID id) throws IOException {
+        update(id, FAILED);
+    }
+
+    void done(UUID id) throws IOException {
+        final List<Entry> entries;
+        synchronized (this) {
+            update(id, DONE);
+            if (recordsAppendedWhileCompacting != null || channel.size() < compactionSize) {
+                return;
+            }
+            entries = startCompaction();
+        }
+        compact(entries);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void update(UUID id, byte type) throws IOException {
+        final Entry entry = pendingEntries.get(id);
+        if (entry == null) {
+            return;
+        }
+        apply(type, entry);
+        append(createRecord(type, entry));
+    }
+
+    private void apply(byte type, Entry entry) {
+        switch (type) {
+            case ADDED:
+                pendingEntries.put(entry.id, entry);
+                break;
+            case SENDING:
+                entry.sending = true;
+                break;
+            case FAILED:
+                entry.sending = false;
+                break;
+            case DONE:
+            default:
+                pendingEntries.remove(entry.id);
+                break;
+        }
+    }
+
+    private void append(byte[] record) throws IOException {
+        if (recordsAppendedWhileCompacting != null) {
+            recordsAppendedWhileCompacting.add(record);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void replay() throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        final ByteBuffer input = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (input.remaining() < HEADER_LENGTH) {
+            return;
+        }
+        if (input.getInt() != MAGIC || input.getInt() != FORMAT_VERSION) {
+            throw new IOException("Unknown format of the trigger journal " + file);
+        }
+
+        while (input.remaining() >= Integer.BYTES) {
+            final int length = input.getInt();
+            if (length < MIN_RECORD_LENGTH || length > input.remaining()) {
+                // Cut off by a crash while the record was written
+                return;
+            }
+            final int nextRecord = input.position() + length;
+            try {
+                final byte type = input.get();
+                final UUID id = new UUID(input.getLong(), input.getLong());
+                final Entry entry = type == ADDED ? readEntry(id, input) : pendingEntries.get(id);
+                if (entry != null) {
+                    apply(type, entry);
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Corrupt trigger journal " + file, e);
+            }
+            input.position(nextRecord);
+        }
+    }
+
+    /**
+     * @return the pending triggers to rewrite the file with
+     */
+    private synchronized List<Entry> startCompaction() throws IOException {
+        // Tried again once the file doubled in size, if the rewrite fails
+        compactionSize = Math.max(MIN_COMPACTION_SIZE, 2 * (channel == null ? 0 : channel.size()));
+        recordsAppendedWhileCompacting = new ArrayList<>();
+        return new ArrayList<>(pendingEntries.values());
+    }
+
+    /**
+     * Writes the given triggers to a temporary file without holding the lock of the journal. A trigger being sent or
+     * done after {@link #startCompaction()} is recorded among the records appended meanwhile.
+     */
+    private void compact(List<Entry> entries) throws IOException {
+        Path temporaryFile = null;
+        try {
+            Files.createDirectories(file.getParent());
+            temporaryFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            for (Entry entry : entries) {
+                output.write(createRecord(ADDED, entry));
+                if (entry.sending) {
+                    output.write(createRecord(SENDING, entry));
+                }
+            }
+            Files.write(temporaryFile, bytes.toByteArray());
+            replaceFile(temporaryFile);
+        } finally {
+            synchronized (this) {
+                recordsAppendedWhileCompacting = null;
+            }
+            if (temporaryFile != null) {
+                Files.deleteIfExists(temporaryFile);
+            }
+        }
+    }
+
+    /**
+     * Replaces the file with the rewritten one. The channel to the rewritten file is opened before it is moved, so the
+     * current channel is only swapped once nothing can fail anymore.
+     */
+    private synchronized void replaceFile(Path temporaryFile) throws IOException {
+        if (channel != null && !channel.isOpen()) {
+            // Closed meanwhile
+            return;
+        }
+        final FileChannel compactedChannel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            for (byte[] record : recordsAppendedWhileCompacting) {
+                final ByteBuffer buffer = ByteBuffer.wrap(record);
+                while (buffer.hasRemaining()) {
+                    compactedChannel.write(buffer);
+                }
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            compactedChannel.close();
+            throw e;
+        }
+
+        final FileChannel replacedChannel = channel;
+        channel = compactedChannel;
+        compactionSize = Math.max(MIN_COMPACTION_SIZE, 2 * channel.size());
+        if (replacedChannel != null) {
+            replacedChannel.close();
+        }
+    }
+
+    private static byte[] createRecord(byte type, Entry entry) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(type == ADDED ? 256 : MIN_RECORD_LENGTH + Integer.BYTES);
+        final DataOutputStream output = new DataOutputStream(bytes);
+        // Filled in once the length is known
+        output.writeInt(0);
+        output.writeByte(type);
+        output.writeLong(entry.id.getMostSignificantBits());
+        output.writeLong(entry.id.getLeastSignificantBits());
+        if (type == ADDED) {
+            writeString(output, entry.applinkId);
+            writeString(output, entry.planKey);
+            writeString(output, entry.issueKey);
+            output.writeInt(entry.valuesByVariable.size());
+            for (Map.Entry<String, String> valueByVariable : entry.valuesByVariable.entrySet()) {
+                writeString(output, valueByVariable.getKey());
+                writeString(output, valueByVariable.getValue());
+            }
+        }
+
+        final byte[] record = bytes.toByteArray();
+        ByteBuffer.wrap(record).putInt(record.length - Integer.BYTES);
+        return record;
+    }
+
+    private static Entry readEntry(UUID id, ByteBuffer input) {
+        final String applinkId = readString(input);
+        final String planKey = readString(input);
+        final String issueKey = readString(input);
+        final int variableCount = input.getInt();
+        final Map<String, String> valuesByVariable = new LinkedHashMap<>();
+        for (int i = 0; i < variableCount; i++) {
+            valuesByVariable.put(readString(input), readString(input));
+        }
+        return new Entry(id, applinkId, planKey, issueKey, valuesByVariable);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(ByteBuffer input) {
+        final int length = input.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > input.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final byte[] bytes = new byte[length];
+        input.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A pending build trigger, identified by the application link instead of holding it.
+     */
+    static final class Entry {
+
+        private final UUID id;
+        private final String applinkId;
+        private final String planKey;
+        private final String issueKey;
+        private final Map<String, String> valuesByVariable;
+        // Read while the file is rewritten
+        private volatile boolean sending;
+
+        private Entry(UUID id, String applinkId, String planKey, String issueKey, Map<String, String> valuesByVariable) {
+            this.id = id;
+            this.applinkId = applinkId;
+            this.planKey = planKey;
+            this.issueKey = issueKey;
+            this.valuesByVariable = Collections.unmodifiableMap(new LinkedHashMap<>(valuesByVariable));
+        }
+
+        UUID getId() {
+            return id;
+        }
+
+        String getApplinkId() {
+            return applinkId;
+        }
+
+        String getPlanKey() {
+            return planKey;
+        }
+
+        String getIssueKey() {
+            return issueKey;
+        }
+
+        Map<String, String> getValuesByVariable() {
+            return valuesByVariable;
+        }
+
+        /**
+         * @return whether the trigger was being sent when the journal was closed, so Bamboo may have queued it
+         */
+        boolean isSending() {
+            return sending;
+        }
+
+        @Override
+        public String toString() {
+            return planKey + " for " + issueKey;
+        }
+    }
+}
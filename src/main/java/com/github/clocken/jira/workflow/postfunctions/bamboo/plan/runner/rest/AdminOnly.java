@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.rest;
+
+import com.atlassian.sal.api.user.UserKey;
+import com.atlassian.sal.api.user.UserManager;
+
+import javax.ws.rs.core.Response;
+import java.util.function.Supplier;
+
+/**
+ * Restricts the REST resources to Jira administrators, as only they can edit workflows.
+ */
+final class AdminOnly {
+
+    private AdminOnly() {
+        // only static methods
+    }
+
+    /**
+     * @param userManager the user manager telling who sent the request
+     * @param response    creates the response for an administrator
+     * @return the response for an administrator, or <code>403 Forbidden</code> for anyone else
+     */
+    static Response respond(UserManager userManager, Supplier<Response> response) {
+        UserKey userKey = userManager.getRemoteUserKey();
+        if (userKey == null || !userManager.isAdmin(userKey)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        return response.get();
+    }
+}
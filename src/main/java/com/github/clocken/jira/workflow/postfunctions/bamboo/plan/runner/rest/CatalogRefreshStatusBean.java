@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.rest;
+
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.CatalogRefreshStatus;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The JSON representation of a {@link CatalogRefreshStatus}. Timestamps are milliseconds since the epoch, missing
+ * ones are omitted.
+ */
+@XmlRootElement(name = "status")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class CatalogRefreshStatusBean {
+
+    @XmlElement
+    private String applinkId;
+
+    @XmlElement
+    private String applinkName;
+
+    @XmlElement
+    private Long nextRefresh;
+
+    @XmlElement
+    private Long lastSuccess;
+
+    @XmlElement
+    private Long lastFailure;
+
+    @XmlElement
+    private String lastError;
+
+    @XmlElement
+    private int planCount;
+
+    // for JAXB
+    @SuppressWarnings("unused")
+    private CatalogRefreshStatusBean() {
+    }
+
+    public CatalogRefreshStatusBean(CatalogRefreshStatus status) {
+        this.applinkId = status.getApplicationId().get();
+        this.applinkName = status.getApplinkName();
+        this.nextRefresh = timestampOrNull(status.getNextRefresh());
+        this.lastSuccess = timestampOrNull(status.getLastSuccess());
+        this.lastFailure = timestampOrNull(status.getLastFailure());
+        this.lastError = this.lastFailure == null ? null : status.getLastError();
+        this.planCount = status.getPlanCount();
+    }
+
+    private static Long timestampOrNull(long timestamp) {
+        return timestamp == 0L ? null : timestamp;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.rest;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+import com.atlassian.applinks.api.ReadOnlyApplicationLinkService;
+import com.atlassian.applinks.api.application.bamboo.BambooApplicationType;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.atlassian.sal.api.user.UserManager;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalog;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalogSnapshot;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalogWarmer;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanSearchIndex;
+
+import javax.inject.Inject;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Serves the plan catalog to the post function editor and tells Jira administrators how up to date it is. All
+ * resources are restricted to administrators, as only they can edit workflows.
+ * <ul>
+ * <li><code>GET /rest/bamboo-plan-runner/1.0/catalog/status</code></li>
+ * <li><code>GET /rest/bamboo-plan-runner/1.0/catalog/applinks/{applinkId}/plans</code></li>
+ * <li><code>GET /rest/bamboo-plan-runner/1.0/catalog/applinks/{applinkId}/plans/search?query={query}&amp;limit={limit}</code></li>
+ * <li><code>GET /rest/bamboo-plan-runner/1.0/catalog/applinks/{applinkId}/plans/{planKey}/variables</code></li>
+ * </ul>
+ */
+@Path("/catalog")
+@Produces(MediaType.APPLICATION_JSON)
+public class CatalogResource {
+
+    private static final String HEADER_CATALOG_VERSION = "X-Catalog-Version";
+    private static final int MAX_SEARCH_RESULTS = 100;
+
+    private final UserManager userManager;
+    private final ReadOnlyApplicationLinkService applicationLinkService;
+    private final PlanCatalog planCatalog;
+    private final PlanCatalogWarmer planCatalogWarmer;
+    private final PlanSearchIndex planSearchIndex;
+
+    @Inject
+    public CatalogResource(@ComponentImport UserManager userManager,
+                           @ComponentImport ReadOnlyApplicationLinkService applicationLinkService,
+                           PlanCatalog planCatalog,
+                           PlanCatalogWarmer planCatalogWarmer,
+                           PlanSearchIndex planSearchIndex) {
+        this.userManager = userManager;
+        this.applicationLinkService = applicationLinkService;
+        this.planCatalog = planCatalog;
+        this.planCatalogWarmer = planCatalogWarmer;
+        this.planSearchIndex = planSearchIndex;
+    }
+
+    @GET
+    @Path("/status")
+    public Response getStatus() {
+        return AdminOnly.respond(userManager, () -> {
+            List<CatalogRefreshStatusBean> status = planCatalogWarmer.getStatus().stream()
+                    .map(CatalogRefreshStatusBean::new)
+                    .collect(Collectors.toList());
+            return Response.ok(status).build();
+        });
+    }
+
+    @GET
+    @Path("/applinks/{applinkId}/plans")
+    public Response getPlans(@PathParam("applinkId") String applinkId) {
+        return AdminOnly.respond(userManager, () -> plansOf(applinkId)
+                .map(plans -> Response.ok(plans.stream()
+                        .map(PlanBean::new)
+                        .collect(Collectors.toList())).build())
+                .orElseGet(() -> Response.status(Response.Status.NOT_FOUND).build()));
+    }
+
+    @GET
+    @Path("/applinks/{applinkId}/plans/search")
+    public Response searchPlans(@PathParam("applinkId") String applinkId,
+                                @QueryParam("query") String query,
+                                @QueryParam("limit") @DefaultValue("20") int limit) {
+        return AdminOnly.respond(userManager, () -> bambooApplinkOf(applinkId)
+                .map(bambooApplink -> Response.ok(planSearchIndex
+                        .search(bambooApplink, query, Math.min(limit, MAX_SEARCH_RESULTS)).stream()
+                        .map(PlanBean::new)
+                        .collect(Collectors.toList())).build())
+                .orElseGet(() -> Response.status(Response.Status.NOT_FOUND).build()));
+    }
+
+    @GET
+    @Path("/applinks/{applinkId}/plans/{planKey}/variables")
+    public Response getVariables(@PathParam("applinkId") String applinkId,
+                                 @PathParam("planKey") String planKey) {
+        return AdminOnly.respond(userManager, () -> plansOf(applinkId)
+                .flatMap(plans -> plans.stream()
+                        .filter(plan -> plan.getKey().equals(planKey))
+                        .findFirst())
+                .map(plan -> Response.ok(plan.getVariables())
+                        // Lets the editor tell on save, whether the plans changed while it was open
+                        .header(HEADER_CATALOG_VERSION, planCatalog.getSnapshot()
+                                .getEntry(new ApplicationId(applinkId))
+                                .map(PlanCatalogSnapshot.Entry::getVersion)
+                                .orElse(0L))
+                        .build())
+                .orElseGet(() -> Response.status(Response.Status.NOT_FOUND).build()));
+    }
+
+    private Optional<List<Plan>> plansOf(String applinkId) {
+        return bambooApplinkOf(applinkId)
+                .map(bambooApplink -> planCatalog.getPlansByApplink(Collections.singletonList(bambooApplink))
+                        .get(bambooApplink.getId()));
+    }
+
+    private Optional<ReadOnlyApplicationLink> bambooApplinkOf(String applinkId) {
+        final ReadOnlyApplicationLink bambooApplink;
+        try {
+            bambooApplink = applicationLinkService.getApplicationLink(new ApplicationId(applinkId));
+        } catch (IllegalArgumentException e) {
+            // Not a valid application link ID
+            return Optional.empty();
+        }
+        if (bambooApplink == null || !(bambooApplink.getType() instanceof BambooApplicationType)) {
+            return Optional.empty();
+        }
+        return Optional.of(bambooApplink);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.rest;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The JSON representation of an exportable JIRA field in the value selection of a variable.
+ */
+@XmlRootElement(name = "field")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class FieldBean {
+
+    @XmlElement
+    private String id;
+
+    @XmlElement
+    private String name;
+
+    // for JAXB
+    @SuppressWarnings("unused")
+    private FieldBean() {
+    }
+
+    public FieldBean(String id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.rest;
+
+import com.atlassian.jira.issue.fields.FieldException;
+import com.atlassian.jira.util.I18nHelper;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.atlassian.sal.api.user.UserManager;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FieldAccessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Lets the post function editor search the exportable JIRA fields a variable can take its value from. Restricted to
+ * administrators, as only they can edit workflows.
+ * <ul>
+ * <li><code>GET /rest/bamboo-plan-runner/1.0/fields/search?query={query}&amp;limit={limit}</code></li>
+ * </ul>
+ */
+@Path("/fields")
+@Produces(MediaType.APPLICATION_JSON)
+public class FieldResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FieldResource.class);
+    private static final int MAX_SEARCH_RESULTS = 100;
+
+    private final UserManager userManager;
+    private final I18nHelper i18nHelper;
+    private final FieldAccessor fieldAccessor;
+
+    @Inject
+    public FieldResource(@ComponentImport UserManager userManager,
+                         @ComponentImport I18nHelper i18nHelper,
+                         FieldAccessor fieldAccessor) {
+        this.userManager = userManager;
+        this.i18nHelper = i18nHelper;
+        this.fieldAccessor = fieldAccessor;
+    }
+
+    @GET
+    @Path("/search")
+    public Response searchFields(@QueryParam("query") String query,
+                                 @QueryParam("limit") @DefaultValue("20") int limit) {
+        return AdminOnly.respond(userManager, () -> {
+            try {
+                List<FieldBean> fields = fieldAccessor.searchExportableJiraFields(query, Math.min(limit, MAX_SEARCH_RESULTS)).stream()
+                        .map(field -> new FieldBean(field.getId(), i18nHelper.getText(field.getNameKey())))
+                        .collect(Collectors.toList());
+                return Response.ok(fields).build();
+            } catch (FieldException e) {
+                LOG.error("Error while fetching JIRA fields: {}", e.getMessage());
+                LOG.error("Exception: ", e);
+                return Response.serverError().build();
+            }
+        });
+    }
+}
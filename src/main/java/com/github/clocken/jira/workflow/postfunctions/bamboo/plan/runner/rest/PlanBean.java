@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.rest;
+
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The JSON representation of a {@link Plan} in the plan selection. Variables are requested separately for the selected
+ * plan only.
+ */
+@XmlRootElement(name = "plan")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class PlanBean {
+
+    @XmlElement
+    private String key;
+
+    @XmlElement
+    private String name;
+
+    @XmlElement
+    private String description;
+
+    @XmlElement
+    private boolean enabled;
+
+    // for JAXB
+    @SuppressWarnings("unused")
+    private PlanBean() {
+    }
+
+    public PlanBean(Plan plan) {
+        this.key = plan.getKey();
+        this.name = plan.getName();
+        this.description = plan.getDescription();
+        this.enabled = plan.isEnabled();
+    }
+}
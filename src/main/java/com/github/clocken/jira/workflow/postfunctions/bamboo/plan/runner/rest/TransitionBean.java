@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.rest;
+
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.TransitionReference;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.List;
+
+/**
+ * The JSON representation of a {@link TransitionReference}.
+ */
+@XmlRootElement(name = "transition")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class TransitionBean {
+
+    @XmlElement
+    private String workflow;
+
+    @XmlElement
+    private int id;
+
+    @XmlElement
+    private String name;
+
+    @XmlElement
+    private int postFunction;
+
+    @XmlElement
+    private List<String> variables;
+
+    // for JAXB
+    @SuppressWarnings("unused")
+    private TransitionBean() {
+    }
+
+    public TransitionBean(TransitionReference transitionReference) {
+        this.workflow = transitionReference.getWorkflowName();
+        this.id = transitionReference.getTransitionId();
+        this.name = transitionReference.getTransitionName();
+        this.postFunction = transitionReference.getPostFunctionPosition();
+        this.variables = transitionReference.getVariables();
+    }
+}
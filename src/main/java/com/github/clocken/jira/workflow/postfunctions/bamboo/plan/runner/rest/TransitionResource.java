@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.rest;
+
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.atlassian.sal.api.user.UserManager;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PlanUsageIndex;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Tells Jira administrators which workflow transitions run a plan, e. g. before the plan is renamed or one of its
+ * variables is removed. Application links that no longer exist can be queried as well. Restricted to administrators,
+ * as only they can edit workflows.
+ * <ul>
+ * <li><code>GET /rest/bamboo-plan-runner/1.0/transitions/applinks/{applinkId}/plans/{planKey}?variable={variable}</code></li>
+ * </ul>
+ */
+@Path("/transitions")
+@Produces(MediaType.APPLICATION_JSON)
+public class TransitionResource {
+
+    private final UserManager userManager;
+    private final PlanUsageIndex planUsageIndex;
+
+    @Inject
+    public TransitionResource(@ComponentImport UserManager userManager,
+                              PlanUsageIndex planUsageIndex) {
+        this.userManager = userManager;
+        this.planUsageIndex = planUsageIndex;
+    }
+
+    @GET
+    @Path("/applinks/{applinkId}/plans/{planKey}")
+    public Response getTransitions(@PathParam("applinkId") String applinkId,
+                                   @PathParam("planKey") String planKey,
+                                   @QueryParam("variable") String variable) {
+        return AdminOnly.respond(userManager, () -> {
+            List<TransitionBean> transitions = planUsageIndex.getTransitions(applinkId, planKey, variable).stream()
+                    .map(TransitionBean::new)
+                    .collect(Collectors.toList());
+            return Response.ok(transitions).build();
+        });
+    }
+}
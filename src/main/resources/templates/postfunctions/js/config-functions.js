@@ -14,25 +14,214 @@
  * limitations under the License.
 */
 
+// The saved selection of the post function being edited
+var bambooPlanRunnerSelection = {};
+var bambooPlanRunnerCatalogUrl = AJS.contextPath() + "/rest/bamboo-plan-runner/1.0/catalog/applinks/";
+var bambooPlanRunnerFieldSearchUrl = AJS.contextPath() + "/rest/bamboo-plan-runner/1.0/fields/search";
+// The first fields are the same for every variable, so they are requested once
+var bambooPlanRunnerFirstFields;
+// Responses for an application link or plan that is no longer selected are ignored
+var bambooPlanRunnerRequest = 0;
+var bambooPlanRunnerSearchRequest = 0;
+var bambooPlanRunnerSearchTimer;
+// Only the best matches are shipped to the browser, the search narrows them down
+var bambooPlanRunnerSearchLimit = 50;
+
 function togglePlanSelectionForApplink( applink ) {
-    AJS.$( "[id*='plan_selection_for_']" ).not( "#plan_selection_for_" + applink ).addClass( "hidden" );
-    AJS.$( "#plan_selection_for_" + applink ).removeClass( "hidden" );
-    toggleVariableSelectionForPlan( AJS.$( "#selected_plan_for_" + applink ).val() );
+    ++bambooPlanRunnerRequest;
+    AJS.$( "#selected_plan" ).attr( "name", "selected_plan_for_" + applink ).empty();
+    AJS.$( "#plan_search" ).val( "" );
+    AJS.$( "#variable_selection_rows" ).empty();
+    loadPlanOptions( applink, "", bambooPlanRunnerSelection.plan, true );
+}
+
+function searchPlans( query ) {
+    clearTimeout( bambooPlanRunnerSearchTimer );
+    bambooPlanRunnerSearchTimer = setTimeout( function() {
+        loadPlanOptions( AJS.$( "#selected_applink" ).val(), query, AJS.$( "#selected_plan" ).val(), false );
+    }, 200 );
+}
+
+function loadPlanOptions( applink, query, selectedPlan, reloadVariables ) {
+    var request = ++bambooPlanRunnerSearchRequest;
+    var planSelection = AJS.$( "#selected_plan" );
+    AJS.$( "#plan_selection_error" ).addClass( "hidden" );
+
+    searchPlansOfApplink( applink, query, bambooPlanRunnerSearchLimit ).then( function( plans ) {
+        var selectedKey = selectedPlan && selectedPlan.indexOf( applink + "_" ) === 0
+            ? selectedPlan.substring( applink.length + 1 ) : null;
+        var containsSelected = !selectedKey || AJS.$.grep( plans, function( plan ) {
+            return plan.key === selectedKey;
+        } ).length > 0;
+        // Keeps the selected plan available, even if it is not among the matches
+        return containsSelected ? plans : searchPlansOfApplink( applink, selectedKey, 1 ).then( function( selected ) {
+            return AJS.$.grep( selected, function( plan ) {
+                return plan.key === selectedKey;
+            } ).concat( plans );
+        } );
+    } ).done( function( plans ) {
+        if( request !== bambooPlanRunnerSearchRequest ) {
+            return;
+        }
+        planSelection.empty();
+        AJS.$.each( plans, function( index, plan ) {
+            var option = AJS.$( "<option/>" )
+                .val( applink + "_" + plan.key )
+                .text( plan.name + " - " + plan.key );
+            if( !plan.enabled ) {
+                option.attr( "title", planSelection.data( "disabled-title" ) ).prop( "disabled", true );
+            }
+            planSelection.append( option );
+        } );
+        planSelection.val( selectedPlan );
+        if( !planSelection.val() ) {
+            planSelection.val( planSelection.find( "option:not(:disabled)" ).first().val() );
+        }
+        if( reloadVariables || planSelection.val() !== selectedPlan ) {
+            toggleVariableSelectionForPlan( planSelection.val() );
+        }
+    } ).fail( function() {
+        if( request === bambooPlanRunnerSearchRequest ) {
+            AJS.$( "#plan_selection_error" ).removeClass( "hidden" );
+        }
+    } );
+}
+
+function searchPlansOfApplink( applink, query, limit ) {
+    return AJS.$.ajax( {
+        url: bambooPlanRunnerCatalogUrl + encodeURIComponent( applink ) + "/plans/search",
+        data: { query: query, limit: limit },
+        dataType: "json"
+    } );
 }
 
 function toggleVariableSelectionForPlan( plan ) {
-    AJS.$( "[id*='variable_selection_for_']" ).not( "#variable_selection_for_" + plan ).addClass( "hidden" );
-    AJS.$( "#variable_selection_for_" + plan ).removeClass( "hidden" );
+    var request = ++bambooPlanRunnerRequest;
+    var applink = AJS.$( "#selected_applink" ).val();
+    var rows = AJS.$( "#variable_selection_rows" ).empty();
+    AJS.$( "#variable_selection_error" ).addClass( "hidden" );
+    if( !plan ) {
+        return;
+    }
+
+    AJS.$.ajax( {
+        url: bambooPlanRunnerCatalogUrl + encodeURIComponent( applink ) + "/plans/"
+            + encodeURIComponent( plan.substring( applink.length + 1 ) ) + "/variables",
+        dataType: "json"
+    } ).done( function( variables, status, xhr ) {
+        if( request !== bambooPlanRunnerRequest ) {
+            return;
+        }
+        AJS.$( "#catalog_version" ).val( xhr.getResponseHeader( "X-Catalog-Version" ) );
+        var template = AJS.$( "#variable_selection_row_template" ).html();
+        var newRows = AJS.$.map( variables, function( variable ) {
+            var variableId = AJS.escapeHtml( plan + "_" + variable );
+            var row = AJS.$( template.split( "__variable_id__" ).join( variableId )
+                .split( "__variable__" ).join( AJS.escapeHtml( variable ) ) );
+            restoreVariableSelection( row, plan + "_" + variable );
+            return row.get();
+        } );
+        rows.append( newRows );
+        rows.find( "select" ).each( function() {
+            loadFieldOptions( AJS.$( this ), "" );
+        } );
+        rows.find( "input.radio:checked" ).each( function() {
+            toggleValueSelectionForVariableValueType( this.value );
+        } );
+    } ).fail( function() {
+        if( request === bambooPlanRunnerRequest ) {
+            AJS.$( "#variable_selection_error" ).removeClass( "hidden" );
+        }
+    } );
+}
+
+function restoreVariableSelection( row, variableId ) {
+    var variablesToUse = bambooPlanRunnerSelection.variablesToUse || [];
+    var valueType = ( bambooPlanRunnerSelection.valueTypes || {} )[ "variable_value_type_for_" + variableId ];
+    var values = bambooPlanRunnerSelection.values || {};
+
+    row.find( "input.checkbox" ).prop( "checked", AJS.$.inArray( "use_" + variableId, variablesToUse ) !== -1 );
+    row.find( "input.radio" ).each( function() {
+        AJS.$( this ).prop( "checked", this.value === valueType );
+    } );
+    if( values.hasOwnProperty( "selected_field_for_" + variableId ) ) {
+        // Added as an option once the fields are loaded
+        row.find( "select" ).data( "selected-value", values[ "selected_field_for_" + variableId ] );
+    }
+    if( values.hasOwnProperty( "custom_value_for_" + variableId ) ) {
+        row.find( "input.text" ).val( values[ "custom_value_for_" + variableId ] );
+    }
+}
+
+function searchFields( input ) {
+    var fieldSelection = AJS.$( input ).siblings( "select" );
+    clearTimeout( fieldSelection.data( "search-timer" ) );
+    fieldSelection.data( "search-timer", setTimeout( function() {
+        loadFieldOptions( fieldSelection, input.value );
+    }, 200 ) );
+}
+
+function loadFieldOptions( fieldSelection, query ) {
+    var request = ( fieldSelection.data( "search-request" ) || 0 ) + 1;
+    fieldSelection.data( "search-request", request );
+    var selectedValue = fieldSelection.val() || fieldSelection.data( "selected-value" );
+    var selectedId = selectedValue ? selectedValue.replace( /^\$\((.*)\)$/, "$1" ) : null;
+
+    ( query ? searchFieldsByQuery( query, bambooPlanRunnerSearchLimit ) : firstFields() ).then( function( fields ) {
+        var containsSelected = !selectedId || AJS.$.grep( fields, function( field ) {
+            return field.id === selectedId;
+        } ).length > 0;
+        // Keeps the selected field available, even if it is not among the matches
+        return containsSelected ? fields : searchFieldsByQuery( selectedId, 1 ).then( function( selected ) {
+            return AJS.$.grep( selected, function( field ) {
+                return field.id === selectedId;
+            } ).concat( fields );
+        } );
+    } ).done( function( fields ) {
+        if( request !== fieldSelection.data( "search-request" ) ) {
+            return;
+        }
+        fieldSelection.empty();
+        AJS.$.each( fields, function( index, field ) {
+            fieldSelection.append( AJS.$( "<option/>" )
+                .val( "$(" + field.id + ")" )
+                .attr( "title", "ID: " + field.id )
+                .text( field.name ) );
+        } );
+        if( selectedValue ) {
+            fieldSelection.val( selectedValue );
+        }
+    } );
+}
+
+function firstFields() {
+    if( !bambooPlanRunnerFirstFields ) {
+        bambooPlanRunnerFirstFields = searchFieldsByQuery( "", bambooPlanRunnerSearchLimit );
+        bambooPlanRunnerFirstFields.fail( function() {
+            bambooPlanRunnerFirstFields = null;
+        } );
+    }
+    return bambooPlanRunnerFirstFields;
+}
+
+function searchFieldsByQuery( query, limit ) {
+    return AJS.$.ajax( {
+        url: bambooPlanRunnerFieldSearchUrl,
+        data: { query: query, limit: limit },
+        dataType: "json"
+    } );
 }
 
 function toggleValueSelectionForVariableValueType( variableValueType ) {
     variable = variableValueType.replace(/.*for_/, "");
     if( variableValueType.search("use_field_for") != -1 ) {
         AJS.$( "select#selected_field_for_" + variable ).removeClass( "hidden" );
+        AJS.$( "input#field_search_for_" + variable ).removeClass( "hidden" );
         AJS.$( "input#custom_value_for_" + variable ).addClass( "hidden" );
         AJS.$( "#custom_value_for_" + variable + "_description" ).addClass( "hidden" );
     } else {
         AJS.$( "select#selected_field_for_" + variable ).addClass( "hidden" );
+        AJS.$( "input#field_search_for_" + variable ).addClass( "hidden" );
         AJS.$( "input#custom_value_for_" + variable ).removeClass( "hidden" );
         AJS.$( "#custom_value_for_" + variable + "_description" ).removeClass( "hidden" );
     }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ut.com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal;
+
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.export.FieldExportParts;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.issue.fields.Field;
+import com.atlassian.jira.util.I18nHelper;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.FieldValueLookup;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FieldAccessor;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FieldValueResolver;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+public class FieldValueLookupTest {
+
+    private static final String UNRESOLVED = "'Error resolving field value'";
+
+    private Issue issue;
+    private FieldValueResolver issueKeyResolver;
+    private FieldAccessor fieldAccessor;
+    private FieldValueLookup fieldValueLookup;
+
+    @Before
+    public void setUp() {
+        issue = mock(Issue.class);
+        issueKeyResolver = mock(FieldValueResolver.class);
+        when(issueKeyResolver.resolve(eq(issue), anyMap()))
+                .thenReturn("TEST-1");
+
+        fieldAccessor = mock(FieldAccessor.class);
+        when(fieldAccessor.getFieldValueResolver(anyString()))
+                .thenReturn(Optional.empty());
+        when(fieldAccessor.getFieldValueResolver("issuekey"))
+                .thenReturn(Optional.of(issueKeyResolver));
+        I18nHelper i18nHelper = mock(I18nHelper.class);
+        when(i18nHelper.getText("bamboo-plan-runner.postfunction.field.value.unresolved"))
+                .thenReturn(UNRESOLVED);
+
+        fieldValueLookup = new FieldValueLookup(i18nHelper, fieldAccessor, issue);
+    }
+
+    @Test
+    public void should_read_each_field_once() {
+        assertEquals("TEST-1", fieldValueLookup.lookup("issuekey"));
+        assertEquals("TEST-1", fieldValueLookup.lookup("issuekey"));
+
+        verify(issueKeyResolver, times(1)).resolve(eq(issue), anyMap());
+    }
+
+    @Test
+    public void should_export_field_referenced_by_id_and_by_name_once() {
+        CustomField customField = mock(CustomField.class);
+        FieldExportParts representation = mock(FieldExportParts.class);
+        AtomicInteger exports = new AtomicInteger();
+        when(fieldAccessor.getFieldValueResolver("customfield_10000"))
+                .thenReturn(Optional.of(customFieldResolver(customField, representation, exports)));
+        when(fieldAccessor.getFieldValueResolver("My Field"))
+                .thenReturn(Optional.of(customFieldResolver(customField, representation, exports)));
+
+        fieldValueLookup.lookup("customfield_10000");
+        fieldValueLookup.lookup("My Field");
+
+        assertEquals(1, exports.get());
+    }
+
+    @Test
+    public void should_return_error_text_for_unresolvable_field() {
+        assertEquals(UNRESOLVED, fieldValueLookup.lookup("unknown"));
+    }
+
+    /**
+     * @return a resolver of the given field like the ones of the field accessor, counting the exports of the field
+     */
+    private static FieldValueResolver customFieldResolver(CustomField customField, FieldExportParts representation,
+                                                          AtomicInteger exports) {
+        return new FieldValueResolver() {
+            @Override
+            public String resolve(Issue issue) {
+                exports.incrementAndGet();
+                return "value";
+            }
+
+            @Override
+            public String resolve(Issue issue, Map<Field, FieldExportParts> representationsByField) {
+                representationsByField.computeIfAbsent(customField, field -> {
+                    exports.incrementAndGet();
+                    return representation;
+                });
+                return "value";
+            }
+        };
+    }
+}
@@ -16,16 +16,19 @@
 
 package ut.com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl;
 
+import com.atlassian.event.api.EventPublisher;
 import com.atlassian.jira.action.issue.customfields.MockCustomFieldType;
+import com.atlassian.jira.event.issue.field.CustomFieldCreatedEvent;
+import com.atlassian.jira.issue.export.ExportableSystemField;
 import com.atlassian.jira.issue.fields.CustomField;
 import com.atlassian.jira.issue.fields.Field;
 import com.atlassian.jira.issue.fields.FieldException;
 import com.atlassian.jira.issue.fields.MockFieldManager;
+import com.atlassian.jira.issue.fields.NavigableField;
 import com.atlassian.jira.issue.label.Label;
 import com.atlassian.jira.issue.managers.MockCustomFieldManager;
 import com.atlassian.jira.mock.issue.MockIssue;
 import com.atlassian.jira.util.I18nHelper;
-import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FieldAccessor;
 import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.FieldAccessorImpl;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Before;
@@ -36,11 +39,12 @@ import ut.mocks.fields.MockLabelsCFType;
 import ut.mocks.fields.MockNavigableFieldWithName;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 public class FieldAccessorImplTest {
@@ -53,6 +57,8 @@ public class FieldAccessorImplTest {
     private static final String NON_EXPORTABLE_CUSTOM_FIELD_NAME_KEY = "custom.field.key." + NON_EXPORTABLE_CUSTOM_FIELD_ID;
     private static final String DESCRIPTION_FIELD_ID = "description";
     private static final String ISSUE_DESCRIPTION = "This is a test issue description.";
+    private static final String SUMMARY_FIELD_ID = "summary";
+    private static final String ISSUE_SUMMARY = "Test issue";
     private static final String LABELS_CUSTOM_FIELD_ID = "customfield_10001";
     private static final String LABELS_CUSTOM_FIELD_NAME = "Labels";
     private static final String LABELS_CUSTOM_FIELD_NAME_KEY = "custom.field.key." + LABELS_CUSTOM_FIELD_ID;
@@ -93,7 +99,8 @@ public class FieldAccessorImplTest {
             AMBIGUOUS_CUSTOM_FIELD_NAME_KEY_2,
             new MockCustomFieldType());
 
-    private FieldAccessor fieldAccessor;
+    private MockFieldManager fieldManager;
+    private FieldAccessorImpl fieldAccessor;
     private MockIssue issue;
 
     @Before
@@ -111,7 +118,7 @@ public class FieldAccessorImplTest {
                 AMBIGUOUS_CUSTOM_FIELD_2
         ));
 
-        MockFieldManager fieldManager = spy(new MockFieldManager());
+        fieldManager = spy(new MockFieldManager());
         doAnswer(invocation -> fieldManager.getNavigableFields())
                 .when(fieldManager)
                 .getAllAvailableNavigableFields();
@@ -124,9 +131,16 @@ public class FieldAccessorImplTest {
                 .map(field -> (CustomField) field)
                 .forEach(customFieldManager::addCustomField);
 
+        I18nHelper i18nHelper = mock(I18nHelper.class);
+        when(i18nHelper.getLocale())
+                .thenReturn(Locale.ENGLISH);
+        when(i18nHelper.getText(anyString()))
+                .thenAnswer(invocation -> invocation.getArguments()[0]);
+
         fieldAccessor = new FieldAccessorImpl(fieldManager,
                 customFieldManager,
-                mock(I18nHelper.class));
+                i18nHelper,
+                mock(EventPublisher.class));
     }
 
     @Test
@@ -135,12 +149,46 @@ public class FieldAccessorImplTest {
                 fieldAccessor.getAllExportableJiraFields().size());
     }
 
+    @Test
+    public void should_search_exportable_jira_fields_by_id_or_name() throws FieldException {
+        assertEquals(Collections.singletonList(LABELS_CUSTOM_FIELD),
+                fieldAccessor.searchExportableJiraFields("CUSTOMFIELD_10001", 10));
+        assertEquals(Collections.singletonList(LABELS_CUSTOM_FIELD),
+                fieldAccessor.searchExportableJiraFields("custom.field", 10));
+        assertEquals(1,
+                fieldAccessor.searchExportableJiraFields("", 1).size());
+    }
+
+    @Test
+    public void should_cache_exportable_jira_fields_until_a_custom_field_changes() throws FieldException {
+        fieldAccessor.getAllExportableJiraFields();
+        fieldAccessor.getAllExportableJiraFields();
+        verify(fieldManager, times(1)).getAllAvailableNavigableFields();
+
+        fieldAccessor.onCustomFieldCreated(mock(CustomFieldCreatedEvent.class));
+        fieldAccessor.getAllExportableJiraFields();
+        verify(fieldManager, times(2)).getAllAvailableNavigableFields();
+    }
+
     @Test
     public void should_get_system_field_value_from_issue() {
         assertEquals(ISSUE_DESCRIPTION,
                 fieldAccessor.getSystemFieldValueFromIssue(issue, DESCRIPTION_FIELD_ID).orElse(StringUtils.EMPTY));
     }
 
+    @Test
+    public void should_read_common_system_fields_directly_from_issue() {
+        NavigableField summaryField = mock(NavigableField.class, withSettings().extraInterfaces(ExportableSystemField.class));
+        when(summaryField.getId())
+                .thenReturn(SUMMARY_FIELD_ID);
+        fieldManager.addField(summaryField);
+        issue.setSummary(ISSUE_SUMMARY);
+
+        assertEquals(ISSUE_SUMMARY,
+                fieldAccessor.getSystemFieldValueFromIssue(issue, SUMMARY_FIELD_ID).orElse(StringUtils.EMPTY));
+        verify((ExportableSystemField) summaryField, never()).getRepresentationFromIssue(any());
+    }
+
     @Test
     public void should_get_custom_field_value_from_issue_by_id() {
         assertEquals(StringUtils.join(Arrays.asList(LABEL_NAME_1, LABEL_NAME_2), ", "),
@@ -153,6 +201,22 @@ public class FieldAccessorImplTest {
                 fieldAccessor.getCustomFieldValueFromIssue(issue, LABELS_CUSTOM_FIELD_NAME).orElse(StringUtils.EMPTY));
     }
 
+    @Test
+    public void should_resolve_field_values_by_custom_field_id_name_or_system_field_id() {
+        assertEquals(StringUtils.join(Arrays.asList(LABEL_NAME_1, LABEL_NAME_2), ", "),
+                fieldAccessor.getFieldValueResolver(LABELS_CUSTOM_FIELD_ID).map(resolver -> resolver.resolve(issue)).orElse(StringUtils.EMPTY));
+        assertEquals(StringUtils.join(Arrays.asList(LABEL_1, LABEL_2), ", "),
+                fieldAccessor.getFieldValueResolver(LABELS_CUSTOM_FIELD_NAME).map(resolver -> resolver.resolve(issue)).orElse(StringUtils.EMPTY));
+        assertEquals(ISSUE_DESCRIPTION,
+                fieldAccessor.getFieldValueResolver(DESCRIPTION_FIELD_ID).map(resolver -> resolver.resolve(issue)).orElse(StringUtils.EMPTY));
+    }
+
+    @Test
+    public void should_not_resolve_non_exportable_fields() {
+        assertFalse(fieldAccessor.getFieldValueResolver(NON_EXPORTABLE_CUSTOM_FIELD_ID).isPresent());
+        assertFalse(fieldAccessor.getFieldValueResolver(NON_EXPORTABLE_SYSTEM_FIELD_ID).isPresent());
+    }
+
     @Test
     public void should_return_empty_value_for_ambiguous_custom_field() {
         assertFalse(fieldAccessor.getCustomFieldValueFromIssue(issue, AMBIGUOUS_CUSTOM_FIELD_NAME).isPresent());
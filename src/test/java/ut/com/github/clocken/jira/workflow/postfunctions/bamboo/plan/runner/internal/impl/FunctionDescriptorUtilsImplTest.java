@@ -24,6 +24,7 @@ import org.junit.Test;
 
 import java.util.*;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class FunctionDescriptorUtilsImplTest {
@@ -76,4 +77,25 @@ public class FunctionDescriptorUtilsImplTest {
         assertTrue(TEST_LIST.containsAll(listFromString)
                 && listFromString.containsAll(TEST_LIST));
     }
+
+    @Test
+    public void should_read_map_written_in_versioned_format() {
+        Map<String, String> map = new LinkedHashMap<>(TEST_MAP);
+        map.put("custom_value_for_PLAYG-VAR_BRANCH", "fix/$(issuekey), \u00e4\u00f6\u00fc = done");
+        map.put("empty", "");
+
+        String encoded = functionDescriptorUtils.createEncodedStringFromMap(map);
+
+        assertTrue(encoded.startsWith("v2:"));
+        assertEquals(map, functionDescriptorUtils.createDecodedMapFromBase64String(encoded));
+    }
+
+    @Test
+    public void should_read_list_written_in_versioned_format() {
+        List<String> list = Arrays.asList(TEST_VALUE_1, "use_PLAYG-VAR_MY VARIABLE", "a,b");
+
+        assertEquals(list, functionDescriptorUtils.createListFromString(functionDescriptorUtils.createStringFromList(list)));
+        assertEquals(Collections.emptyList(), functionDescriptorUtils.createListFromString(
+                functionDescriptorUtils.createStringFromList(Collections.emptyList())));
+    }
 }
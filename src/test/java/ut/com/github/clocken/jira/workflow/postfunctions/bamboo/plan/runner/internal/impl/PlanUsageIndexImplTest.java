@@ -0,0 +1,194 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ut.com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl;
+
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.event.workflow.WorkflowDeletedEvent;
+import com.atlassian.jira.event.workflow.WorkflowUpdatedEvent;
+import com.atlassian.jira.workflow.JiraWorkflow;
+import com.atlassian.jira.workflow.WorkflowManager;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.BambooPlanRunner;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.TransitionReference;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.FunctionDescriptorUtilsImpl;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.PlanUsageIndexImpl;
+import com.opensymphony.workflow.loader.ActionDescriptor;
+import com.opensymphony.workflow.loader.FunctionDescriptor;
+import com.opensymphony.workflow.loader.ResultDescriptor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class PlanUsageIndexImplTest {
+
+    private static final String BAMBOO_APPLINK_ID = "a1b2c3d4-0000-1111-2222-333344445555";
+    private static final String PLAN_KEY = "PLAYG-VAR";
+
+    private final FunctionDescriptorUtilsImpl functionDescriptorUtils = new FunctionDescriptorUtilsImpl();
+    private WorkflowManager workflowManager;
+    private PlanUsageIndexImpl planUsageIndex;
+
+    @Before
+    public void setUp() {
+        workflowManager = mock(WorkflowManager.class);
+        planUsageIndex = new PlanUsageIndexImpl(workflowManager, mock(EventPublisher.class), functionDescriptorUtils);
+    }
+
+    @Test
+    public void should_find_transitions_running_plan() {
+        JiraWorkflow workflow = mockWorkflow("Software", action(11, "Start", postFunction(PLAN_KEY, "ISSUE")));
+        when(workflowManager.getWorkflows())
+                .thenReturn(Collections.singletonList(workflow));
+        planUsageIndex.afterPropertiesSet();
+
+        List<TransitionReference> transitions = planUsageIndex.getTransitions(BAMBOO_APPLINK_ID, PLAN_KEY, null);
+
+        assertEquals(1, transitions.size());
+        assertEquals("Software", transitions.get(0).getWorkflowName());
+        assertEquals("Start", transitions.get(0).getTransitionName());
+        assertEquals(Collections.singletonList("ISSUE"), transitions.get(0).getVariables());
+        assertTrue(planUsageIndex.getTransitions(BAMBOO_APPLINK_ID, "PLAYG-OTHER", null).isEmpty());
+    }
+
+    @Test
+    public void should_only_find_transitions_setting_variable() {
+        JiraWorkflow workflow = mockWorkflow("Software",
+                action(11, "Start", postFunction(PLAN_KEY, "ISSUE")),
+                action(21, "Done", postFunction(PLAN_KEY, "MESSAGE")));
+        when(workflowManager.getWorkflows())
+                .thenReturn(Collections.singletonList(workflow));
+        planUsageIndex.afterPropertiesSet();
+
+        List<TransitionReference> transitions = planUsageIndex.getTransitions(BAMBOO_APPLINK_ID, PLAN_KEY, "MESSAGE");
+
+        assertEquals(1, transitions.size());
+        assertEquals(21, transitions.get(0).getTransitionId());
+    }
+
+    @Test
+    public void should_update_index_on_workflow_save() {
+        JiraWorkflow workflow = mockWorkflow("Software", action(11, "Start", postFunction(PLAN_KEY, "ISSUE")));
+        when(workflowManager.getWorkflows())
+                .thenReturn(Collections.singletonList(workflow));
+        planUsageIndex.afterPropertiesSet();
+        planUsageIndex.getTransitions(BAMBOO_APPLINK_ID, PLAN_KEY, null);
+
+        JiraWorkflow savedWorkflow = mockWorkflow("Software", action(11, "Start", postFunction("PLAYG-OTHER", "ISSUE")));
+        when(workflowManager.getWorkflow("Software"))
+                .thenReturn(savedWorkflow);
+        WorkflowUpdatedEvent event = mock(WorkflowUpdatedEvent.class);
+        when(event.getWorkflow())
+                .thenReturn(savedWorkflow);
+        planUsageIndex.onWorkflowUpdated(event);
+
+        assertTrue(planUsageIndex.getTransitions(BAMBOO_APPLINK_ID, PLAN_KEY, null).isEmpty());
+        assertEquals(1, planUsageIndex.getTransitions(BAMBOO_APPLINK_ID, "PLAYG-OTHER", null).size());
+        verify(workflowManager, times(1)).getWorkflows();
+    }
+
+    @Test
+    public void should_remove_deleted_workflow() {
+        JiraWorkflow workflow = mockWorkflow("Software", action(11, "Start", postFunction(PLAN_KEY, "ISSUE")));
+        when(workflowManager.getWorkflows())
+                .thenReturn(Collections.singletonList(workflow));
+        planUsageIndex.afterPropertiesSet();
+        planUsageIndex.getTransitions(BAMBOO_APPLINK_ID, PLAN_KEY, null);
+
+        WorkflowDeletedEvent event = mock(WorkflowDeletedEvent.class);
+        when(event.getWorkflow())
+                .thenReturn(workflow);
+        planUsageIndex.onWorkflowDeleted(event);
+
+        assertTrue(planUsageIndex.getTransitions(BAMBOO_APPLINK_ID, PLAN_KEY, null).isEmpty());
+    }
+
+    @Test
+    public void should_tell_identical_post_functions_of_transition_apart() {
+        JiraWorkflow workflow = mockWorkflow("Software",
+                action(11, "Start", postFunction(PLAN_KEY, "ISSUE"), postFunction(PLAN_KEY, "ISSUE")));
+        when(workflowManager.getWorkflows())
+                .thenReturn(Collections.singletonList(workflow));
+        planUsageIndex.afterPropertiesSet();
+
+        List<TransitionReference> transitions = planUsageIndex.getTransitions(BAMBOO_APPLINK_ID, PLAN_KEY, null);
+
+        assertEquals(2, transitions.size());
+        assertEquals(1, transitions.get(0).getPostFunctionPosition());
+        assertEquals(2, transitions.get(1).getPostFunctionPosition());
+    }
+
+    @Test
+    public void should_not_index_outdated_workflow_saved_while_populating() {
+        JiraWorkflow workflow = mockWorkflow("Software", action(11, "Start", postFunction(PLAN_KEY, "ISSUE")));
+        JiraWorkflow savedWorkflow = mockWorkflow("Software", action(11, "Start", postFunction("PLAYG-OTHER", "ISSUE")));
+        when(workflowManager.getWorkflow("Software"))
+                .thenReturn(savedWorkflow);
+        WorkflowUpdatedEvent event = mock(WorkflowUpdatedEvent.class);
+        when(event.getWorkflow())
+                .thenReturn(savedWorkflow);
+        when(workflowManager.getWorkflows())
+                .thenAnswer(invocation -> {
+                    // Saved after the workflows were read, but before they are indexed
+                    List<JiraWorkflow> workflows = Collections.singletonList(workflow);
+                    planUsageIndex.onWorkflowUpdated(event);
+                    return workflows;
+                });
+        planUsageIndex.afterPropertiesSet();
+
+        assertTrue(planUsageIndex.getTransitions(BAMBOO_APPLINK_ID, PLAN_KEY, null).isEmpty());
+        assertEquals(1, planUsageIndex.getTransitions(BAMBOO_APPLINK_ID, "PLAYG-OTHER", null).size());
+    }
+
+    private static JiraWorkflow mockWorkflow(String name, ActionDescriptor... actions) {
+        JiraWorkflow workflow = mock(JiraWorkflow.class);
+        when(workflow.getName())
+                .thenReturn(name);
+        when(workflow.getAllActions())
+                .thenReturn(Arrays.asList(actions));
+        return workflow;
+    }
+
+    private static ActionDescriptor action(int id, String name, FunctionDescriptor... postFunctions) {
+        ResultDescriptor result = mock(ResultDescriptor.class);
+        when(result.getPostFunctions())
+                .thenReturn(Arrays.asList(postFunctions));
+        ActionDescriptor action = mock(ActionDescriptor.class);
+        when(action.getId())
+                .thenReturn(id);
+        when(action.getName())
+                .thenReturn(name);
+        when(action.getUnconditionalResult())
+                .thenReturn(result);
+        return action;
+    }
+
+    private FunctionDescriptor postFunction(String planKey, String variable) {
+        Map<String, String> args = new HashMap<>();
+        args.put("class.name", BambooPlanRunner.class.getName());
+        args.put("selected_applink", BAMBOO_APPLINK_ID);
+        args.put("selected_plan_for_" + BAMBOO_APPLINK_ID, BAMBOO_APPLINK_ID + "_" + planKey);
+        args.put("variables_to_use", functionDescriptorUtils.createStringFromList(
+                Collections.singletonList("use_" + BAMBOO_APPLINK_ID + "_" + planKey + "_" + variable)));
+        FunctionDescriptor functionDescriptor = mock(FunctionDescriptor.class);
+        when(functionDescriptor.getArgs())
+                .thenReturn(args);
+        return functionDescriptor;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ut.com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl;
+
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FieldTemplate;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.TemplateCompilerImpl;
+import org.apache.commons.lang.text.StrLookup;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TemplateCompilerImplTest {
+
+    private TemplateCompilerImpl templateCompiler;
+    private StrLookup fieldValues;
+
+    @Before
+    public void setUp() {
+        PluginConfiguration pluginConfiguration = mock(PluginConfiguration.class);
+        when(pluginConfiguration.getTemplateCacheSize())
+                .thenReturn(2);
+        templateCompiler = new TemplateCompilerImpl(pluginConfiguration);
+
+        Map<String, String> valuesByField = new HashMap<>();
+        valuesByField.put("issuekey", "TEST-1");
+        valuesByField.put("assignee", "admin");
+        valuesByField.put("summary", "Contains $(issuekey)");
+        fieldValues = StrLookup.mapLookup(valuesByField);
+    }
+
+    @Test
+    public void should_render_field_references() {
+        assertEquals("Fix TEST-1 by admin", render("Fix $(issuekey) by $(assignee)"));
+    }
+
+    @Test
+    public void should_not_resolve_references_in_field_values() {
+        assertEquals("Contains $(issuekey)", render("$(summary)"));
+    }
+
+    @Test
+    public void should_keep_escaped_unterminated_and_unknown_references() {
+        assertEquals("$(issuekey) is TEST-1", render("\\$(issuekey) is $(issuekey)"));
+        assertEquals("TEST-1 $(issuekey", render("$(issuekey) $(issuekey"));
+        assertEquals("$(unknown)", render("$(unknown)"));
+    }
+
+    @Test
+    public void should_merge_literals_into_one_segment() {
+        FieldTemplate template = templateCompiler.compile("a\\$(b) c");
+
+        assertTrue(template.isConstant());
+        assertEquals(1, template.getSegments().size());
+        assertEquals("a$(b) c", template.getSegments().get(0).getText());
+    }
+
+    @Test
+    public void should_cache_most_recently_used_templates() {
+        FieldTemplate issueKey = templateCompiler.compile("$(issuekey)");
+        FieldTemplate assignee = templateCompiler.compile("$(assignee)");
+        assertSame(issueKey, templateCompiler.compile("$(issuekey)"));
+
+        templateCompiler.compile("$(summary)");
+
+        assertSame(issueKey, templateCompiler.compile("$(issuekey)"));
+        assertNotSame(assignee, templateCompiler.compile("$(assignee)"));
+    }
+
+    private String render(String template) {
+        StringBuilder rendered = new StringBuilder();
+        templateCompiler.compile(template).renderTo(fieldValues, rendered);
+        return rendered.toString();
+    }
+}
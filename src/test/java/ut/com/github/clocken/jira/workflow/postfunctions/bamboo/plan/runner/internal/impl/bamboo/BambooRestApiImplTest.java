@@ -16,11 +16,13 @@
 
 package ut.com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
 
+import com.atlassian.applinks.api.ApplicationId;
 import com.atlassian.applinks.api.ApplicationLinkRequestFactory;
 import com.atlassian.applinks.api.CredentialsRequiredException;
 import com.atlassian.applinks.api.ReadOnlyApplicationLink;
 import com.atlassian.sal.api.net.Request;
 import com.atlassian.sal.api.net.ResponseException;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
 import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BambooRestApi;
 import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan;
 import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo.BambooRestApiImpl;
@@ -36,26 +38,39 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan.Builder.aPlan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
-import static org.junit.Assert.fail;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 public class BambooRestApiImplTest {
 
     private static final String BAMBOO_BASE_URL = "http://mock";
+    private static final String BAMBOO_APPLINK_ID = "a1b2c3d4-0000-1111-2222-333344445555";
+    private static final String PLAN_LIST_PATH = "/rest/api/latest/plan?start-index=0&max-result=25";
+    private static final String BULK_PLAN_LIST_PAGE_1_PATH =
+            "/rest/api/latest/plan?expand=plans.plan.variableContext&start-index=0&max-result=1";
+    private static final String BULK_PLAN_LIST_PAGE_2_PATH =
+            "/rest/api/latest/plan?expand=plans.plan.variableContext&start-index=1&max-result=1";
+    private static final String RESULT_LIST_PATH =
+            "/rest/api/latest/result/PLAYG-VAR?includeAllStates=true&expand=results.result.variables&max-result=100";
+    private static final String TRIGGER_ID = "0b5e7c1e-8d53-4a7e-9f3c-5b1f2a0d9e11";
 
     private static String planApiJsonResponse;
     private static String planVariableTestJsonResponse;
+    private static String expandedPlanApiPage1JsonResponse;
+    private static String expandedPlanApiPage2JsonResponse;
     private static Plan playgVarPlan;
+    private static Plan playgNovarPlan;
     private ApplicationLinkRequestFactory applicationLinkRequestFactory;
+    private PluginConfiguration pluginConfiguration;
     private ReadOnlyApplicationLink bambooApplicationLink;
     private BambooRestApi bambooRestApi;
 
@@ -72,29 +87,57 @@ public class BambooRestApiImplTest {
                 Paths.get("src", "test", "resources", "bamboo", "plans", "variable-test.json"))
                 .map(StringUtils::stripToEmpty)
                 .collect(Collectors.joining());
+        expandedPlanApiPage1JsonResponse = Files.lines(
+                Paths.get("src", "test", "resources", "bamboo", "bamboo-plan-api-expanded-response-page-1.json"))
+                .map(StringUtils::stripToEmpty)
+                .collect(Collectors.joining());
+        expandedPlanApiPage2JsonResponse = Files.lines(
+                Paths.get("src", "test", "resources", "bamboo", "bamboo-plan-api-expanded-response-page-2.json"))
+                .map(StringUtils::stripToEmpty)
+                .collect(Collectors.joining());
         playgVarPlan = aPlan()
                 .withKey("PLAYG-VAR")
                 .withName("variable-test")
                 .withLink(new URL(BAMBOO_BASE_URL + "/rest/api/latest/plan/PLAYG-VAR"))
                 .thatIsEnabled(true)
                 .withVariables(Arrays.asList("VARIABLE_TWO", "VARIABLE_ONE")).build();
+        playgNovarPlan = aPlan()
+                .withKey("PLAYG-NOVAR")
+                .withName("no-variables")
+                .withDescription("A plan without variables")
+                .withLink(new URL(BAMBOO_BASE_URL + "/rest/api/latest/plan/PLAYG-NOVAR"))
+                .thatIsEnabled(false)
+                .withVariables(Collections.emptyList()).build();
     }
 
     @Before
     public void setUp() throws URISyntaxException {
         applicationLinkRequestFactory = mock(ApplicationLinkRequestFactory.class);
         bambooApplicationLink = mock(ReadOnlyApplicationLink.class);
+        when(bambooApplicationLink.getId())
+                .thenReturn(new ApplicationId(BAMBOO_APPLINK_ID));
         when(bambooApplicationLink.getRpcUrl())
                 .thenReturn(new URI(BAMBOO_BASE_URL));
         when(bambooApplicationLink.createAuthenticatedRequestFactory())
                 .thenReturn(applicationLinkRequestFactory);
-        bambooRestApi = new BambooRestApiImpl();
+        pluginConfiguration = mock(PluginConfiguration.class);
+        when(pluginConfiguration.isBulkPlanFetchEnabled())
+                .thenReturn(false);
+        when(pluginConfiguration.getPlanPageSize())
+                .thenReturn(25);
+        when(pluginConfiguration.getCatalogRequestThreads())
+                .thenReturn(2);
+        when(pluginConfiguration.getCatalogRequestsPerApplink())
+                .thenReturn(2);
+        when(pluginConfiguration.getCatalogMaxResponseKilobytes())
+                .thenReturn(64);
+        bambooRestApi = new BambooRestApiImpl(pluginConfiguration);
     }
 
     @Test
     public void should_return_plans_from_bamboo_instance() throws CredentialsRequiredException, ResponseException {
         when(applicationLinkRequestFactory
-                .createRequest(Request.MethodType.GET, "/rest/api/latest/plan"))
+                .createRequest(Request.MethodType.GET, PLAN_LIST_PATH))
                 .thenReturn(new MockApplicationLinkRequest(
                         planApiJsonResponse,
                         200,
@@ -113,26 +156,173 @@ public class BambooRestApiImplTest {
     }
 
     @Test
-    public void should_queue_build_for_plan() throws CredentialsRequiredException {
+    public void should_return_all_pages_of_plans_in_bulk_from_bamboo_instance() throws CredentialsRequiredException, ResponseException {
+        when(pluginConfiguration.isBulkPlanFetchEnabled())
+                .thenReturn(true);
+        when(pluginConfiguration.getPlanPageSize())
+                .thenReturn(1);
         when(applicationLinkRequestFactory
-                .createRequest(Request.MethodType.POST, "/rest/api/latest/queue/PLAYG-VAR"))
+                .createRequest(Request.MethodType.GET, BULK_PLAN_LIST_PAGE_1_PATH))
+                .thenReturn(new MockApplicationLinkRequest(
+                        expandedPlanApiPage1JsonResponse,
+                        200,
+                        true));
+        when(applicationLinkRequestFactory
+                .createRequest(Request.MethodType.GET, BULK_PLAN_LIST_PAGE_2_PATH))
+                .thenReturn(new MockApplicationLinkRequest(
+                        expandedPlanApiPage2JsonResponse,
+                        200,
+                        true));
+        List<Plan> plans = bambooRestApi.plans(bambooApplicationLink);
+
+        assertEquals(Arrays.asList(playgVarPlan, playgNovarPlan), plans);
+        verify(applicationLinkRequestFactory, never())
+                .createRequest(Request.MethodType.GET, "/rest/api/latest/plan/PLAYG-VAR?expand=variableContext");
+    }
+
+    @Test(expected = ResponseException.class)
+    public void should_handle_an_unsuccessful_request_for_plans_in_bulk() throws CredentialsRequiredException, ResponseException {
+        when(pluginConfiguration.isBulkPlanFetchEnabled())
+                .thenReturn(true);
+        when(pluginConfiguration.getPlanPageSize())
+                .thenReturn(1);
+        when(applicationLinkRequestFactory
+                .createRequest(Request.MethodType.GET, BULK_PLAN_LIST_PAGE_1_PATH))
+                .thenReturn(new MockApplicationLinkRequest(
+                        expandedPlanApiPage1JsonResponse,
+                        200,
+                        true));
+        when(applicationLinkRequestFactory
+                .createRequest(Request.MethodType.GET, BULK_PLAN_LIST_PAGE_2_PATH))
                 .thenReturn(new MockApplicationLinkRequest(
                         StringUtils.EMPTY,
+                        500,
+                        false));
+        bambooRestApi.plans(bambooApplicationLink);
+    }
+
+    @Test
+    public void should_reuse_plans_if_response_content_is_unchanged() throws CredentialsRequiredException, ResponseException {
+        when(applicationLinkRequestFactory
+                .createRequest(Request.MethodType.GET, PLAN_LIST_PATH))
+                .thenReturn(new MockApplicationLinkRequest(
+                        planApiJsonResponse,
                         200,
-                        true
-                ));
+                        true));
+        when(applicationLinkRequestFactory
+                .createRequest(Request.MethodType.GET, "/rest/api/latest/plan/PLAYG-VAR?expand=variableContext"))
+                .thenReturn(new MockApplicationLinkRequest(
+                        planVariableTestJsonResponse,
+                        200,
+                        true));
+        Plan plan = bambooRestApi.plans(bambooApplicationLink).get(0);
+        Plan refreshedPlan = bambooRestApi.plans(bambooApplicationLink).get(0);
+
+        assertSame(plan, refreshedPlan);
+    }
+
+    @Test
+    public void should_revalidate_plans_with_etag() throws CredentialsRequiredException, ResponseException {
+        when(applicationLinkRequestFactory
+                .createRequest(Request.MethodType.GET, PLAN_LIST_PATH))
+                .thenReturn(new MockApplicationLinkRequest(
+                        planApiJsonResponse,
+                        200,
+                        true));
+        MockApplicationLinkRequest revalidationRequest = new MockApplicationLinkRequest(
+                StringUtils.EMPTY,
+                304,
+                false);
+        when(applicationLinkRequestFactory
+                .createRequest(Request.MethodType.GET, "/rest/api/latest/plan/PLAYG-VAR?expand=variableContext"))
+                .thenReturn(new MockApplicationLinkRequest(
+                        planVariableTestJsonResponse,
+                        200,
+                        true,
+                        Collections.singletonMap("ETag", "\"PLAYG-VAR-1\"")))
+                .thenReturn(revalidationRequest);
+        Plan plan = bambooRestApi.plans(bambooApplicationLink).get(0);
+        Plan revalidatedPlan = bambooRestApi.plans(bambooApplicationLink).get(0);
+
+        assertSame(plan, revalidatedPlan);
+        assertEquals(Collections.singletonList("\"PLAYG-VAR-1\""), revalidationRequest.getHeaders().get("If-None-Match"));
+    }
+
+    @Test(expected = ResponseException.class)
+    public void should_reject_a_response_exceeding_the_maximum_size() throws CredentialsRequiredException, ResponseException {
+        when(pluginConfiguration.getCatalogMaxResponseKilobytes())
+                .thenReturn(1);
+        when(applicationLinkRequestFactory
+                .createRequest(Request.MethodType.GET, PLAN_LIST_PATH))
+                .thenReturn(new MockApplicationLinkRequest(
+                        "{\"plans\":{\"size\":0,\"plan\":[]},\"padding\":\"" + StringUtils.repeat('x', 2048) + "\"}",
+                        200,
+                        true));
+        bambooRestApi.plans(bambooApplicationLink);
+    }
+
+    @Test
+    public void should_queue_build_for_plan_with_trigger_id_if_outbox_is_enabled() throws CredentialsRequiredException, ResponseException {
+        when(pluginConfiguration.isOutboxEnabled())
+                .thenReturn(true);
+        MockApplicationLinkRequest queueRequest = mockQueueRequest();
+
+        bambooRestApi.queueBuild(bambooApplicationLink, "PLAYG-VAR", Collections.singletonMap("ISSUE", "PROJ-1"), TRIGGER_ID);
+
+        verify(queueRequest).addRequestParameters(
+                "bamboo.variable.ISSUE", "PROJ-1",
+                "bamboo.variable.planRunnerTriggerId", TRIGGER_ID);
+    }
 
-        try {
-            bambooRestApi.queueBuild(bambooApplicationLink, "PLAYG-VAR", Collections.emptyMap());
-        } catch (ResponseException | CredentialsRequiredException e) {
-            fail(MessageFormat.format("Exception {0} should not have been thrown.", e));
-        }
+    @Test
+    public void should_queue_build_for_plan_without_trigger_id_if_outbox_is_disabled() throws CredentialsRequiredException, ResponseException {
+        when(pluginConfiguration.isOutboxEnabled())
+                .thenReturn(false);
+        MockApplicationLinkRequest queueRequest = mockQueueRequest();
+
+        bambooRestApi.queueBuild(bambooApplicationLink, "PLAYG-VAR", Collections.singletonMap("ISSUE", "PROJ-1"), TRIGGER_ID);
+
+        verify(queueRequest).addRequestParameters(
+                "bamboo.variable.ISSUE", "PROJ-1");
+    }
+
+    @Test
+    public void should_find_build_queued_by_trigger() throws CredentialsRequiredException, ResponseException {
+        when(pluginConfiguration.getOutboxVerifyResults())
+                .thenReturn(100);
+        when(applicationLinkRequestFactory
+                .createRequest(Request.MethodType.GET, RESULT_LIST_PATH))
+                .thenReturn(new MockApplicationLinkRequest(
+                        "{\"results\":{\"size\":2,\"result\":["
+                                + "{\"key\":\"PLAYG-VAR-2\",\"lifeCycleState\":\"Queued\",\"variables\":{\"size\":2,\"variable\":["
+                                + "{\"key\":\"ISSUE\",\"value\":\"PROJ-1\"},"
+                                + "{\"key\":\"planRunnerTriggerId\",\"value\":\"" + TRIGGER_ID + "\"}]}},"
+                                + "{\"key\":\"PLAYG-VAR-1\",\"lifeCycleState\":\"Finished\",\"variables\":{\"size\":0,\"variable\":[]}}"
+                                + "]}}",
+                        200,
+                        true));
+
+        assertTrue(bambooRestApi.isQueued(bambooApplicationLink, "PLAYG-VAR", TRIGGER_ID));
+        assertFalse(bambooRestApi.isQueued(bambooApplicationLink, "PLAYG-VAR", "7d1c9a2b-0000-4a7e-9f3c-5b1f2a0d9e11"));
+    }
+
+    @Test(expected = ResponseException.class)
+    public void should_handle_an_unsuccessful_request_for_results() throws CredentialsRequiredException, ResponseException {
+        when(pluginConfiguration.getOutboxVerifyResults())
+                .thenReturn(100);
+        when(applicationLinkRequestFactory
+                .createRequest(Request.MethodType.GET, RESULT_LIST_PATH))
+                .thenReturn(new MockApplicationLinkRequest(
+                        StringUtils.EMPTY,
+                        500,
+                        false));
+        bambooRestApi.isQueued(bambooApplicationLink, "PLAYG-VAR", TRIGGER_ID);
     }
 
     @Test(expected = ResponseException.class)
     public void should_handle_an_unsuccessful_request_for_plans() throws CredentialsRequiredException, ResponseException {
         when(applicationLinkRequestFactory
-                .createRequest(Request.MethodType.GET, "/rest/api/latest/plan"))
+                .createRequest(Request.MethodType.GET, PLAN_LIST_PATH))
                 .thenReturn(new MockApplicationLinkRequest(
                         StringUtils.EMPTY,
                         500,
@@ -143,7 +333,7 @@ public class BambooRestApiImplTest {
     @Test(expected = ResponseException.class)
     public void should_handle_an_unsuccessful_request_for_plan_details() throws CredentialsRequiredException, ResponseException {
         when(applicationLinkRequestFactory
-                .createRequest(Request.MethodType.GET, "/rest/api/latest/plan"))
+                .createRequest(Request.MethodType.GET, PLAN_LIST_PATH))
                 .thenReturn(new MockApplicationLinkRequest(
                         planApiJsonResponse,
                         200,
@@ -167,6 +357,18 @@ public class BambooRestApiImplTest {
                         500,
                         false
                 ));
-        bambooRestApi.queueBuild(bambooApplicationLink, "PLAYG-VAR", Collections.emptyMap());
+        bambooRestApi.queueBuild(bambooApplicationLink, "PLAYG-VAR", Collections.emptyMap(), TRIGGER_ID);
+    }
+
+    private MockApplicationLinkRequest mockQueueRequest() throws CredentialsRequiredException {
+        MockApplicationLinkRequest queueRequest = spy(new MockApplicationLinkRequest(
+                StringUtils.EMPTY,
+                200,
+                true
+        ));
+        when(applicationLinkRequestFactory
+                .createRequest(Request.MethodType.POST, "/rest/api/latest/queue/PLAYG-VAR"))
+                .thenReturn(queueRequest);
+        return queueRequest;
     }
 }
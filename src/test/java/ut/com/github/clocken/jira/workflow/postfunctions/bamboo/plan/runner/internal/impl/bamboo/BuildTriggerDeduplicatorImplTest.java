@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ut.com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTrigger;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo.BuildTriggerDeduplicatorImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTrigger.Builder.aBuildTrigger;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class BuildTriggerDeduplicatorImplTest {
+
+    private static final String PLAN_KEY = "PLAYG-VAR";
+
+    private ReadOnlyApplicationLink bambooApplink;
+    private PluginConfiguration pluginConfiguration;
+    private BuildTriggerDeduplicatorImpl buildTriggerDeduplicator;
+
+    @Before
+    public void setUp() {
+        bambooApplink = mock(ReadOnlyApplicationLink.class);
+        when(bambooApplink.getId())
+                .thenReturn(new ApplicationId("a1b2c3d4-0000-1111-2222-333344445555"));
+        pluginConfiguration = mock(PluginConfiguration.class);
+        when(pluginConfiguration.isDeduplicationEnabled())
+                .thenReturn(true);
+        when(pluginConfiguration.getDeduplicationWindowSeconds())
+                .thenReturn(60);
+        buildTriggerDeduplicator = new BuildTriggerDeduplicatorImpl(pluginConfiguration);
+    }
+
+    @Test
+    public void should_skip_same_plan_and_variables_of_other_issue() {
+        assertTrue(buildTriggerDeduplicator.claim(buildTrigger("PROJ-1", "VERSION", "1.0", "RELEASE", "true")));
+        assertFalse(buildTriggerDeduplicator.claim(buildTrigger("PROJ-2", "RELEASE", "true", "VERSION", "1.0")));
+    }
+
+    @Test
+    public void should_not_skip_other_variables() {
+        assertTrue(buildTriggerDeduplicator.claim(buildTrigger("PROJ-1", "VERSION", "1.0", "RELEASE", "true")));
+        assertTrue(buildTriggerDeduplicator.claim(buildTrigger("PROJ-1", "VERSION", "1.1", "RELEASE", "true")));
+    }
+
+    @Test
+    public void should_not_skip_after_release() {
+        BuildTrigger buildTrigger = buildTrigger("PROJ-1", "VERSION", "1.0", "RELEASE", "true");
+        assertTrue(buildTriggerDeduplicator.claim(buildTrigger));
+
+        buildTriggerDeduplicator.release(buildTrigger);
+
+        assertTrue(buildTriggerDeduplicator.claim(buildTrigger));
+    }
+
+    @Test
+    public void should_not_skip_if_disabled() {
+        when(pluginConfiguration.isDeduplicationEnabled())
+                .thenReturn(false);
+        buildTriggerDeduplicator = new BuildTriggerDeduplicatorImpl(pluginConfiguration);
+        BuildTrigger buildTrigger = buildTrigger("PROJ-1", "VERSION", "1.0", "RELEASE", "true");
+
+        assertTrue(buildTriggerDeduplicator.claim(buildTrigger));
+        assertTrue(buildTriggerDeduplicator.claim(buildTrigger));
+    }
+
+    private BuildTrigger buildTrigger(String issueKey, String... variablesAndValues) {
+        Map<String, String> valuesByVariable = new LinkedHashMap<>();
+        for (int i = 0; i < variablesAndValues.length; i += 2) {
+            valuesByVariable.put(variablesAndValues[i], variablesAndValues[i + 1]);
+        }
+        return aBuildTrigger()
+                .forApplink(bambooApplink)
+                .forPlan(PLAN_KEY)
+                .forIssue(issueKey)
+                .withValuesByVariable(valuesByVariable).build();
+    }
+}
@@ -0,0 +1,553 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ut.com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.CredentialsRequiredException;
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+import com.atlassian.applinks.api.ReadOnlyApplicationLinkService;
+import com.atlassian.jira.config.util.JiraHome;
+import com.atlassian.sal.api.net.Response;
+import com.atlassian.sal.api.net.ResponseException;
+import com.atlassian.sal.api.net.ResponseStatusException;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BambooRestApi;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTrigger;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTriggerDispatcher;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo.BuildTriggerDeduplicatorImpl;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo.BuildTriggerDispatcherImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BuildTrigger.Builder.aBuildTrigger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class BuildTriggerDispatcherImplTest {
+
+    private static final ApplicationId BAMBOO_APPLINK_ID = new ApplicationId("a1b2c3d4-0000-1111-2222-333344445555");
+    private static final String PLAN_KEY = "PLAYG-VAR";
+    private static final Map<String, String> VALUES_BY_VARIABLE = Collections.singletonMap("ISSUE", "PROJ-1");
+
+    @Rule
+    public TemporaryFolder jiraLocalHome = new TemporaryFolder();
+
+    private ReadOnlyApplicationLink bambooApplink;
+    private ReadOnlyApplicationLinkService applicationLinkService;
+    private JiraHome jiraHome;
+    private PluginConfiguration pluginConfiguration;
+    private BuildTriggerDispatcherImpl buildTriggerDispatcher;
+
+    @Before
+    public void setUp() {
+        bambooApplink = mock(ReadOnlyApplicationLink.class);
+        when(bambooApplink.getId())
+                .thenReturn(BAMBOO_APPLINK_ID);
+        applicationLinkService = mock(ReadOnlyApplicationLinkService.class);
+        when(applicationLinkService.getApplicationLink(BAMBOO_APPLINK_ID))
+                .thenReturn(bambooApplink);
+
+        jiraHome = mock(JiraHome.class);
+        when(jiraHome.getLocalHome())
+                .thenReturn(jiraLocalHome.getRoot());
+
+        pluginConfiguration = mock(PluginConfiguration.class);
+        when(pluginConfiguration.getDispatcherThreads())
+                .thenReturn(1);
+        when(pluginConfiguration.getDispatcherQueueCapacity())
+                .thenReturn(10);
+        when(pluginConfiguration.getDispatcherOverflowPolicy())
+                .thenReturn(BuildTriggerDispatcher.OverflowPolicy.CALLER_RUNS);
+        when(pluginConfiguration.getDispatcherRequestsPerApplink())
+                .thenReturn(2);
+        when(pluginConfiguration.getDispatcherBulkThreshold())
+                .thenReturn(100);
+        when(pluginConfiguration.isOutboxEnabled())
+                .thenReturn(true);
+        when(pluginConfiguration.getOutboxMaxAttempts())
+                .thenReturn(3);
+        when(pluginConfiguration.getOutboxRetryInitialSeconds())
+                .thenReturn(1);
+        when(pluginConfiguration.getOutboxRetryMaxSeconds())
+                .thenReturn(1);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException, IOException {
+        if (buildTriggerDispatcher != null) {
+            buildTriggerDispatcher.destroy();
+        }
+    }
+
+    @Test
+    public void should_drop_trigger_when_queue_is_full() throws CredentialsRequiredException, ResponseException {
+        BambooRestApi bambooRestApi = slowBambooRestApi(new ConcurrentHashMap<>());
+        buildTriggerDispatcher = startFullDispatcher(bambooRestApi, BuildTriggerDispatcher.OverflowPolicy.DROP);
+
+        buildTriggerDispatcher.dispatch(buildTrigger("PROJ-3", "PROJ-3"));
+
+        verify(bambooRestApi, timeout(5000)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(Collections.singletonMap("ISSUE", "PROJ-1")), anyString());
+        verify(bambooRestApi, timeout(5000)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(Collections.singletonMap("ISSUE", "PROJ-2")), anyString());
+        verify(bambooRestApi, after(500).never()).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(Collections.singletonMap("ISSUE", "PROJ-3")), anyString());
+    }
+
+    @Test
+    public void should_send_trigger_on_calling_thread_when_queue_is_full() throws CredentialsRequiredException, ResponseException {
+        Map<String, Thread> sendingThreads = new ConcurrentHashMap<>();
+        BambooRestApi bambooRestApi = slowBambooRestApi(sendingThreads);
+        buildTriggerDispatcher = startFullDispatcher(bambooRestApi, BuildTriggerDispatcher.OverflowPolicy.CALLER_RUNS);
+
+        buildTriggerDispatcher.dispatch(buildTrigger("PROJ-3", "PROJ-3"));
+
+        assertSame(Thread.currentThread(), sendingThreads.get("PROJ-3"));
+        verify(bambooRestApi, timeout(5000).times(3)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+    }
+
+    @Test
+    public void should_not_exceed_requests_per_applink_when_sending_on_calling_thread() throws CredentialsRequiredException, ResponseException {
+        AtomicInteger runningRequests = new AtomicInteger();
+        AtomicInteger maxRunningRequests = new AtomicInteger();
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        doAnswer(invocation -> {
+            maxRunningRequests.accumulateAndGet(runningRequests.incrementAndGet(), Math::max);
+            Thread.sleep(300);
+            runningRequests.decrementAndGet();
+            return null;
+        }).when(bambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+        buildTriggerDispatcher = startFullDispatcher(bambooRestApi, BuildTriggerDispatcher.OverflowPolicy.CALLER_RUNS);
+
+        buildTriggerDispatcher.dispatch(buildTrigger("PROJ-3", "PROJ-3"));
+
+        verify(bambooRestApi, timeout(5000).times(3)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+        assertEquals(1, maxRunningRequests.get());
+    }
+
+    @Test
+    public void should_keep_bulk_run_exceeding_queue_in_outbox_until_queue_has_room() throws CredentialsRequiredException, ResponseException, InterruptedException {
+        when(pluginConfiguration.getDispatcherBulkThreshold())
+                .thenReturn(3);
+        List<String> sentValues = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> sendingThreads = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch allSent = new CountDownLatch(6);
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        doAnswer(invocation -> {
+            Map<String, String> valuesByVariable = invocation.getArgument(2);
+            Thread.sleep(100);
+            sentValues.add(valuesByVariable.get("ISSUE"));
+            sendingThreads.add(Thread.currentThread());
+            allSent.countDown();
+            return null;
+        }).when(bambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+        buildTriggerDispatcher = startFullDispatcher(bambooRestApi, BuildTriggerDispatcher.OverflowPolicy.CALLER_RUNS);
+
+        for (int issue = 3; issue <= 6; issue++) {
+            buildTriggerDispatcher.dispatch(buildTrigger("PROJ-" + issue, "PROJ-" + issue));
+        }
+
+        assertTrue(allSent.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("PROJ-1", "PROJ-2", "PROJ-3", "PROJ-4", "PROJ-5", "PROJ-6"), sentValues);
+        assertFalse(sendingThreads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void should_block_calling_thread_until_queue_has_room() throws CredentialsRequiredException, ResponseException, InterruptedException, ExecutionException, TimeoutException {
+        BambooRestApi bambooRestApi = slowBambooRestApi(new ConcurrentHashMap<>());
+        buildTriggerDispatcher = startFullDispatcher(bambooRestApi, BuildTriggerDispatcher.OverflowPolicy.BLOCK);
+
+        CompletableFuture<Void> blockedDispatch = CompletableFuture.runAsync(() ->
+                buildTriggerDispatcher.dispatch(buildTrigger("PROJ-3", "PROJ-3")));
+
+        Thread.sleep(100);
+        assertFalse(blockedDispatch.isDone());
+        blockedDispatch.get(5, TimeUnit.SECONDS);
+        verify(bambooRestApi, timeout(5000).times(3)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+    }
+
+    @Test
+    public void should_send_trigger_again_after_server_error() throws CredentialsRequiredException, ResponseException {
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        doThrow(statusException(503))
+                .doNothing()
+                .when(bambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), anyString());
+        buildTriggerDispatcher = startDispatcher(bambooRestApi);
+
+        buildTriggerDispatcher.dispatch(buildTrigger());
+
+        verify(bambooRestApi, timeout(5000).times(2)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), anyString());
+        verify(bambooRestApi, never()).isQueued(any(), any(), any());
+    }
+
+    @Test
+    public void should_not_send_trigger_again_after_read_timeout_if_bamboo_queued_it() throws CredentialsRequiredException, ResponseException {
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        doThrow(new ResponseException("Read timed out"))
+                .when(bambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), anyString());
+        when(bambooRestApi.isQueued(eq(bambooApplink), eq(PLAN_KEY), anyString()))
+                .thenReturn(true);
+        buildTriggerDispatcher = startDispatcher(bambooRestApi);
+
+        buildTriggerDispatcher.dispatch(buildTrigger());
+
+        ArgumentCaptor<String> triggerId = ArgumentCaptor.forClass(String.class);
+        verify(bambooRestApi, timeout(5000)).isQueued(eq(bambooApplink), eq(PLAN_KEY), triggerId.capture());
+        verify(bambooRestApi, after(500).times(1)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), eq(triggerId.getValue()));
+    }
+
+    @Test
+    public void should_not_look_up_trigger_sent_without_id_if_outbox_is_disabled() throws CredentialsRequiredException, ResponseException {
+        when(pluginConfiguration.isOutboxEnabled())
+                .thenReturn(false);
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        doThrow(new ResponseException("Read timed out"))
+                .doNothing()
+                .when(bambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), anyString());
+        buildTriggerDispatcher = startDispatcher(bambooRestApi);
+
+        buildTriggerDispatcher.dispatch(buildTrigger());
+
+        verify(bambooRestApi, timeout(5000).times(2)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), anyString());
+        verify(bambooRestApi, never()).isQueued(any(), any(), any());
+    }
+
+    @Test
+    public void should_send_trigger_being_sent_before_restart_again_if_bamboo_did_not_queue_it() throws CredentialsRequiredException, ResponseException, InterruptedException, IOException {
+        when(pluginConfiguration.getOutboxRetryInitialSeconds())
+                .thenReturn(600);
+        when(pluginConfiguration.getOutboxRetryMaxSeconds())
+                .thenReturn(600);
+        BambooRestApi timingOutBambooRestApi = mock(BambooRestApi.class);
+        doThrow(new ResponseException("Read timed out"))
+                .when(timingOutBambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), anyString());
+        BuildTriggerDispatcherImpl stoppedBuildTriggerDispatcher = startDispatcher(timingOutBambooRestApi);
+        stoppedBuildTriggerDispatcher.dispatch(buildTrigger());
+        ArgumentCaptor<String> triggerId = ArgumentCaptor.forClass(String.class);
+        verify(timingOutBambooRestApi, timeout(5000)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), triggerId.capture());
+        stoppedBuildTriggerDispatcher.destroy();
+
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        buildTriggerDispatcher = startDispatcher(bambooRestApi);
+
+        verify(bambooRestApi, timeout(5000)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), eq(triggerId.getValue()));
+        verify(bambooRestApi).isQueued(bambooApplink, PLAN_KEY, triggerId.getValue());
+    }
+
+    @Test
+    public void should_not_send_trigger_being_sent_before_restart_again_if_bamboo_queued_it() throws CredentialsRequiredException, ResponseException, InterruptedException, IOException {
+        when(pluginConfiguration.getOutboxRetryInitialSeconds())
+                .thenReturn(600);
+        when(pluginConfiguration.getOutboxRetryMaxSeconds())
+                .thenReturn(600);
+        BambooRestApi timingOutBambooRestApi = mock(BambooRestApi.class);
+        doThrow(new ResponseException("Read timed out"))
+                .when(timingOutBambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), anyString());
+        BuildTriggerDispatcherImpl stoppedBuildTriggerDispatcher = startDispatcher(timingOutBambooRestApi);
+        stoppedBuildTriggerDispatcher.dispatch(buildTrigger());
+        verify(timingOutBambooRestApi, timeout(5000)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), anyString());
+        stoppedBuildTriggerDispatcher.destroy();
+
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        when(bambooRestApi.isQueued(eq(bambooApplink), eq(PLAN_KEY), anyString()))
+                .thenReturn(true);
+        buildTriggerDispatcher = startDispatcher(bambooRestApi);
+
+        verify(bambooRestApi, timeout(5000)).isQueued(eq(bambooApplink), eq(PLAN_KEY), anyString());
+        verify(bambooRestApi, after(500).never()).queueBuild(any(), any(), any(), anyString());
+    }
+
+    @Test
+    public void should_send_pending_trigger_after_restart() throws CredentialsRequiredException, ResponseException, InterruptedException, IOException {
+        when(pluginConfiguration.getOutboxRetryInitialSeconds())
+                .thenReturn(600);
+        when(pluginConfiguration.getOutboxRetryMaxSeconds())
+                .thenReturn(600);
+        BambooRestApi unavailableBambooRestApi = mock(BambooRestApi.class);
+        doThrow(statusException(503))
+                .when(unavailableBambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), anyString());
+        BuildTriggerDispatcherImpl stoppedBuildTriggerDispatcher = startDispatcher(unavailableBambooRestApi);
+        stoppedBuildTriggerDispatcher.dispatch(buildTrigger());
+        verify(unavailableBambooRestApi, timeout(5000)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), anyString());
+        stoppedBuildTriggerDispatcher.destroy();
+
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        buildTriggerDispatcher = startDispatcher(bambooRestApi);
+
+        verify(bambooRestApi, timeout(5000)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), anyString());
+    }
+
+    @Test
+    public void should_read_pending_triggers_from_outbox_after_restart_as_queue_has_room() throws CredentialsRequiredException, ResponseException, InterruptedException, IOException {
+        when(pluginConfiguration.getOutboxRetryInitialSeconds())
+                .thenReturn(600);
+        when(pluginConfiguration.getOutboxRetryMaxSeconds())
+                .thenReturn(600);
+        BambooRestApi unavailableBambooRestApi = mock(BambooRestApi.class);
+        doThrow(statusException(503))
+                .when(unavailableBambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+        BuildTriggerDispatcherImpl stoppedBuildTriggerDispatcher = startDispatcher(unavailableBambooRestApi);
+        for (int issue = 1; issue <= 4; issue++) {
+            stoppedBuildTriggerDispatcher.dispatch(buildTrigger("PROJ-" + issue, "PROJ-" + issue));
+        }
+        verify(unavailableBambooRestApi, timeout(5000).times(4)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+        stoppedBuildTriggerDispatcher.destroy();
+
+        List<String> sentValues = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch allSent = new CountDownLatch(5);
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        doAnswer(invocation -> {
+            Map<String, String> valuesByVariable = invocation.getArgument(2);
+            Thread.sleep(100);
+            sentValues.add(valuesByVariable.get("ISSUE"));
+            allSent.countDown();
+            return null;
+        }).when(bambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+        when(pluginConfiguration.getDispatcherQueueCapacity())
+                .thenReturn(1);
+        when(pluginConfiguration.getDispatcherRequestsPerApplink())
+                .thenReturn(1);
+        when(pluginConfiguration.getDispatcherOverflowPolicy())
+                .thenReturn(BuildTriggerDispatcher.OverflowPolicy.DROP);
+        buildTriggerDispatcher = startDispatcher(bambooRestApi);
+
+        buildTriggerDispatcher.dispatch(buildTrigger("PROJ-5", "PROJ-5"));
+
+        assertTrue(allSent.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("PROJ-1", "PROJ-2", "PROJ-3", "PROJ-4", "PROJ-5"), sentValues);
+    }
+
+    @Test
+    public void should_count_triggers_waiting_to_be_sent_again_against_queue() throws CredentialsRequiredException, ResponseException {
+        when(pluginConfiguration.getOutboxRetryInitialSeconds())
+                .thenReturn(600);
+        when(pluginConfiguration.getOutboxRetryMaxSeconds())
+                .thenReturn(600);
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        doThrow(statusException(503))
+                .when(bambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+        buildTriggerDispatcher = startFullDispatcher(bambooRestApi, BuildTriggerDispatcher.OverflowPolicy.DROP);
+        verify(bambooRestApi, timeout(5000).times(2)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+
+        buildTriggerDispatcher.dispatch(buildTrigger("PROJ-3", "PROJ-3"));
+
+        verify(bambooRestApi, after(500).never()).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(Collections.singletonMap("ISSUE", "PROJ-3")), anyString());
+    }
+
+    @Test
+    public void should_not_send_rejected_trigger_again() throws CredentialsRequiredException, ResponseException, InterruptedException, IOException {
+        BambooRestApi rejectingBambooRestApi = mock(BambooRestApi.class);
+        doThrow(statusException(404))
+                .when(rejectingBambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), anyString());
+        BuildTriggerDispatcherImpl stoppedBuildTriggerDispatcher = startDispatcher(rejectingBambooRestApi);
+        stoppedBuildTriggerDispatcher.dispatch(buildTrigger());
+        verify(rejectingBambooRestApi, timeout(5000)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), anyString());
+        stoppedBuildTriggerDispatcher.destroy();
+
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        buildTriggerDispatcher = startDispatcher(bambooRestApi);
+
+        verify(bambooRestApi, after(500).never()).queueBuild(any(), any(), any(), anyString());
+        verify(rejectingBambooRestApi, times(1)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), anyString());
+    }
+
+    @Test
+    public void should_only_send_last_trigger_within_debounce_time() throws CredentialsRequiredException, ResponseException {
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        buildTriggerDispatcher = startDispatcher(bambooRestApi);
+        Map<String, String> laterValuesByVariable = Collections.singletonMap("ISSUE", "PROJ-2");
+
+        buildTriggerDispatcher.dispatch(aBuildTrigger()
+                .forApplink(bambooApplink)
+                .forPlan(PLAN_KEY)
+                .forIssue("PROJ-1")
+                .debouncedFor(1)
+                .withValuesByVariable(VALUES_BY_VARIABLE).build());
+        buildTriggerDispatcher.dispatch(aBuildTrigger()
+                .forApplink(bambooApplink)
+                .forPlan(PLAN_KEY)
+                .forIssue("PROJ-1")
+                .debouncedFor(1)
+                .withValuesByVariable(laterValuesByVariable).build());
+
+        verify(bambooRestApi, timeout(5000)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(laterValuesByVariable), anyString());
+        verify(bambooRestApi, never()).queueBuild(eq(bambooApplink), eq(PLAN_KEY), eq(VALUES_BY_VARIABLE), anyString());
+    }
+
+    @Test
+    public void should_not_send_debounced_trigger_on_scheduler_thread_when_queue_is_full() throws CredentialsRequiredException, ResponseException, InterruptedException {
+        Map<String, Thread> sendingThreads = new ConcurrentHashMap<>();
+        CountDownLatch bambooAvailable = new CountDownLatch(1);
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        doAnswer(invocation -> {
+            Map<String, String> valuesByVariable = invocation.getArgument(2);
+            sendingThreads.put(valuesByVariable.get("ISSUE"), Thread.currentThread());
+            bambooAvailable.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(bambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+        buildTriggerDispatcher = startFullDispatcher(bambooRestApi, BuildTriggerDispatcher.OverflowPolicy.CALLER_RUNS);
+
+        buildTriggerDispatcher.dispatch(aBuildTrigger()
+                .forApplink(bambooApplink)
+                .forPlan(PLAN_KEY)
+                .forIssue("PROJ-3")
+                .debouncedFor(1)
+                .withValuesByVariable(Collections.singletonMap("ISSUE", "PROJ-3")).build());
+        Thread.sleep(1500);
+        bambooAvailable.countDown();
+
+        verify(bambooRestApi, timeout(5000).times(3)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+        assertFalse(sendingThreads.get("PROJ-3").getName().contains("dispatcher-scheduler"));
+    }
+
+    @Test
+    public void should_limit_concurrent_requests_per_applink() throws CredentialsRequiredException, ResponseException {
+        when(pluginConfiguration.getDispatcherThreads())
+                .thenReturn(4);
+        when(pluginConfiguration.getDispatcherBulkThreshold())
+                .thenReturn(3);
+        AtomicInteger runningRequests = new AtomicInteger();
+        AtomicInteger maxRunningRequests = new AtomicInteger();
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        doAnswer(invocation -> {
+            maxRunningRequests.accumulateAndGet(runningRequests.incrementAndGet(), Math::max);
+            Thread.sleep(100);
+            runningRequests.decrementAndGet();
+            return null;
+        }).when(bambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+        buildTriggerDispatcher = startDispatcher(bambooRestApi);
+
+        for (int issue = 1; issue <= 6; issue++) {
+            buildTriggerDispatcher.dispatch(aBuildTrigger()
+                    .forApplink(bambooApplink)
+                    .forPlan(PLAN_KEY)
+                    .forIssue("PROJ-" + issue)
+                    .withValuesByVariable(Collections.singletonMap("ISSUE", "PROJ-" + issue)).build());
+        }
+
+        verify(bambooRestApi, timeout(5000).times(6)).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+        assertEquals(2, maxRunningRequests.get());
+    }
+
+    @Test
+    public void should_send_triggers_of_an_issue_in_order_without_holding_up_other_issues() throws CredentialsRequiredException, ResponseException, InterruptedException {
+        when(pluginConfiguration.getDispatcherThreads())
+                .thenReturn(4);
+        List<String> sentValues = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch allSent = new CountDownLatch(4);
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        doAnswer(invocation -> {
+            Map<String, String> valuesByVariable = invocation.getArgument(2);
+            if ("PROJ-1 first".equals(valuesByVariable.get("ISSUE"))) {
+                Thread.sleep(300);
+            }
+            sentValues.add(valuesByVariable.get("ISSUE"));
+            allSent.countDown();
+            return null;
+        }).when(bambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+        buildTriggerDispatcher = startDispatcher(bambooRestApi);
+
+        buildTriggerDispatcher.dispatch(buildTrigger("PROJ-1", "PROJ-1 first"));
+        buildTriggerDispatcher.dispatch(buildTrigger("PROJ-1", "PROJ-1 second"));
+        buildTriggerDispatcher.dispatch(buildTrigger("PROJ-1", "PROJ-1 third"));
+        buildTriggerDispatcher.dispatch(buildTrigger("PROJ-2", "PROJ-2 first"));
+
+        assertTrue(allSent.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("PROJ-2 first", "PROJ-1 first", "PROJ-1 second", "PROJ-1 third"), sentValues);
+    }
+
+    /**
+     * Starts a dispatcher with room for two triggers only and fills it with the triggers of PROJ-1 and PROJ-2.
+     */
+    private BuildTriggerDispatcherImpl startFullDispatcher(BambooRestApi bambooRestApi,
+                                                           BuildTriggerDispatcher.OverflowPolicy overflowPolicy) {
+        when(pluginConfiguration.getDispatcherQueueCapacity())
+                .thenReturn(1);
+        when(pluginConfiguration.getDispatcherRequestsPerApplink())
+                .thenReturn(1);
+        when(pluginConfiguration.getDispatcherOverflowPolicy())
+                .thenReturn(overflowPolicy);
+        BuildTriggerDispatcherImpl dispatcher = startDispatcher(bambooRestApi);
+        dispatcher.dispatch(buildTrigger("PROJ-1", "PROJ-1"));
+        dispatcher.dispatch(buildTrigger("PROJ-2", "PROJ-2"));
+        return dispatcher;
+    }
+
+    /**
+     * @return a Bamboo REST API taking 300 milliseconds per build request and remembering the thread sending it per
+     * value of the ISSUE variable
+     */
+    private BambooRestApi slowBambooRestApi(Map<String, Thread> sendingThreads) throws CredentialsRequiredException, ResponseException {
+        BambooRestApi bambooRestApi = mock(BambooRestApi.class);
+        doAnswer(invocation -> {
+            Map<String, String> valuesByVariable = invocation.getArgument(2);
+            sendingThreads.put(valuesByVariable.get("ISSUE"), Thread.currentThread());
+            Thread.sleep(300);
+            return null;
+        }).when(bambooRestApi).queueBuild(eq(bambooApplink), eq(PLAN_KEY), any(), anyString());
+        return bambooRestApi;
+    }
+
+    private BuildTriggerDispatcherImpl startDispatcher(BambooRestApi bambooRestApi) {
+        BuildTriggerDispatcherImpl dispatcher = new BuildTriggerDispatcherImpl(bambooRestApi,
+                new BuildTriggerDeduplicatorImpl(pluginConfiguration), applicationLinkService,
+                jiraHome, pluginConfiguration);
+        dispatcher.afterPropertiesSet();
+        return dispatcher;
+    }
+
+    private BuildTrigger buildTrigger() {
+        return aBuildTrigger()
+                .forApplink(bambooApplink)
+                .forPlan(PLAN_KEY)
+                .forIssue("PROJ-1")
+                .withValuesByVariable(VALUES_BY_VARIABLE).build();
+    }
+
+    private BuildTrigger buildTrigger(String issueKey, String issueValue) {
+        return aBuildTrigger()
+                .forApplink(bambooApplink)
+                .forPlan(PLAN_KEY)
+                .forIssue(issueKey)
+                .withValuesByVariable(Collections.singletonMap("ISSUE", issueValue)).build();
+    }
+
+    private static ResponseStatusException statusException(int statusCode) {
+        Response response = mock(Response.class);
+        when(response.getStatusCode())
+                .thenReturn(statusCode);
+        return new ResponseStatusException("Status code is " + statusCode, response);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ut.com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo.ConfigurationRegistryImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ConfigurationRegistryImplTest {
+
+    private static final String BAMBOO_APPLINK_ID = "a1b2c3d4-0000-1111-2222-333344445555";
+
+    private ConfigurationRegistryImpl configurationRegistry;
+    private Map<String, String> args;
+
+    @Before
+    public void setUp() {
+        PluginConfiguration pluginConfiguration = mock(PluginConfiguration.class);
+        when(pluginConfiguration.getConfigurationRegistrySize())
+                .thenReturn(2);
+        configurationRegistry = new ConfigurationRegistryImpl(pluginConfiguration);
+
+        args = new HashMap<>();
+        args.put("selected_applink", BAMBOO_APPLINK_ID);
+        args.put("selected_plan_for_" + BAMBOO_APPLINK_ID, BAMBOO_APPLINK_ID + "_PLAYG-VAR");
+        args.put("variables_to_use", "v2:dXNl");
+        args.put("selected_value_types_by_variable", "v2:");
+        args.put("selected_values_by_variable", "v2:");
+    }
+
+    @Test
+    public void should_register_identical_configurations_once() {
+        String configurationId = configurationRegistry.register(args);
+        Map<String, String> configuration = configurationRegistry.getConfiguration(configurationId).orElseThrow(AssertionError::new);
+
+        assertEquals(configurationId, configurationRegistry.register(new HashMap<>(args)));
+        assertSame(configuration, configurationRegistry.getConfiguration(configurationId).orElse(null));
+    }
+
+    @Test
+    public void should_ignore_arguments_added_by_jira() {
+        String configurationId = configurationRegistry.register(args);
+
+        args.put("class.name", "com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.BambooPlanRunner");
+
+        assertEquals(configurationId, configurationRegistry.register(args));
+        assertFalse(configurationRegistry.getConfiguration(configurationId).orElseThrow(AssertionError::new)
+                .containsKey("class.name"));
+    }
+
+    @Test
+    public void should_register_changed_configuration_with_new_id() {
+        String configurationId = configurationRegistry.register(args);
+
+        args.put("selected_plan_for_" + BAMBOO_APPLINK_ID, BAMBOO_APPLINK_ID + "_PLAYG-OTHER");
+
+        assertNotEquals(configurationId, configurationRegistry.register(args));
+    }
+
+    @Test
+    public void should_not_get_unregistered_configuration() {
+        assertFalse(configurationRegistry.getConfiguration("unknown").isPresent());
+    }
+
+    @Test
+    public void should_trust_stored_id_of_matching_configuration() {
+        args.put("configuration_id", configurationRegistry.register(args));
+
+        assertEquals(args.get("configuration_id"), configurationRegistry.getConfigurationId(args));
+    }
+
+    @Test
+    public void should_recompute_stale_id() {
+        String configurationId = configurationRegistry.register(args);
+        args.put("selected_plan_for_" + BAMBOO_APPLINK_ID, BAMBOO_APPLINK_ID + "_PLAYG-OTHER");
+        args.put("configuration_id", configurationId);
+
+        String recomputedId = configurationRegistry.getConfigurationId(args);
+
+        assertNotEquals(configurationId, recomputedId);
+        assertEquals(BAMBOO_APPLINK_ID + "_PLAYG-OTHER", configurationRegistry.getConfiguration(recomputedId)
+                .orElseThrow(AssertionError::new).get("selected_plan_for_" + BAMBOO_APPLINK_ID));
+    }
+
+    @Test
+    public void should_verify_stored_id_once_per_descriptor() {
+        Map<String, String> descriptorArgs = spy(new HashMap<>(args));
+        descriptorArgs.put("configuration_id", configurationRegistry.register(args));
+        String configurationId = configurationRegistry.getConfigurationId(descriptorArgs);
+        clearInvocations(descriptorArgs);
+
+        assertEquals(configurationId, configurationRegistry.getConfigurationId(descriptorArgs));
+        verify(descriptorArgs, never()).get("selected_values_by_variable");
+    }
+
+    @Test
+    public void should_verify_stored_id_again_once_it_changed() {
+        args.put("configuration_id", "outdated");
+        String configurationId = configurationRegistry.getConfigurationId(args);
+        args.put("selected_plan_for_" + BAMBOO_APPLINK_ID, BAMBOO_APPLINK_ID + "_PLAYG-OTHER");
+        args.put("configuration_id", configurationRegistry.register(args));
+
+        assertNotEquals(configurationId, configurationRegistry.getConfigurationId(args));
+        assertEquals(args.get("configuration_id"), configurationRegistry.getConfigurationId(args));
+    }
+
+    @Test
+    public void should_forget_least_recently_used_configuration() {
+        String configurationId = configurationRegistry.register(args);
+        for (String plan : new String[]{"PLAYG-A", "PLAYG-B"}) {
+            Map<String, String> otherArgs = new HashMap<>(args);
+            otherArgs.put("selected_plan_for_" + BAMBOO_APPLINK_ID, BAMBOO_APPLINK_ID + "_" + plan);
+            configurationRegistry.register(otherArgs);
+        }
+
+        assertFalse(configurationRegistry.getConfiguration(configurationId).isPresent());
+        assertEquals(configurationId, configurationRegistry.getConfigurationId(args));
+        assertTrue(configurationRegistry.getConfiguration(configurationId).isPresent());
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ut.com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.CredentialsRequiredException;
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+import com.atlassian.applinks.api.ReadOnlyApplicationLinkService;
+import com.atlassian.applinks.api.event.ApplicationLinkDeletedEvent;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.config.util.JiraHome;
+import com.atlassian.sal.api.net.ResponseException;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.BambooRestApi;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalogSnapshot;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo.PlanCatalogImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan.Builder.aPlan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class PlanCatalogImplTest {
+
+    private static final String CATALOG_FILE = "caches/bamboo-plan-runner/plan-catalog.bin";
+    private static final ApplicationId BAMBOO_APPLINK_ID_1 = new ApplicationId("a1b2c3d4-0000-1111-2222-333344445555");
+    private static final ApplicationId BAMBOO_APPLINK_ID_2 = new ApplicationId("a1b2c3d4-0000-1111-2222-666677778888");
+    private static final List<Plan> PLANS_1 = Collections.singletonList(aPlan()
+            .withKey("PLAYG-VAR")
+            .withName("variable-test")
+            .thatIsEnabled(true)
+            .withVariables(Arrays.asList("VARIABLE_TWO", "VARIABLE_ONE")).build());
+    private static final List<Plan> PLANS_2 = Collections.singletonList(aPlan()
+            .withKey("PLAYG-NOVAR")
+            .withName("no-variables")
+            .thatIsEnabled(true)
+            .withVariables(Collections.emptyList()).build());
+
+    @Rule
+    public TemporaryFolder jiraLocalHome = new TemporaryFolder();
+
+    private ReadOnlyApplicationLink bambooApplink1;
+    private ReadOnlyApplicationLink bambooApplink2;
+    private ReadOnlyApplicationLinkService applicationLinkService;
+    private JiraHome jiraHome;
+    private BambooRestApi bambooRestApi;
+    private PluginConfiguration pluginConfiguration;
+    private PlanCatalogImpl planCatalog;
+
+    @Before
+    public void setUp() throws CredentialsRequiredException, ResponseException {
+        bambooApplink1 = mockApplink(BAMBOO_APPLINK_ID_1);
+        bambooApplink2 = mockApplink(BAMBOO_APPLINK_ID_2);
+        applicationLinkService = mock(ReadOnlyApplicationLinkService.class);
+        when(applicationLinkService.getApplicationLink(BAMBOO_APPLINK_ID_1))
+                .thenReturn(bambooApplink1);
+        when(applicationLinkService.getApplicationLink(BAMBOO_APPLINK_ID_2))
+                .thenReturn(bambooApplink2);
+
+        bambooRestApi = mock(BambooRestApi.class);
+        when(bambooRestApi.plans(bambooApplink1))
+                .thenReturn(PLANS_1);
+        when(bambooRestApi.plans(bambooApplink2))
+                .thenReturn(PLANS_2);
+
+        pluginConfiguration = mock(PluginConfiguration.class);
+        when(pluginConfiguration.getCatalogLoaderThreads())
+                .thenReturn(2);
+        when(pluginConfiguration.getCatalogLoadTimeoutSeconds())
+                .thenReturn(10);
+        when(pluginConfiguration.getCatalogTtlSeconds())
+                .thenReturn(300);
+        when(pluginConfiguration.getCatalogMaxStaleSeconds())
+                .thenReturn(3600);
+
+        jiraHome = mock(JiraHome.class);
+        when(jiraHome.getLocalHome())
+                .thenReturn(jiraLocalHome.getRoot());
+
+        planCatalog = createPlanCatalog();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        planCatalog.destroy();
+    }
+
+    @Test
+    public void should_return_plans_in_applink_order() {
+        Map<ApplicationId, List<Plan>> plansByApplink =
+                planCatalog.getPlansByApplink(Arrays.asList(bambooApplink2, bambooApplink1));
+
+        assertEquals(Arrays.asList(BAMBOO_APPLINK_ID_2, BAMBOO_APPLINK_ID_1), Arrays.asList(plansByApplink.keySet().toArray()));
+        assertEquals(PLANS_2, plansByApplink.get(BAMBOO_APPLINK_ID_2));
+        assertEquals(PLANS_1, plansByApplink.get(BAMBOO_APPLINK_ID_1));
+    }
+
+    @Test
+    public void should_serve_cached_plans_within_ttl() throws CredentialsRequiredException, ResponseException {
+        planCatalog.getPlansByApplink(Collections.singletonList(bambooApplink1));
+        Map<ApplicationId, List<Plan>> plansByApplink = planCatalog.getPlansByApplink(Collections.singletonList(bambooApplink1));
+
+        assertEquals(PLANS_1, plansByApplink.get(BAMBOO_APPLINK_ID_1));
+        verify(bambooRestApi, times(1)).plans(bambooApplink1);
+    }
+
+    @Test
+    public void should_fetch_plans_again_after_invalidation() throws CredentialsRequiredException, ResponseException {
+        planCatalog.getPlansByApplink(Collections.singletonList(bambooApplink1));
+        planCatalog.invalidate(BAMBOO_APPLINK_ID_1);
+        planCatalog.getPlansByApplink(Collections.singletonList(bambooApplink1));
+
+        verify(bambooRestApi, times(2)).plans(bambooApplink1);
+    }
+
+    @Test
+    public void should_evict_plans_of_deleted_applink() {
+        planCatalog.getPlansByApplink(Arrays.asList(bambooApplink1, bambooApplink2));
+        ApplicationLinkDeletedEvent applicationLinkDeletedEvent = mock(ApplicationLinkDeletedEvent.class);
+        when(applicationLinkDeletedEvent.getApplicationId())
+                .thenReturn(BAMBOO_APPLINK_ID_1);
+
+        planCatalog.onApplicationLinkDeleted(applicationLinkDeletedEvent);
+
+        assertFalse(planCatalog.getCachedPlans(BAMBOO_APPLINK_ID_1).isPresent());
+        assertEquals(PLANS_2, planCatalog.getCachedPlans(BAMBOO_APPLINK_ID_2).orElse(null));
+    }
+
+    @Test
+    public void should_leave_out_applink_that_fails() throws CredentialsRequiredException, ResponseException {
+        when(bambooRestApi.plans(bambooApplink1))
+                .thenThrow(new ResponseException("Bamboo is down"));
+
+        Map<ApplicationId, List<Plan>> plansByApplink =
+                planCatalog.getPlansByApplink(Arrays.asList(bambooApplink1, bambooApplink2));
+
+        assertEquals(Collections.singletonMap(BAMBOO_APPLINK_ID_2, PLANS_2), plansByApplink);
+    }
+
+    @Test
+    public void should_remember_catalog_version_of_each_applink() {
+        long initialVersion = planCatalog.getSnapshot().getVersion();
+
+        planCatalog.getPlansByApplink(Collections.singletonList(bambooApplink1));
+        planCatalog.getPlansByApplink(Collections.singletonList(bambooApplink2));
+        PlanCatalogSnapshot snapshot = planCatalog.getSnapshot();
+
+        assertEquals(initialVersion + 2, snapshot.getVersion());
+        assertEquals(initialVersion + 1, snapshot.getEntry(BAMBOO_APPLINK_ID_1).map(PlanCatalogSnapshot.Entry::getVersion).orElse(-1L).longValue());
+        assertEquals(initialVersion + 2, snapshot.getEntry(BAMBOO_APPLINK_ID_2).map(PlanCatalogSnapshot.Entry::getVersion).orElse(-1L).longValue());
+    }
+
+    @Test
+    public void should_restore_persisted_plans_after_restart() throws CredentialsRequiredException, ResponseException, InterruptedException {
+        when(pluginConfiguration.isCatalogPersistenceEnabled())
+                .thenReturn(true);
+        PlanCatalogImpl persistingPlanCatalog = createPlanCatalog();
+        persistingPlanCatalog.afterPropertiesSet();
+        persistingPlanCatalog.getPlansByApplink(Arrays.asList(bambooApplink1, bambooApplink2));
+        persistingPlanCatalog.destroy();
+
+        when(bambooRestApi.plans(any()))
+                .thenThrow(new ResponseException("Bamboo is down"));
+        PlanCatalogImpl restartedPlanCatalog = createPlanCatalog();
+        restartedPlanCatalog.afterPropertiesSet();
+        try {
+            assertEquals(PLANS_1, restartedPlanCatalog.getCachedPlans(BAMBOO_APPLINK_ID_1).orElse(null));
+            assertEquals(PLANS_2, restartedPlanCatalog.getCachedPlans(BAMBOO_APPLINK_ID_2).orElse(null));
+        } finally {
+            restartedPlanCatalog.destroy();
+        }
+    }
+
+    @Test
+    public void should_only_persist_changed_plans() throws InterruptedException, ExecutionException, IOException {
+        when(pluginConfiguration.isCatalogPersistenceEnabled())
+                .thenReturn(true);
+        Path catalogFile = jiraLocalHome.getRoot().toPath().resolve(CATALOG_FILE);
+        PlanCatalogImpl persistingPlanCatalog = createPlanCatalog();
+        persistingPlanCatalog.afterPropertiesSet();
+        try {
+            persistingPlanCatalog.refresh(bambooApplink1).get();
+            for (int i = 0; i < 500 && !Files.exists(catalogFile); i++) {
+                Thread.sleep(10);
+            }
+            Files.delete(catalogFile);
+
+            persistingPlanCatalog.refresh(bambooApplink1).get();
+        } finally {
+            persistingPlanCatalog.destroy();
+        }
+
+        assertFalse(Files.exists(catalogFile));
+    }
+
+    @Test
+    public void should_ignore_corrupt_persisted_catalog() throws IOException, InterruptedException {
+        when(pluginConfiguration.isCatalogPersistenceEnabled())
+                .thenReturn(true);
+        Path catalogFile = jiraLocalHome.getRoot().toPath().resolve(CATALOG_FILE);
+        Files.createDirectories(catalogFile.getParent());
+        // Magic number, format version, one Bamboo instance without an ID
+        Files.write(catalogFile, ByteBuffer.allocate(16)
+                .putInt(0x42505243)
+                .putInt(1)
+                .putInt(1)
+                .putInt(-1).array());
+
+        PlanCatalogImpl restartedPlanCatalog = createPlanCatalog();
+        try {
+            restartedPlanCatalog.afterPropertiesSet();
+
+            assertTrue(restartedPlanCatalog.getSnapshot().getEntriesByApplink().isEmpty());
+        } finally {
+            restartedPlanCatalog.destroy();
+        }
+    }
+
+    private PlanCatalogImpl createPlanCatalog() {
+        return new PlanCatalogImpl(applicationLinkService,
+                mock(EventPublisher.class),
+                jiraHome,
+                bambooRestApi,
+                pluginConfiguration);
+    }
+
+    private static ReadOnlyApplicationLink mockApplink(ApplicationId applicationId) {
+        ReadOnlyApplicationLink bambooApplink = mock(ReadOnlyApplicationLink.class);
+        when(bambooApplink.getId())
+                .thenReturn(applicationId);
+        when(bambooApplink.getName())
+                .thenReturn("Bamboo " + applicationId.get());
+        return bambooApplink;
+    }
+}
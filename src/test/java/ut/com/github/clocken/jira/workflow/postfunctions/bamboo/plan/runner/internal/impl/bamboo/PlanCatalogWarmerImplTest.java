@@ -0,0 +1,163 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ut.com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+import com.atlassian.applinks.api.ReadOnlyApplicationLinkService;
+import com.atlassian.applinks.api.application.bamboo.BambooApplicationType;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.sal.api.net.ResponseException;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.CatalogRefreshStatus;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalog;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo.PlanCatalogWarmerImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan.Builder.aPlan;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class PlanCatalogWarmerImplTest {
+
+    private static final ApplicationId BAMBOO_APPLINK_ID = new ApplicationId("a1b2c3d4-0000-1111-2222-333344445555");
+    private static final List<Plan> PLANS = Collections.singletonList(aPlan()
+            .withKey("PLAYG-VAR")
+            .withName("variable-test")
+            .thatIsEnabled(true)
+            .withVariables(Arrays.asList("VARIABLE_TWO", "VARIABLE_ONE")).build());
+    private static final long WAIT_MILLIS = 5000;
+
+    private ReadOnlyApplicationLink bambooApplink;
+    private EventPublisher eventPublisher;
+    private PlanCatalog planCatalog;
+    private PluginConfiguration pluginConfiguration;
+    private PlanCatalogWarmerImpl planCatalogWarmer;
+
+    @Before
+    public void setUp() {
+        bambooApplink = mock(ReadOnlyApplicationLink.class);
+        when(bambooApplink.getId())
+                .thenReturn(BAMBOO_APPLINK_ID);
+        when(bambooApplink.getName())
+                .thenReturn("Bamboo");
+        ReadOnlyApplicationLinkService applicationLinkService = mock(ReadOnlyApplicationLinkService.class);
+        when(applicationLinkService.getApplicationLinks(BambooApplicationType.class))
+                .thenReturn(Collections.singletonList(bambooApplink));
+        when(applicationLinkService.getApplicationLink(BAMBOO_APPLINK_ID))
+                .thenReturn(bambooApplink);
+
+        eventPublisher = mock(EventPublisher.class);
+        planCatalog = mock(PlanCatalog.class);
+        pluginConfiguration = mock(PluginConfiguration.class);
+        when(pluginConfiguration.isCatalogWarmerEnabled())
+                .thenReturn(true);
+        when(pluginConfiguration.getCatalogRefreshIntervalSeconds())
+                .thenReturn(3600);
+        when(pluginConfiguration.getCatalogRefreshJitterSeconds())
+                .thenReturn(1);
+
+        planCatalogWarmer = new PlanCatalogWarmerImpl(applicationLinkService,
+                eventPublisher,
+                planCatalog,
+                pluginConfiguration);
+    }
+
+    @After
+    public void tearDown() {
+        planCatalogWarmer.destroy();
+    }
+
+    @Test
+    public void should_preload_plans_when_enabled() throws InterruptedException {
+        when(planCatalog.refresh(bambooApplink))
+                .thenReturn(CompletableFuture.completedFuture(PLANS));
+
+        planCatalogWarmer.afterPropertiesSet();
+        CatalogRefreshStatus status = awaitStatus(refreshStatus -> refreshStatus.getLastSuccess() > 0);
+
+        assertEquals(BAMBOO_APPLINK_ID, status.getApplicationId());
+        assertEquals(1, status.getPlanCount());
+        assertTrue(status.getNextRefresh() > status.getLastSuccess());
+        verify(eventPublisher).register(planCatalogWarmer);
+    }
+
+    @Test
+    public void should_refresh_exactly_at_interval_without_jitter() throws InterruptedException {
+        when(pluginConfiguration.getCatalogRefreshJitterSeconds())
+                .thenReturn(0);
+        when(planCatalog.refresh(bambooApplink))
+                .thenReturn(CompletableFuture.completedFuture(PLANS));
+
+        planCatalogWarmer.afterPropertiesSet();
+        CatalogRefreshStatus status = awaitStatus(refreshStatus -> refreshStatus.getNextRefresh() > refreshStatus.getLastSuccess()
+                && refreshStatus.getLastSuccess() > 0);
+
+        long delayMillis = status.getNextRefresh() - status.getLastSuccess();
+        assertTrue(delayMillis >= TimeUnit.HOURS.toMillis(1));
+        assertTrue(delayMillis < TimeUnit.HOURS.toMillis(1) + 1000);
+    }
+
+    @Test
+    public void should_record_failed_refresh() throws InterruptedException {
+        CompletableFuture<List<Plan>> failedRefresh = new CompletableFuture<>();
+        failedRefresh.completeExceptionally(new ResponseException("Bamboo is down"));
+        when(planCatalog.refresh(bambooApplink))
+                .thenReturn(failedRefresh);
+
+        planCatalogWarmer.afterPropertiesSet();
+        CatalogRefreshStatus status = awaitStatus(refreshStatus -> refreshStatus.getLastFailure() > 0);
+
+        assertEquals("Bamboo is down", status.getLastError());
+        assertEquals(0, status.getLastSuccess());
+        assertTrue(status.getNextRefresh() > status.getLastFailure());
+    }
+
+    @Test
+    public void should_not_preload_plans_when_disabled() {
+        when(pluginConfiguration.isCatalogWarmerEnabled())
+                .thenReturn(false);
+
+        planCatalogWarmer.afterPropertiesSet();
+
+        assertTrue(planCatalogWarmer.getStatus().isEmpty());
+        verify(eventPublisher, never()).register(any());
+    }
+
+    private CatalogRefreshStatus awaitStatus(Predicate<CatalogRefreshStatus> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            List<CatalogRefreshStatus> status = planCatalogWarmer.getStatus();
+            if (!status.isEmpty() && condition.test(status.get(0))) {
+                return status.get(0);
+            }
+            Thread.sleep(50);
+        }
+        fail("The plans were not refreshed in time.");
+        return null;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ut.com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalog;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalogSnapshot;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo.PlanSearchIndexImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan.Builder.aPlan;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class PlanSearchIndexImplTest {
+
+    private static final ApplicationId BAMBOO_APPLINK_ID = new ApplicationId("a1b2c3d4-0000-1111-2222-333344445555");
+    private static final List<Plan> PLANS = Arrays.asList(
+            aPlan().withKey("PLAYG-VAR")
+                    .withName("variable-test")
+                    .withDescription("Prints all variables before production")
+                    .thatIsEnabled(true).build(),
+            aPlan().withKey("DEPLOY-PROD")
+                    .withName("Deploy to production")
+                    .withDescription("Deploys the playground")
+                    .thatIsEnabled(true).build(),
+            aPlan().withKey("PLAYG-OLD")
+                    .withName("Old playground")
+                    .thatIsEnabled(false).build());
+
+    private ReadOnlyApplicationLink bambooApplink;
+    private PlanCatalog planCatalog;
+    private PlanSearchIndexImpl planSearchIndex;
+
+    @Before
+    public void setUp() {
+        bambooApplink = mock(ReadOnlyApplicationLink.class);
+        when(bambooApplink.getId())
+                .thenReturn(BAMBOO_APPLINK_ID);
+        planCatalog = mock(PlanCatalog.class);
+        givenCatalogWith(PLANS);
+        planSearchIndex = new PlanSearchIndexImpl(planCatalog);
+    }
+
+    @Test
+    public void should_find_plans_by_prefix_of_key_name_or_description() {
+        assertEquals(Arrays.asList("PLAYG-VAR", "PLAYG-OLD", "DEPLOY-PROD"), search("playg", 10));
+        assertEquals(Collections.singletonList("PLAYG-VAR"), search("VARIA", 10));
+        assertEquals(Collections.singletonList("DEPLOY-PROD"), search("deploy", 10));
+        assertEquals(Collections.emptyList(), search("release", 10));
+    }
+
+    @Test
+    public void should_rank_key_matches_before_name_and_description_matches() {
+        assertEquals(Arrays.asList("DEPLOY-PROD", "PLAYG-VAR"), search("prod", 10));
+        assertEquals(Arrays.asList("PLAYG-OLD", "DEPLOY-PROD"), search("playground", 10));
+    }
+
+    @Test
+    public void should_require_all_words_of_the_query() {
+        assertEquals(Collections.singletonList("PLAYG-OLD"), search("old play", 10));
+    }
+
+    @Test
+    public void should_return_at_most_limit_plans() {
+        assertEquals(Arrays.asList("PLAYG-VAR", "DEPLOY-PROD"), search("", 2));
+        assertEquals(Collections.singletonList("PLAYG-VAR"), search("playg", 1));
+    }
+
+    @Test
+    public void should_rebuild_index_when_plans_changed() {
+        assertEquals(Collections.emptyList(), search("release", 10));
+
+        givenCatalogWith(Collections.singletonList(aPlan()
+                .withKey("REL-MAIN")
+                .withName("Release")
+                .thatIsEnabled(true).build()));
+
+        assertEquals(Collections.singletonList("REL-MAIN"), search("release", 10));
+    }
+
+    private void givenCatalogWith(List<Plan> plans) {
+        PlanCatalogSnapshot snapshot = (planCatalog.getSnapshot() == null ? PlanCatalogSnapshot.empty() : planCatalog.getSnapshot())
+                .withPlans(BAMBOO_APPLINK_ID, plans, System.currentTimeMillis());
+        when(planCatalog.getSnapshot())
+                .thenReturn(snapshot);
+        when(planCatalog.getPlansByApplink(Collections.singletonList(bambooApplink)))
+                .thenReturn(Collections.singletonMap(BAMBOO_APPLINK_ID, plans));
+    }
+
+    private List<String> search(String query, int limit) {
+        return planSearchIndex.search(bambooApplink, query, limit).stream()
+                .map(Plan::getKey)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ut.com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+import com.atlassian.applinks.api.ReadOnlyApplicationLinkService;
+import com.atlassian.applinks.api.event.ApplicationLinkDeletedEvent;
+import com.atlassian.event.api.EventPublisher;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PluginConfiguration;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PreparedTrigger;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.FunctionDescriptorUtilsImpl;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.TemplateCompilerImpl;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo.ConfigurationRegistryImpl;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.impl.bamboo.PreparedTriggerCacheImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class PreparedTriggerCacheImplTest {
+
+    private static final String BAMBOO_APPLINK_ID = "a1b2c3d4-0000-1111-2222-333344445555";
+    private static final String PLAN_KEY = "PLAYG-VAR";
+
+    private ReadOnlyApplicationLinkService applicationLinkService;
+    private ConfigurationRegistryImpl configurationRegistry;
+    private PreparedTriggerCacheImpl preparedTriggerCache;
+    private Map<String, String> args;
+
+    @Before
+    public void setUp() {
+        ReadOnlyApplicationLink bambooApplink = mock(ReadOnlyApplicationLink.class);
+        applicationLinkService = mock(ReadOnlyApplicationLinkService.class);
+        when(applicationLinkService.getApplicationLink(new ApplicationId(BAMBOO_APPLINK_ID)))
+                .thenReturn(bambooApplink);
+        PluginConfiguration pluginConfiguration = mock(PluginConfiguration.class);
+        when(pluginConfiguration.getTemplateCacheSize())
+                .thenReturn(10);
+        when(pluginConfiguration.getTriggerCacheSize())
+                .thenReturn(10);
+        when(pluginConfiguration.getConfigurationRegistrySize())
+                .thenReturn(10);
+
+        FunctionDescriptorUtilsImpl functionDescriptorUtils = new FunctionDescriptorUtilsImpl();
+        configurationRegistry = new ConfigurationRegistryImpl(pluginConfiguration);
+        preparedTriggerCache = new PreparedTriggerCacheImpl(applicationLinkService,
+                mock(EventPublisher.class),
+                functionDescriptorUtils,
+                new TemplateCompilerImpl(pluginConfiguration),
+                configurationRegistry,
+                pluginConfiguration);
+
+        Map<String, String> selectedValuesByVariable = new HashMap<>();
+        selectedValuesByVariable.put("selected_field_for_" + BAMBOO_APPLINK_ID + "_" + PLAN_KEY + "_ISSUE", "$(issuekey)");
+        selectedValuesByVariable.put("custom_value_for_" + BAMBOO_APPLINK_ID + "_" + PLAN_KEY + "_MESSAGE", "Hello");
+        args = new HashMap<>();
+        args.put("selected_applink", BAMBOO_APPLINK_ID);
+        args.put("selected_plan_for_" + BAMBOO_APPLINK_ID, BAMBOO_APPLINK_ID + "_" + PLAN_KEY);
+        args.put("selected_values_by_variable", functionDescriptorUtils.createEncodedStringFromMap(selectedValuesByVariable));
+    }
+
+    @Test
+    public void should_prepare_plan_and_variables_without_prefixes() {
+        PreparedTrigger preparedTrigger = preparedTriggerCache.getPreparedTrigger(args).orElseThrow(AssertionError::new);
+
+        assertEquals(PLAN_KEY, preparedTrigger.getPlanKey());
+        assertEquals("$(issuekey)", preparedTrigger.getTemplatesByVariable().get("ISSUE").getSegments().get(0).toString());
+        assertTrue(preparedTrigger.getTemplatesByVariable().get("MESSAGE").isConstant());
+    }
+
+    @Test
+    public void should_prepare_each_configuration_once() {
+        PreparedTrigger preparedTrigger = preparedTriggerCache.getPreparedTrigger(args).orElseThrow(AssertionError::new);
+
+        assertSame(preparedTrigger, preparedTriggerCache.getPreparedTrigger(new HashMap<>(args)).orElse(null));
+        verify(applicationLinkService, times(1)).getApplicationLink(any(ApplicationId.class));
+    }
+
+    @Test
+    public void should_share_trigger_between_post_functions_with_same_configuration() {
+        Map<String, String> firstArgs = new HashMap<>(args);
+        firstArgs.put("configuration_id", configurationRegistry.register(args));
+        Map<String, String> secondArgs = new HashMap<>(args);
+        secondArgs.put("configuration_id", configurationRegistry.register(args));
+        secondArgs.put("full.module.key", "com.github.clocken.bamboo-plan-runner:bamboo-plan-runner");
+
+        PreparedTrigger preparedTrigger = preparedTriggerCache.getPreparedTrigger(firstArgs).orElseThrow(AssertionError::new);
+
+        assertSame(preparedTrigger, preparedTriggerCache.getPreparedTrigger(secondArgs).orElse(null));
+        verify(applicationLinkService, times(1)).getApplicationLink(any(ApplicationId.class));
+    }
+
+    @Test
+    public void should_prepare_from_arguments_if_configuration_is_not_registered() {
+        args.put("configuration_id", "unknown");
+
+        PreparedTrigger preparedTrigger = preparedTriggerCache.getPreparedTrigger(args).orElseThrow(AssertionError::new);
+
+        assertEquals(PLAN_KEY, preparedTrigger.getPlanKey());
+    }
+
+    @Test
+    public void should_not_get_trigger_of_other_configuration_for_stale_id() {
+        Map<String, String> otherArgs = new HashMap<>(args);
+        otherArgs.put("selected_plan_for_" + BAMBOO_APPLINK_ID, BAMBOO_APPLINK_ID + "_PLAYG-OTHER");
+        String otherConfigurationId = configurationRegistry.register(otherArgs);
+        PreparedTrigger otherTrigger = preparedTriggerCache.getPreparedTrigger(otherArgs).orElseThrow(AssertionError::new);
+        args.put("configuration_id", otherConfigurationId);
+
+        PreparedTrigger preparedTrigger = preparedTriggerCache.getPreparedTrigger(args).orElseThrow(AssertionError::new);
+
+        assertEquals(PLAN_KEY, preparedTrigger.getPlanKey());
+        assertSame(otherTrigger, preparedTriggerCache.getPreparedTrigger(otherArgs).orElse(null));
+    }
+
+    @Test
+    public void should_prepare_again_after_application_link_was_deleted() {
+        PreparedTrigger preparedTrigger = preparedTriggerCache.getPreparedTrigger(args).orElseThrow(AssertionError::new);
+
+        preparedTriggerCache.onApplicationLinkDeleted(mock(ApplicationLinkDeletedEvent.class));
+
+        assertNotSame(preparedTrigger, preparedTriggerCache.getPreparedTrigger(args).orElse(null));
+    }
+
+    @Test
+    public void should_not_prepare_without_existing_application_link() {
+        when(applicationLinkService.getApplicationLink(any(ApplicationId.class)))
+                .thenReturn(null);
+
+        assertFalse(preparedTriggerCache.getPreparedTrigger(args).isPresent());
+    }
+}
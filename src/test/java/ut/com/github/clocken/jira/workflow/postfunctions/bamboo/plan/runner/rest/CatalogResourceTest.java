@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ut.com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.rest;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.ReadOnlyApplicationLink;
+import com.atlassian.applinks.api.ReadOnlyApplicationLinkService;
+import com.atlassian.applinks.api.application.bamboo.BambooApplicationType;
+import com.atlassian.sal.api.user.UserKey;
+import com.atlassian.sal.api.user.UserManager;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalog;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalogSnapshot;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanCatalogWarmer;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.PlanSearchIndex;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.rest.CatalogResource;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.bamboo.Plan.Builder.aPlan;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+public class CatalogResourceTest {
+
+    private static final ApplicationId BAMBOO_APPLINK_ID = new ApplicationId("a1b2c3d4-0000-1111-2222-333344445555");
+    private static final UserKey ADMIN = new UserKey("admin");
+    private static final UserKey USER = new UserKey("user");
+
+    private UserManager userManager;
+    private PlanCatalog planCatalog;
+    private PlanCatalogWarmer planCatalogWarmer;
+    private CatalogResource catalogResource;
+
+    @Before
+    public void setUp() {
+        userManager = mock(UserManager.class);
+        when(userManager.isAdmin(ADMIN))
+                .thenReturn(true);
+
+        ReadOnlyApplicationLink bambooApplink = mock(ReadOnlyApplicationLink.class);
+        when(bambooApplink.getId())
+                .thenReturn(BAMBOO_APPLINK_ID);
+        when(bambooApplink.getType())
+                .thenReturn(mock(BambooApplicationType.class));
+        ReadOnlyApplicationLinkService applicationLinkService = mock(ReadOnlyApplicationLinkService.class);
+        when(applicationLinkService.getApplicationLink(BAMBOO_APPLINK_ID))
+                .thenReturn(bambooApplink);
+
+        List<Plan> plans = Collections.singletonList(aPlan()
+                .withKey("PLAYG-VAR")
+                .withName("Variables")
+                .withVariables(Arrays.asList("ISSUE", "MESSAGE")).build());
+        planCatalog = mock(PlanCatalog.class);
+        when(planCatalog.getPlansByApplink(Collections.singletonList(bambooApplink)))
+                .thenReturn(Collections.singletonMap(BAMBOO_APPLINK_ID, plans));
+        when(planCatalog.getSnapshot())
+                .thenReturn(PlanCatalogSnapshot.empty()
+                        .withPlans(BAMBOO_APPLINK_ID, Collections.emptyList(), 1L)
+                        .withPlans(BAMBOO_APPLINK_ID, plans, 2L));
+
+        planCatalogWarmer = mock(PlanCatalogWarmer.class);
+        catalogResource = new CatalogResource(userManager, applicationLinkService, planCatalog, planCatalogWarmer,
+                mock(PlanSearchIndex.class));
+    }
+
+    @Test
+    public void should_forbid_anonymous_users() {
+        assertEquals(403, catalogResource.getStatus().getStatus());
+        assertEquals(403, catalogResource.getPlans(BAMBOO_APPLINK_ID.get()).getStatus());
+        assertEquals(403, catalogResource.searchPlans(BAMBOO_APPLINK_ID.get(), "PLAYG", 20).getStatus());
+        assertEquals(403, catalogResource.getVariables(BAMBOO_APPLINK_ID.get(), "PLAYG-VAR").getStatus());
+        verifyZeroInteractions(planCatalog, planCatalogWarmer);
+    }
+
+    @Test
+    public void should_forbid_users_other_than_admins() {
+        when(userManager.getRemoteUserKey())
+                .thenReturn(USER);
+
+        assertEquals(403, catalogResource.getStatus().getStatus());
+        assertEquals(403, catalogResource.getVariables(BAMBOO_APPLINK_ID.get(), "PLAYG-VAR").getStatus());
+        verifyZeroInteractions(planCatalog, planCatalogWarmer);
+    }
+
+    @Test
+    public void should_return_variables_with_catalog_version() {
+        when(userManager.getRemoteUserKey())
+                .thenReturn(ADMIN);
+
+        Response response = catalogResource.getVariables(BAMBOO_APPLINK_ID.get(), "PLAYG-VAR");
+
+        assertEquals(200, response.getStatus());
+        assertEquals(Arrays.asList("ISSUE", "MESSAGE"), response.getEntity());
+        assertEquals(2L, response.getMetadata().getFirst("X-Catalog-Version"));
+    }
+
+    @Test
+    public void should_not_find_variables_of_unknown_plan_or_applink() {
+        when(userManager.getRemoteUserKey())
+                .thenReturn(ADMIN);
+
+        assertEquals(404, catalogResource.getVariables(BAMBOO_APPLINK_ID.get(), "PLAYG-OTHER").getStatus());
+        assertEquals(404, catalogResource.getVariables("not-an-applink", "PLAYG-VAR").getStatus());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ut.com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.rest;
+
+import com.atlassian.jira.issue.fields.Field;
+import com.atlassian.jira.issue.fields.FieldException;
+import com.atlassian.jira.util.I18nHelper;
+import com.atlassian.sal.api.user.UserKey;
+import com.atlassian.sal.api.user.UserManager;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.FieldAccessor;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.rest.FieldResource;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+public class FieldResourceTest {
+
+    private static final UserKey ADMIN = new UserKey("admin");
+
+    private UserManager userManager;
+    private FieldAccessor fieldAccessor;
+    private FieldResource fieldResource;
+
+    @Before
+    public void setUp() {
+        userManager = mock(UserManager.class);
+        when(userManager.isAdmin(ADMIN))
+                .thenReturn(true);
+        fieldAccessor = mock(FieldAccessor.class);
+        fieldResource = new FieldResource(userManager, mock(I18nHelper.class), fieldAccessor);
+    }
+
+    @Test
+    public void should_forbid_users_other_than_admins() {
+        when(userManager.getRemoteUserKey())
+                .thenReturn(new UserKey("user"));
+
+        assertEquals(403, fieldResource.searchFields("assignee", 20).getStatus());
+        verifyZeroInteractions(fieldAccessor);
+    }
+
+    @Test
+    public void should_search_fields_with_limited_results() throws FieldException {
+        when(userManager.getRemoteUserKey())
+                .thenReturn(ADMIN);
+        Field assignee = mock(Field.class);
+        when(assignee.getId())
+                .thenReturn("assignee");
+        when(fieldAccessor.searchExportableJiraFields("assignee", 100))
+                .thenReturn(Collections.singletonList(assignee));
+
+        Response response = fieldResource.searchFields("assignee", 1000);
+
+        assertEquals(200, response.getStatus());
+        assertEquals(1, ((List<?>) response.getEntity()).size());
+    }
+}
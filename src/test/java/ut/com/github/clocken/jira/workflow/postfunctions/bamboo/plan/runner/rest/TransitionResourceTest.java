@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 clocken
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ut.com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.rest;
+
+import com.atlassian.sal.api.user.UserKey;
+import com.atlassian.sal.api.user.UserManager;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.PlanUsageIndex;
+import com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.rest.TransitionResource;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.util.Collections;
+import java.util.List;
+
+import static com.github.clocken.jira.workflow.postfunctions.bamboo.plan.runner.internal.api.TransitionReference.Builder.aTransitionReference;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+public class TransitionResourceTest {
+
+    private static final String BAMBOO_APPLINK_ID = "a1b2c3d4-0000-1111-2222-333344445555";
+    private static final String PLAN_KEY = "PLAYG-VAR";
+    private static final UserKey ADMIN = new UserKey("admin");
+
+    private UserManager userManager;
+    private PlanUsageIndex planUsageIndex;
+    private TransitionResource transitionResource;
+
+    @Before
+    public void setUp() {
+        userManager = mock(UserManager.class);
+        when(userManager.isAdmin(ADMIN))
+                .thenReturn(true);
+        planUsageIndex = mock(PlanUsageIndex.class);
+        transitionResource = new TransitionResource(userManager, planUsageIndex);
+    }
+
+    @Test
+    public void should_forbid_anonymous_users() {
+        assertEquals(403, transitionResource.getTransitions(BAMBOO_APPLINK_ID, PLAN_KEY, null).getStatus());
+        verifyZeroInteractions(planUsageIndex);
+    }
+
+    @Test
+    public void should_return_transitions_running_plan() {
+        when(userManager.getRemoteUserKey())
+                .thenReturn(ADMIN);
+        when(planUsageIndex.getTransitions(BAMBOO_APPLINK_ID, PLAN_KEY, "ISSUE"))
+                .thenReturn(Collections.singletonList(aTransitionReference()
+                        .inWorkflow("Software")
+                        .forTransition(11, "Start")
+                        .atPostFunctionPosition(1)
+                        .forApplink(BAMBOO_APPLINK_ID)
+                        .forPlan(PLAN_KEY)
+                        .withVariables(Collections.singletonList("ISSUE")).build()));
+
+        Response response = transitionResource.getTransitions(BAMBOO_APPLINK_ID, PLAN_KEY, "ISSUE");
+
+        assertEquals(200, response.getStatus());
+        assertEquals(1, ((List<?>) response.getEntity()).size());
+    }
+}
@@ -35,13 +35,22 @@ public class MockApplicationLinkRequest implements ApplicationLinkRequest {
     private final String responseBody;
     private final int statusCode;
     private final boolean mockSuccessfulRequest;
+    private final Map<String, String> responseHeaders;
 
     public MockApplicationLinkRequest(String responseBody,
                                       int statusCode,
                                       boolean mockSuccessfulRequest) {
+        this(responseBody, statusCode, mockSuccessfulRequest, Collections.emptyMap());
+    }
+
+    public MockApplicationLinkRequest(String responseBody,
+                                      int statusCode,
+                                      boolean mockSuccessfulRequest,
+                                      Map<String, String> responseHeaders) {
         this.responseBody = responseBody;
         this.statusCode = statusCode;
         this.mockSuccessfulRequest = mockSuccessfulRequest;
+        this.responseHeaders = responseHeaders;
     }
 
     @Override
@@ -117,7 +126,7 @@ public class MockApplicationLinkRequest implements ApplicationLinkRequest {
 
     @Override
     public void execute(ResponseHandler<? super Response> responseHandler) throws ResponseException {
-        responseHandler.handle(new MockResponse(responseBody, statusCode, mockSuccessfulRequest, new HashMap<>()));
+        responseHandler.handle(new MockResponse(responseBody, statusCode, mockSuccessfulRequest, new HashMap<>(responseHeaders)));
     }
 
     @Override
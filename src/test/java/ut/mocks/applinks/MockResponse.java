@@ -20,7 +20,9 @@ import com.atlassian.sal.api.net.Response;
 import com.atlassian.sal.api.net.ResponseException;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
@@ -58,7 +60,7 @@ public class MockResponse implements Response {
 
     @Override
     public InputStream getResponseBodyAsStream() throws ResponseException {
-        throw new UnsupportedOperationException();
+        return new ByteArrayInputStream(getResponseBodyAsString().getBytes(StandardCharsets.UTF_8));
     }
 
     @Override